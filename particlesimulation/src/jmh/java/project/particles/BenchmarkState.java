@@ -0,0 +1,80 @@
+package project.particles;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Level;
+
+/**
+ * Shared parameters of the benchmarks, only the ones every benchmark depends on
+ * Every trial starts from the same seeded particles, so runs can be compared.
+ * A benchmark which depends on rMax, the attraction or the subdivision declares them as its own parameters and overrides the getter
+ */
+@State(Scope.Benchmark)
+public class BenchmarkState {
+
+    public static final long SEED = 42;
+    public static final int WIDTH = 1800;
+    public static final int HEIGHT = 1200;
+
+    @Param({"3600", "36000"})
+    public int particles;
+
+    @Param({"6"})
+    public int groups;
+
+    @Param({"1"})
+    public int threads;
+
+    public ParticleManager particleManager;
+
+    /**
+     * Creates the particle manager with seeded random particles
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        particleManager = createParticleManager();
+    }
+
+    /**
+     * Creates a new particle manager with the benchmark parameters
+     * @return particle manager with the particles created
+     */
+    public ParticleManager createParticleManager() {
+        ParticleManager manager = new ParticleManager(WIDTH, HEIGHT);
+        manager.setSeed(SEED);
+        manager.setNumberOfGroups(groups);
+        manager.setNumberParticles(Math.max(1, particles / groups));
+        manager.setAttraction(AttractionPresets.get(getPreset(), groups));
+        manager.setRMax(getRMax());
+        manager.setThreads(threads);
+        manager.setSubdivision(getSubdivision());
+        manager.createParticles();
+        return manager;
+    }
+
+    /**
+     * Returns the maximum distance of interaction of the particles
+     * @return rMax, the default of the simulation unless the benchmark has it as a parameter
+     */
+    public double getRMax() {
+        return 172;
+    }
+
+    /**
+     * Returns the attraction preset of the particles
+     * @return preset, rgb worm unless the benchmark has it as a parameter
+     */
+    public int getPreset() {
+        return AttractionPresets.RGB_WORM;
+    }
+
+    /**
+     * Returns the cells per rMax of the grid
+     * @return subdivision, the default of the simulation unless the benchmark has it as a parameter
+     */
+    public int getSubdivision() {
+        return 2;
+    }
+}
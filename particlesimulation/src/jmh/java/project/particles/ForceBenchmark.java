@@ -0,0 +1,95 @@
+package project.particles;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Force of single pairs of particles, without the grid
+ * Only depends on rMax and the attraction, so it does not share the particle parameters of BenchmarkState
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "--add-modules=jdk.incubator.vector"})
+public class ForceBenchmark {
+
+    private static final int PAIRS = 4096;
+    private static final int GROUPS = 6;
+
+    @Param({"86", "172"})
+    public double rMax;
+
+    @Param({"1", "2", "3", "4"})
+    public int preset;
+
+    private final double[] x1 = new double[PAIRS];
+    private final double[] y1 = new double[PAIRS];
+    private final double[] x2 = new double[PAIRS];
+    private final double[] y2 = new double[PAIRS];
+    private final double[] a = new double[PAIRS];
+    private final double[] d = new double[PAIRS];
+    private ForceAccumulator accumulator;
+
+    /**
+     * Picks seeded pairs of particles which are close to eachother
+     */
+    @Setup(Level.Trial)
+    public void createPairs() {
+        Random random = new Random(BenchmarkState.SEED);
+        double[][] attraction = AttractionPresets.get(preset, GROUPS);
+        for (int i = 0; i < PAIRS; i++) {
+            x1[i] = random.nextDouble() * BenchmarkState.WIDTH;
+            y1[i] = random.nextDouble() * BenchmarkState.HEIGHT;
+            x2[i] = x1[i] + (random.nextDouble() * 2 - 1) * rMax;
+            y2[i] = y1[i] + (random.nextDouble() * 2 - 1) * rMax;
+            a[i] = attraction[random.nextInt(GROUPS)][random.nextInt(GROUPS)];
+            d[i] = random.nextDouble() * 1.2;
+        }
+        // The accumulator only needs the world for calculateDistance, the store is empty
+        ParticleStore store = new ParticleStore(0);
+        Grid grid = new Grid(rMax, 2, BenchmarkState.WIDTH, BenchmarkState.HEIGHT, store);
+        accumulator = new ForceAccumulator(store, grid, attraction, rMax, BenchmarkState.WIDTH, BenchmarkState.HEIGHT, null);
+    }
+
+    /**
+     * Distance, wrap and force of one pair of particles
+     */
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double calculateDistance() {
+        accumulator.clearTotals();
+        for (int i = 0; i < PAIRS; i++) {
+            accumulator.calculateDistance(x1[i], y1[i], x2[i], y2[i], a[i]);
+        }
+        return accumulator.getTotalForcex() + accumulator.getTotalForcey();
+    }
+
+    /**
+     * Only the piecewise force function
+     */
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double force() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += ParticleManager.force(d[i], a[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,70 @@
+package project.particles;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "--add-modules=jdk.incubator.vector"})
+public class GridBenchmark extends BenchmarkState {
+
+    @Param({"86", "172"})
+    public double rMax;
+
+    @Param({"1", "2", "3"})
+    public int subdivision;
+
+    private Grid grid = new Grid();
+
+    /**
+     * Builds the grid once for the neighbor benchmark
+     */
+    @Setup(Level.Trial)
+    public void buildGrid() {
+        grid.build(rMax, subdivision, WIDTH, HEIGHT, particleManager.getParticles());
+    }
+
+    /**
+     * Rebuilds the cell list, like every tick does
+     */
+    @Benchmark
+    public Grid build() {
+        grid.build(rMax, subdivision, WIDTH, HEIGHT, particleManager.getParticles());
+        return grid;
+    }
+
+    /**
+     * Visits the neighbors of every particle
+     */
+    @Benchmark
+    public void forEachNeighbor(Blackhole blackhole) {
+        NeighborVisitor visitor = blackhole::consume;
+        int n = particleManager.getParticles().size();
+        for (int i = 0; i < n; i++) {
+            grid.forEachNeighbor(i, visitor);
+        }
+    }
+
+    @Override
+    public double getRMax() {
+        return rMax;
+    }
+
+    @Override
+    public int getSubdivision() {
+        return subdivision;
+    }
+}
@@ -0,0 +1,87 @@
+package project.particles;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "--add-modules=jdk.incubator.vector"})
+public class KernelBenchmark extends BenchmarkState {
+
+    @Param({"86", "172"})
+    public double rMax;
+
+    @Param({"1", "2", "3", "4"})
+    public int preset;
+
+    @Param({"direct", "scalar", "vector", "table", "table-fast-sqrt"})
+    public String kernel;
+
+    private ForceAccumulator accumulator;
+
+    /**
+     * Builds the grid and the accumulator with the selected kernel
+     */
+    @Setup(Level.Trial)
+    public void createAccumulator() {
+        ForceKernel forceKernel;
+        switch (kernel) {
+            case "scalar":
+                forceKernel = new ScalarForceKernel();
+                break;
+            case "vector":
+                forceKernel = ForceKernels.vector();
+                if (forceKernel == null) {
+                    throw new IllegalStateException("Vector kernel not available");
+                }
+                break;
+            case "table":
+                forceKernel = new TableForceKernel(new ForceTable(200, ParticleManager.FORCE_B), false);
+                break;
+            case "table-fast-sqrt":
+                forceKernel = new TableForceKernel(new ForceTable(200, ParticleManager.FORCE_B), true);
+                break;
+            default:
+                forceKernel = null;
+        }
+        ParticleStore store = particleManager.getParticles();
+        Grid grid = new Grid(rMax, getSubdivision(), WIDTH, HEIGHT, store);
+        accumulator = new ForceAccumulator(store, grid, AttractionPresets.get(preset, groups), rMax, WIDTH, HEIGHT, forceKernel);
+    }
+
+    /**
+     * Force on every particle, without the integration
+     */
+    @Benchmark
+    public double forcePass() {
+        double sum = 0;
+        int n = particleManager.getParticles().size();
+        for (int i = 0; i < n; i++) {
+            accumulator.accumulate(i);
+            sum += accumulator.getTotalForcex() + accumulator.getTotalForcey();
+        }
+        return sum;
+    }
+
+    @Override
+    public double getRMax() {
+        return rMax;
+    }
+
+    @Override
+    public int getPreset() {
+        return preset;
+    }
+}
@@ -0,0 +1,59 @@
+package project.particles;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "--add-modules=jdk.incubator.vector"})
+public class RenderBenchmark extends BenchmarkState {
+
+    @Param({"false", "true"})
+    public boolean glow;
+
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    /**
+     * Creates the offscreen image, turns the glow on and publishes the particles to draw
+     */
+    @Setup(Level.Trial)
+    public void createImage() {
+        if (glow) {
+            particleManager.changeGlow();
+        }
+        particleManager.publishSnapshot();
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void disposeImage() {
+        graphics.dispose();
+    }
+
+    /**
+     * Renders all particles into the offscreen image
+     */
+    @Benchmark
+    public BufferedImage render() {
+        graphics.clearRect(0, 0, WIDTH, HEIGHT);
+        particleManager.render(graphics);
+        return image;
+    }
+}
@@ -0,0 +1,83 @@
+package project.particles;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ticks of large simulations with and without the space filling curve reorder
+ * The world grows with the number of particles, so every particle has about the same number of neighbors.
+ * The reorder runs every 20 ticks, its cost is part of the measured ticks.
+ * Without SIMD the force pass reads the positions of the neighbors from the store, with SIMD from the
+ * cell sorted copies of the grid, so the reorder mostly helps the grid build and the integration
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "--add-modules=jdk.incubator.vector", "-Xmx4g"})
+public class ReorderBenchmark {
+
+    private static final double DENSITY = 0.02; // particles per square pixel
+    private static final double RMAX = 20;
+
+    @Param({"100000", "1000000"})
+    public int particles;
+
+    @Param({"none", "morton", "hilbert"})
+    public String order;
+
+    @Param({"true", "false"})
+    public boolean simd;
+
+    @Param({"false"})
+    public boolean verlet;
+
+    @Param({"1"})
+    public int threads;
+
+    private ParticleManager particleManager;
+
+    /**
+     * Starts every iteration from the same particles, in the order they were created
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        int width = (int) Math.sqrt(particles / DENSITY * 1.5);
+        int height = (int) (width / 1.5);
+        particleManager = new ParticleManager(width, height);
+        particleManager.setSeed(BenchmarkState.SEED);
+        particleManager.setNumberOfGroups(6);
+        particleManager.setNumberParticles(particles / 6);
+        particleManager.setAttraction(AttractionPresets.get(AttractionPresets.RGB_WORM, 6));
+        particleManager.setRMax(RMAX);
+        particleManager.setThreads(threads);
+        particleManager.setSimd(simd);
+        particleManager.setVerlet(verlet);
+        if (!order.equals("none")) {
+            particleManager.setReorder(20, SpaceFillingCurve.valueOf(order.toUpperCase()));
+        }
+        particleManager.createParticles();
+    }
+
+    /**
+     * One full tick of the simulation
+     */
+    @Benchmark
+    public ParticleManager update() {
+        particleManager.update();
+        return particleManager;
+    }
+}
@@ -0,0 +1,110 @@
+package project.particles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ticks of large simulations with the particles on the heap, in an arena or in a memory-mapped file
+ * The world grows with the number of particles, so every particle has about the same number of neighbors.
+ * scan only reads every position through the store, the cost of the accessors without the force pass.
+ * Run with -prof gc to compare the allocation and the collections, the particles outside the heap are not copied
+ * by the collector. Only the heap by default, arena and mapped need the benchmarks built with -P benchmarks,ffm
+ * and -p storage=heap,arena,mapped -jvmArgsAppend --enable-preview
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "--add-modules=jdk.incubator.vector", "-Xmx4g"})
+public class StorageBenchmark {
+
+    private static final double DENSITY = 0.02; // particles per square pixel
+    private static final double RMAX = 20;
+
+    @Param({"100000", "1000000"})
+    public int particles;
+
+    @Param({"heap"}) // or arena and mapped, see above
+    public String storage;
+
+    @Param({"true", "false"})
+    public boolean simd;
+
+    @Param({"1"})
+    public int threads;
+
+    private ParticleManager particleManager;
+    private Path file;
+
+    /**
+     * Starts every iteration from the same particles
+     */
+    @Setup(Level.Iteration)
+    public void reset() throws IOException {
+        int width = (int) Math.sqrt(particles / DENSITY * 1.5);
+        int height = (int) (width / 1.5);
+        particleManager = new ParticleManager(width, height);
+        particleManager.setSeed(BenchmarkState.SEED);
+        particleManager.setNumberOfGroups(6);
+        particleManager.setNumberParticles(particles / 6);
+        particleManager.setAttraction(AttractionPresets.get(AttractionPresets.RGB_WORM, 6));
+        particleManager.setRMax(RMAX);
+        particleManager.setThreads(threads);
+        particleManager.setSimd(simd);
+        if (storage.equals("mapped")) {
+            file = Files.createTempFile("particles", ".seg");
+        }
+        if (!storage.equals("heap") && !particleManager.setOffHeap(true, file)) {
+            throw new IllegalStateException("Off-heap particles need -P ffm and -jvmArgsAppend --enable-preview");
+        }
+        particleManager.createParticles();
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        particleManager.getParticles().close();
+        if (file != null) {
+            Files.deleteIfExists(file);
+            file = null;
+        }
+    }
+
+    /**
+     * One full tick of the simulation
+     */
+    @Benchmark
+    public ParticleManager update() {
+        particleManager.update();
+        return particleManager;
+    }
+
+    /**
+     * Sum of every position and speed, read through the getters of the store
+     */
+    @Benchmark
+    public double scan() {
+        ParticleStore store = particleManager.getParticles();
+        double sum = 0;
+        for (int i = 0; i < store.size(); i++) {
+            sum += store.getX(i) + store.getY(i) + store.getXspeed(i) + store.getYspeed(i);
+        }
+        return sum;
+    }
+}
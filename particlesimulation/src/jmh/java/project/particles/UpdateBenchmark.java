@@ -0,0 +1,68 @@
+package project.particles;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "--add-modules=jdk.incubator.vector"})
+public class UpdateBenchmark extends BenchmarkState {
+
+    @Param({"86", "172"})
+    public double rMax;
+
+    @Param({"1", "2", "3"})
+    public int subdivision;
+
+    @Param({"1", "2", "3", "4"})
+    public int preset;
+
+    @Param({"false", "true"})
+    public boolean symmetric;
+
+    /**
+     * Starts every iteration from the same particles,
+     * so the clustering of earlier iterations does not change the result
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        particleManager = createParticleManager();
+        particleManager.setSymmetric(symmetric);
+    }
+
+    /**
+     * One full tick of the simulation
+     */
+    @Benchmark
+    public ParticleManager update() {
+        particleManager.update();
+        return particleManager;
+    }
+
+    @Override
+    public double getRMax() {
+        return rMax;
+    }
+
+    @Override
+    public int getPreset() {
+        return preset;
+    }
+
+    @Override
+    public int getSubdivision() {
+        return subdivision;
+    }
+}
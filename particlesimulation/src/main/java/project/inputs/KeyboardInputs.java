@@ -2,25 +2,45 @@ package project.inputs;
 
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.IOException;
+import java.nio.file.Path;
 
 import project.main.Simulation;
+import project.particles.AttractionPresets;
+import project.particles.Checkpoint;
 import project.particles.ParticleManager;
 
 public class KeyboardInputs implements KeyListener{
 
+    private static final Path CHECKPOINT = Path.of("checkpoint.psim");
+
     ParticleManager particleManager;
+    Simulation simulation;
 
     /**
      * Keyboard input class to interact with the simulation
      * @param simulation Particle simulation
      */
     public KeyboardInputs(Simulation simulation) {
+        this.simulation = simulation;
         particleManager = simulation.getParticleManager();
     }
 
+    /**
+     * Handles the key on the simulation thread, so the particles are not changed during an update
+     */
     @Override
     public void keyPressed(KeyEvent e) {
-        switch (e.getKeyCode()) {
+        int keyCode = e.getKeyCode();
+        simulation.runOnSimulationThread(() -> handleKey(keyCode));
+    }
+
+    /**
+     * Changes the simulation for a pressed key
+     * @param keyCode key code of the pressed key
+     */
+    private void handleKey(int keyCode) {
+        switch (keyCode) {
             // Exit the simulation
             case KeyEvent.VK_ESCAPE:
                 System.exit(0);
@@ -51,6 +71,9 @@ public class KeyboardInputs implements KeyListener{
             case KeyEvent.VK_L:
                 particleManager.setRMax(particleManager.getRMax() + 1);  
                 break;
+            case KeyEvent.VK_M:
+                particleManager.switchMesh();
+                break;
 
             // Move particles 
             case KeyEvent.VK_W:
@@ -77,50 +100,46 @@ public class KeyboardInputs implements KeyListener{
                 particleManager.ChangeAttraction();
                 break;
 
+            // Scheduler of the updates
+            case KeyEvent.VK_U:
+                simulation.getScheduler().switchMode();
+                break;
+
+            // Checkpoint of the whole simulation
+            case KeyEvent.VK_F5:
+                try {
+                    Checkpoint.save(particleManager, CHECKPOINT);
+                } catch (IOException ex) {
+                    System.err.println("Cannot save checkpoint: " + ex.getMessage());
+                }
+                break;
+            case KeyEvent.VK_F9:
+                try {
+                    Checkpoint.load(particleManager, CHECKPOINT);
+                } catch (IOException ex) {
+                    System.err.println("Cannot load checkpoint: " + ex.getMessage());
+                }
+                break;
+
+            case KeyEvent.VK_R:
+                simulation.switchRecording();
+                break;
+            case KeyEvent.VK_T:
+                particleManager.switchProfiler();
+                break;
+
             // Preset attraction matrix
             case KeyEvent.VK_1:
-                double[][] preset1 = { // total repulsion
-                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
-                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
-                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
-                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
-                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
-                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
-                };
-                particleManager.setAttraction(preset1);
+                particleManager.setAttraction(AttractionPresets.get(AttractionPresets.TOTAL_REPULSION));
                 break;
             case KeyEvent.VK_2:
-                double[][] preset2 = { // only attract own color/group
-                    {1.0,  0.0,  0.0,   0.0,    0.0,    0.0},
-                    {0.0,  1.0,  0.0,   0.0,    0.0,    0.0},
-                    {0.0,  0.0,  1.0,   0.0,    0.0,    0.0},
-                    {0.0,  0.0,  0.0,   1.0,    0.0,    0.0},
-                    {0.0,  0.0,  0.0,   0.0,    1.0,    0.0},
-                    {0.0,  0.0,  0.0,   0.0,    0.0,    1.0},
-                };
-                particleManager.setAttraction(preset2);
+                particleManager.setAttraction(AttractionPresets.get(AttractionPresets.OWN_GROUP));
                 break;
             case KeyEvent.VK_3:
-                double[][] preset3 = { // rbg worm
-                    {1.0,  -0.1,  0.0,   0.0,    0.0,    0.0},
-                    {0.2,  1.0,  0.0,   0.0,    0.0,    0.0},
-                    {0.0,  0.2,  1.0,   0.0,    0.0,    0.0},
-                    {0.0,  0.0,  0.2,   1.0,    0.0,    0.0},
-                    {0.0,  0.0,  0.0,   0.2,    1.0,    0.0},
-                    {0.0,  0.0,  0.0,   0.0,    0.2,    1.0},
-                };
-                particleManager.setAttraction(preset3);
+                particleManager.setAttraction(AttractionPresets.get(AttractionPresets.RGB_WORM));
                 break;
             case KeyEvent.VK_4:
-                double[][] preset4 = { 
-                    {-1.0,  1.0,  1.0,   1.0,    1.0,    1.0},
-                    {1.0,  -1.0,  1.0,   1.0,    1.0,    1.0},
-                    {1.0,  1.0,  -1.0,   1.0,    1.0,    1.0},
-                    {1.0,  1.0,  1.0,   -1.0,    1.0,    1.0},
-                    {1.0,  1.0,  1.0,   1.0,    -1.0,    1.0},
-                    {1.0,  1.0,  1.0,   1.0,    1.0,    -1.0},
-                };
-                particleManager.setAttraction(preset4);
+                particleManager.setAttraction(AttractionPresets.get(AttractionPresets.REPEL_OWN_GROUP));
                 break;
 
             default:
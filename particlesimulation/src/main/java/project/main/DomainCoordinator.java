@@ -0,0 +1,253 @@
+package project.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import project.particles.ParticleManager;
+import project.particles.ParticleStore;
+
+public class DomainCoordinator {
+
+    private final ParticleManager particleManager;
+    private final int workers;
+    private final int ticks;
+    private final int statsEvery;
+    private final int workerThreads;
+
+    /**
+     * Runs a simulation split over worker processes on localhost
+     * The periodic world is cut in vertical strips, one per worker (see DomainWorker).
+     * The coordinator starts the workers, hands out the settings and the particles of the particle manager,
+     * prints the combined statistics while the workers run and collects the particles at the end
+     * @param particleManager particle manager with the particles already created, gets the particles back at the end
+     * @param workers number of worker processes
+     * @param ticks number of ticks
+     * @param statsEvery ticks between two statistics lines
+     * @param workerThreads threads of the force pass in every worker
+     */
+    public DomainCoordinator(ParticleManager particleManager, int workers, int ticks, int statsEvery, int workerThreads) {
+        this.particleManager = particleManager;
+        this.workers = Math.max(1, workers);
+        this.ticks = ticks;
+        this.statsEvery = Math.max(1, statsEvery);
+        this.workerThreads = Math.max(1, workerThreads);
+    }
+
+    /**
+     * Starts the workers, runs all ticks and puts the resulting particles in the particle manager
+     * @throws IOException when a worker cannot be started or a connection fails
+     */
+    public void run() throws IOException {
+        InetAddress localhost = InetAddress.getLoopbackAddress();
+        List<Process> processes = new ArrayList<>();
+        MessageChannel[] channels = new MessageChannel[workers];
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(localhost, 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int k = 0; k < workers; k++) {
+                processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Main.class.getName(),
+                        "--worker", "--coordinator=" + port, "--index=" + k).inheritIO().start());
+            }
+
+            int[] ports = new int[workers];
+            for (int k = 0; k < workers; k++) {
+                MessageChannel channel = new MessageChannel(server.accept());
+                ByteBuffer hello = channel.receive();
+                int index = hello.getInt();
+                ports[index] = hello.getInt();
+                channels[index] = channel;
+            }
+
+            ParticleBatch[] strips = split();
+            for (int k = 0; k < workers; k++) {
+                channels[k].send(settings(ports));
+                channels[k].send(strips[k].encode());
+            }
+
+            long start = System.nanoTime();
+            for (int tick = statsEvery; tick <= ticks + statsEvery - 1; tick += statsEvery) {
+                printStats(channels, Math.min(tick, ticks));
+            }
+            collect(channels);
+            double seconds = (System.nanoTime() - start) / 1000000000.0;
+            int particles = particleManager.getParticles().size();
+            System.out.printf("Ticks: %d in %.3f s, %.1f ticks/sec, %.0f particle-updates/sec, workers: %d%n",
+                    ticks, seconds, ticks / seconds, (double) ticks * particles / seconds, workers);
+        } finally {
+            for (MessageChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            for (Process process : processes) {
+                try {
+                    if (process.waitFor() != 0) {
+                        System.err.println("Worker exited with " + process.exitValue());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    process.destroy();
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the particles over the strips, the global index is the index in the particle manager
+     */
+    private ParticleBatch[] split() {
+        ParticleBatch[] strips = new ParticleBatch[workers];
+        for (int k = 0; k < workers; k++) {
+            strips[k] = new ParticleBatch();
+        }
+        ParticleStore particles = particleManager.getParticles();
+        for (int i = 0; i < particles.size(); i++) {
+            strips[DomainWorker.ownerOf(particles.getX(i), workers, particleManager.getWidth())].add(i, particles, i);
+        }
+        return strips;
+    }
+
+    /**
+     * Encodes the settings, in the order DomainWorker reads them
+     */
+    private ByteBuffer settings(int[] ports) {
+        double[][] attraction = particleManager.getAttraction();
+        int groups = attraction.length;
+        ByteBuffer settings = ByteBuffer.allocate(64 + 8 * groups * groups + 4 * workers);
+        settings.putInt(workers).putInt(particleManager.getWidth()).putInt(particleManager.getHeight());
+        settings.putDouble(particleManager.getRMax()).putDouble(particleManager.getFriction()).putDouble(particleManager.getDt());
+        settings.putInt(particleManager.getForceFactor()).putInt(particleManager.getSubdivision()).putInt(workerThreads);
+        settings.putInt(groups);
+        for (double[] row : attraction) {
+            for (double value : row) {
+                settings.putDouble(value);
+            }
+        }
+        settings.putInt(ticks).putInt(statsEvery);
+        for (int port : ports) {
+            settings.putInt(port);
+        }
+        return settings.flip();
+    }
+
+    /**
+     * Reads the statistics of one tick from every worker and prints the combined line
+     */
+    private void printStats(MessageChannel[] channels, int tick) throws IOException {
+        int total = 0;
+        int halo = 0;
+        int migrated = 0;
+        int fewest = Integer.MAX_VALUE;
+        int most = 0;
+        double energy = 0;
+        for (MessageChannel channel : channels) {
+            ByteBuffer stats = channel.receive();
+            stats.getInt(); // tick
+            int owned = stats.getInt();
+            total += owned;
+            halo += stats.getInt();
+            migrated += stats.getInt();
+            energy += stats.getDouble();
+            fewest = Math.min(fewest, owned);
+            most = Math.max(most, owned);
+        }
+        System.out.printf("Tick %d: particles %d (per worker %d - %d), halo %d, migrated %d, kinetic energy %.6g%n",
+                tick, total, fewest, most, halo, migrated, energy);
+    }
+
+    /**
+     * Puts the particles of all workers back in the particle manager, in the order of their global index
+     */
+    private void collect(MessageChannel[] channels) throws IOException {
+        ParticleBatch all = new ParticleBatch();
+        for (MessageChannel channel : channels) {
+            all.decodeAppend(channel.receive());
+        }
+        all.sortById();
+        ParticleStore particles = particleManager.getParticles();
+        if (all.size != particles.size()) {
+            throw new IOException("Workers returned " + all.size + " of " + particles.size() + " particles");
+        }
+        for (int i = 0; i < all.size; i++) {
+            particles.setX(i, all.x[i]);
+            particles.setY(i, all.y[i]);
+            particles.setXspeed(i, all.vx[i]);
+            particles.setYspeed(i, all.vy[i]);
+        }
+    }
+
+    /**
+     * Compares the particles with a single process run of the same particles
+     * @param reference particle manager which ran the same ticks in this process
+     * @return number of particles which are not exactly the same
+     */
+    int countDifferences(ParticleManager reference) {
+        ParticleStore expected = reference.getParticles();
+        ParticleStore actual = particleManager.getParticles();
+        int differences = 0;
+        for (int i = 0; i < actual.size(); i++) {
+            int j = expected.indexOf(i); // the reference may have reordered its particles
+            if (actual.getX(i) != expected.getX(j) || actual.getY(i) != expected.getY(j)
+                    || actual.getXspeed(i) != expected.getXspeed(j) || actual.getYspeed(i) != expected.getYspeed(j)) {
+                differences++;
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * Distributed entry point
+     * Options of the headless runner for the particles, and --workers (processes), --ticks, --stats-every,
+     * --worker-threads (threads in every worker), --verify (also runs the ticks in this process and compares)
+     * The workers use the scalar full stencil, which the single process run gives the same result with
+     * @param args
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = HeadlessSimulation.parseOptions(args);
+        boolean verify = Boolean.parseBoolean(options.getOrDefault("verify", "false"));
+        if (verify) {
+            options.putIfAbsent("seed", String.valueOf(System.nanoTime())); // the reference needs the same particles
+        }
+        ParticleManager particleManager = HeadlessSimulation.createParticleManager(options);
+        particleManager.setSimd(false);
+        particleManager.setSymmetric(false);
+        particleManager.setVerlet(false);
+        int ticks = Integer.parseInt(options.getOrDefault("ticks", "1000"));
+
+        ParticleManager reference = null;
+        if (verify) {
+            reference = HeadlessSimulation.createParticleManager(options);
+            reference.setSimd(false);
+            reference.setSymmetric(false);
+            reference.setVerlet(false);
+            reference.setMesh(0, 0); // the workers have halo particles, they never use the mesh
+        }
+
+        DomainCoordinator coordinator = new DomainCoordinator(particleManager,
+                Integer.parseInt(options.getOrDefault("workers", "2")), ticks,
+                Integer.parseInt(options.getOrDefault("stats-every", "100")),
+                Integer.parseInt(options.getOrDefault("worker-threads", "1")));
+        try {
+            coordinator.run();
+        } catch (IOException e) {
+            System.err.println("Distributed run failed: " + e.getMessage());
+            return;
+        }
+
+        if (reference != null) {
+            new HeadlessSimulation(reference, ticks).run();
+            int differences = coordinator.countDifferences(reference);
+            System.out.println(differences == 0
+                    ? "Same as the single process run"
+                    : differences + " particles differ from the single process run");
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package project.main;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import project.particles.ParticleManager;
+import project.particles.ParticleStore;
+
+public class DomainWorker {
+
+    private final int index;
+    private final int coordinatorPort;
+
+    private int workers;
+    private int width;
+    private double rMax;
+    private int ticks;
+    private int statsEvery;
+    private ParticleManager particleManager;
+
+    private MessageChannel coordinator;
+    private MessageChannel[] peers;
+    private ExecutorService senders;
+
+    private ParticleBatch owned = new ParticleBatch(); // sorted on the global index
+    private final ParticleBatch halo = new ParticleBatch();
+    private ParticleBatch[] outgoing;
+    private boolean[] haloFlags = new boolean[0];
+    private int migrated = 0;
+
+    /**
+     * Worker process of a distributed run, owns one vertical strip of the periodic world
+     * Every tick the worker sends the particles within rMax of another strip to that worker (the halo),
+     * updates its own particles with the halo as extra neighbors and sends the particles which left its strip
+     * to their new owner. The coordinator sends the settings and the first particles
+     * @param index number of the strip (0 is the left strip)
+     * @param coordinatorPort port of the coordinator on localhost
+     */
+    public DomainWorker(int index, int coordinatorPort) {
+        this.index = index;
+        this.coordinatorPort = coordinatorPort;
+    }
+
+    /**
+     * Returns the worker which owns a position
+     * @param x position on the x-axis
+     * @param workers number of workers
+     * @param width width of the world
+     * @return number of the strip
+     */
+    static int ownerOf(double x, int workers, int width) {
+        return Math.min(workers - 1, Math.max(0, (int) (x * workers / width)));
+    }
+
+    /**
+     * Returns if a position is within reach of a strip, through the periodic border
+     * Takes one extra unit, so rounding at the edges of the strips never leaves out a neighbor
+     * @param x position on the x-axis
+     * @param strip number of the strip
+     * @param reach distance (rMax)
+     */
+    private boolean nearStrip(double x, int strip, double reach) {
+        double left = (double) strip * width / workers;
+        double right = (double) (strip + 1) * width / workers;
+        if (x >= left && x < right) {
+            return true;
+        }
+        double toLeft = ((left - x) % width + width) % width; // distance to the left edge, going right
+        double fromRight = ((x - right) % width + width) % width; // distance from the right edge, going right
+        return Math.min(toLeft, fromRight) <= reach + 1;
+    }
+
+    /**
+     * Connects, runs all ticks and sends the particles back to the coordinator
+     * @throws IOException when a connection fails
+     */
+    public void run() throws IOException {
+        InetAddress localhost = InetAddress.getLoopbackAddress();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(localhost, 0));
+            coordinator = new MessageChannel(SocketChannel.open(new InetSocketAddress(localhost, coordinatorPort)));
+            ByteBuffer hello = ByteBuffer.allocate(8);
+            hello.putInt(index).putInt(((InetSocketAddress) server.getLocalAddress()).getPort()).flip();
+            coordinator.send(hello);
+
+            int[] ports = readSettings(coordinator.receive());
+            owned.decodeAppend(coordinator.receive());
+            owned.sortById();
+
+            // Every pair of workers has one connection, the higher index connects to the lower
+            peers = new MessageChannel[workers];
+            for (int j = 0; j < index; j++) {
+                peers[j] = new MessageChannel(SocketChannel.open(new InetSocketAddress(localhost, ports[j])));
+                ByteBuffer id = ByteBuffer.allocate(4);
+                id.putInt(index).flip();
+                peers[j].send(id);
+            }
+            for (int j = index + 1; j < workers; j++) {
+                MessageChannel peer = new MessageChannel(server.accept());
+                peers[peer.receive().getInt()] = peer;
+            }
+        }
+
+        outgoing = new ParticleBatch[workers];
+        for (int j = 0; j < workers; j++) {
+            outgoing[j] = new ParticleBatch();
+        }
+        senders = Executors.newFixedThreadPool(Math.max(1, workers - 1), task -> {
+            Thread thread = new Thread(task, "worker-" + index + "-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int tick = 1; tick <= ticks; tick++) {
+                exchangeHalo();
+                update();
+                migrate();
+                if (tick % statsEvery == 0 || tick == ticks) {
+                    sendStats(tick);
+                }
+            }
+            coordinator.send(owned.encode());
+        } finally {
+            senders.shutdownNow();
+            for (MessageChannel peer : peers) {
+                if (peer != null) {
+                    peer.close();
+                }
+            }
+            coordinator.close();
+        }
+    }
+
+    /**
+     * Reads the settings of the coordinator
+     * @return listening ports of all workers
+     */
+    private int[] readSettings(ByteBuffer settings) {
+        workers = settings.getInt();
+        width = settings.getInt();
+        int height = settings.getInt();
+        rMax = settings.getDouble();
+        double friction = settings.getDouble();
+        double dt = settings.getDouble();
+        int forceFactor = settings.getInt();
+        int subdivision = settings.getInt();
+        int threads = settings.getInt();
+        int groups = settings.getInt();
+        double[][] attraction = new double[groups][groups];
+        for (double[] row : attraction) {
+            for (int j = 0; j < groups; j++) {
+                row[j] = settings.getDouble();
+            }
+        }
+        ticks = settings.getInt();
+        statsEvery = Math.max(1, settings.getInt());
+        int[] ports = new int[workers];
+        for (int j = 0; j < workers; j++) {
+            ports[j] = settings.getInt();
+        }
+
+        // Same settings as the single process run, with the calculation which gives the same forces bit for bit
+        particleManager = new ParticleManager(width, height);
+        particleManager.setNumberOfGroups(groups);
+        particleManager.setAttraction(attraction);
+        particleManager.setRMax(rMax);
+        particleManager.setFriction(friction);
+        particleManager.setDt(dt);
+        particleManager.setForceFactor(forceFactor);
+        particleManager.setSubdivision(subdivision);
+        particleManager.setThreads(threads);
+        particleManager.setSimd(false);
+        particleManager.setSymmetric(false);
+        particleManager.setVerlet(false);
+        return ports;
+    }
+
+    /**
+     * Sends the particles within reach of every other strip and receives the halo of this strip
+     */
+    private void exchangeHalo() throws IOException {
+        for (int j = 0; j < workers; j++) {
+            outgoing[j].clear();
+        }
+        for (int i = 0; i < owned.size; i++) {
+            for (int j = 0; j < workers; j++) {
+                if (j != index && nearStrip(owned.x[i], j, rMax)) {
+                    outgoing[j].add(owned, i);
+                }
+            }
+        }
+        halo.clear();
+        exchange(halo);
+        halo.sortById();
+    }
+
+    /**
+     * Sends the outgoing batches to all peers and adds what the peers sent to a batch
+     * The sends run on other threads, so two workers sending to each other never wait on each other
+     */
+    private void exchange(ParticleBatch incoming) throws IOException {
+        List<Future<?>> sends = new ArrayList<>();
+        for (int j = 0; j < workers; j++) {
+            if (j != index) {
+                MessageChannel peer = peers[j];
+                ByteBuffer message = outgoing[j].encode();
+                sends.add(senders.submit(() -> {
+                    peer.send(message);
+                    return null;
+                }));
+            }
+        }
+        for (int j = 0; j < workers; j++) {
+            if (j != index) {
+                incoming.decodeAppend(peers[j].receive());
+            }
+        }
+        for (Future<?> send : sends) {
+            try {
+                send.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sending", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Cannot send to a peer", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Updates the own particles, with the halo as neighbors
+     * The own particles and the halo go into the store in the order of their global index,
+     * so every neighbor is visited in the same order as in the single process run
+     */
+    private void update() {
+        ParticleStore store = particleManager.getParticles();
+        store.clear();
+        int total = owned.size + halo.size;
+        if (haloFlags.length < total) {
+            haloFlags = new boolean[total + total / 4];
+        }
+        int a = 0;
+        int b = 0;
+        while (a < owned.size || b < halo.size) {
+            boolean takeOwned = b == halo.size || (a < owned.size && owned.id[a] < halo.id[b]);
+            ParticleBatch from = takeOwned ? owned : halo;
+            int i = takeOwned ? a++ : b++;
+            int stored = store.add(from.x[i], from.y[i], from.vx[i], from.vy[i], from.group[i]);
+            haloFlags[stored] = !takeOwned;
+        }
+        particleManager.setHalo(haloFlags);
+        particleManager.update();
+
+        // The own particles are still in the same order
+        int next = 0;
+        for (int i = 0; i < total; i++) {
+            if (!haloFlags[i]) {
+                owned.x[next] = store.getX(i);
+                owned.y[next] = store.getY(i);
+                owned.vx[next] = store.getXspeed(i);
+                owned.vy[next] = store.getYspeed(i);
+                next++;
+            }
+        }
+    }
+
+    /**
+     * Sends the particles which moved out of the strip to their new owner and takes in the particles which moved in
+     */
+    private void migrate() throws IOException {
+        for (int j = 0; j < workers; j++) {
+            outgoing[j].clear();
+        }
+        ParticleBatch kept = new ParticleBatch();
+        for (int i = 0; i < owned.size; i++) {
+            int owner = ownerOf(owned.x[i], workers, width);
+            if (owner == index) {
+                kept.add(owned, i);
+            } else {
+                outgoing[owner].add(owned, i);
+            }
+        }
+        migrated = owned.size - kept.size;
+        exchange(kept);
+        kept.sortById();
+        owned = kept;
+    }
+
+    /**
+     * Sends the tick, the number of own, halo and migrated particles and the kinetic energy to the coordinator
+     */
+    private void sendStats(int tick) throws IOException {
+        double energy = 0;
+        for (int i = 0; i < owned.size; i++) {
+            energy += 0.5 * (owned.vx[i] * owned.vx[i] + owned.vy[i] * owned.vy[i]);
+        }
+        ByteBuffer stats = ByteBuffer.allocate(24);
+        stats.putInt(tick).putInt(owned.size).putInt(halo.size).putInt(migrated).putDouble(energy).flip();
+        coordinator.send(stats);
+    }
+
+    /**
+     * Worker entry point, started by the coordinator
+     * Options: --coordinator (port on localhost), --index (number of the strip)
+     * @param args
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = HeadlessSimulation.parseOptions(args);
+        DomainWorker worker = new DomainWorker(Integer.parseInt(options.get("index")),
+                Integer.parseInt(options.get("coordinator")));
+        try {
+            worker.run();
+        } catch (IOException e) {
+            System.err.println("Worker " + options.get("index") + " failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
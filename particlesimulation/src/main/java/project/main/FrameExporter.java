@@ -0,0 +1,134 @@
+package project.main;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+import project.particles.ParticleManager;
+
+public class FrameExporter {
+
+    private final ParticleManager particleManager;
+    private final Path directory;
+    private final int frames;
+    private final int ticksPerFrame;
+    private final int encoders;
+
+    /**
+     * Exports the simulation as numbered PNG images, without a window
+     * Frame f shows the particles after f * ticksPerFrame ticks, so every frame is the same simulated time apart.
+     * The simulation thread renders each frame into an offscreen image with the normal particle and glow rendering,
+     * a pool of encoder threads writes the images while the simulation goes on
+     * @param particleManager particle manager with the particles already created
+     * @param directory directory for the images, created when it does not exist
+     * @param frames number of frames to export
+     * @param ticksPerFrame ticks between two frames
+     * @param encoders number of threads which encode the images
+     */
+    public FrameExporter(ParticleManager particleManager, Path directory, int frames, int ticksPerFrame, int encoders) {
+        this.particleManager = particleManager;
+        this.directory = directory;
+        this.frames = frames;
+        this.ticksPerFrame = Math.max(1, ticksPerFrame);
+        this.encoders = Math.max(1, encoders);
+    }
+
+    /**
+     * Runs the simulation and writes all frames
+     * The number of images waiting on the encoders is bounded, when all are in use the simulation waits for a free one
+     * @throws IOException when an image cannot be written
+     * @throws InterruptedException when interrupted while waiting on the encoders
+     */
+    public void run() throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+        int width = particleManager.getWidth();
+        int height = particleManager.getHeight();
+        BlockingQueue<BufferedImage> freeImages = new ArrayBlockingQueue<>(2 * encoders);
+        for (int i = 0; i < 2 * encoders; i++) {
+            freeImages.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(encoders);
+        AtomicReference<IOException> error = new AtomicReference<>();
+
+        long start = System.nanoTime();
+        long simulationNanos = 0;
+        try {
+            for (int frame = 0; frame < frames && error.get() == null; frame++) {
+                if (frame > 0) {
+                    long tickStart = System.nanoTime();
+                    for (int t = 0; t < ticksPerFrame; t++) {
+                        particleManager.update();
+                    }
+                    simulationNanos += System.nanoTime() - tickStart;
+                }
+                particleManager.publishSnapshot();
+
+                BufferedImage image = freeImages.take();
+                Graphics2D g = image.createGraphics();
+                particleManager.render(g);
+                g.dispose();
+
+                // The number in the name keeps the order, whichever encoder finishes first
+                Path file = directory.resolve(String.format("frame_%06d.png", frame));
+                pool.execute(() -> {
+                    try {
+                        ImageIO.write(image, "png", file.toFile());
+                    } catch (IOException e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        freeImages.add(image);
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.DAYS);
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1000000000.0;
+        System.out.printf("Frames: %d (%d ticks each) in %.3f s, %.1f frames/sec, simulation %.3f s, encoders: %d%n",
+                frames, ticksPerFrame, seconds, frames / seconds, simulationNanos / 1000000000.0, encoders);
+    }
+
+    /**
+     * Export entry point
+     * Options of the headless runner for the particles, and --out (directory), --frames, --ticks-per-frame,
+     * --encoders (threads writing the images), --glow
+     * @param args
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        Map<String, String> options = HeadlessSimulation.parseOptions(args);
+        ParticleManager particleManager = HeadlessSimulation.createParticleManager(options);
+        if (Boolean.parseBoolean(options.getOrDefault("glow", "false"))) {
+            particleManager.changeGlow();
+        }
+        FrameExporter exporter = new FrameExporter(particleManager,
+                Path.of(options.getOrDefault("out", "frames")),
+                Integer.parseInt(options.getOrDefault("frames", "600")),
+                Integer.parseInt(options.getOrDefault("ticks-per-frame", "1")),
+                Integer.parseInt(options.getOrDefault("encoders",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        try {
+            exporter.run();
+        } catch (IOException e) {
+            System.err.println("Cannot export frames: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package project.main;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import project.particles.Checkpoint;
+import project.particles.LatencyHistogram;
+import project.particles.ParticleManager;
+import project.particles.Precision;
+import project.particles.Profiler;
+import project.particles.SpaceFillingCurve;
+import project.particles.TrajectoryRecorder;
+
+public class HeadlessSimulation {
+
+    private final ParticleManager particleManager;
+    private final int ticks;
+    private TrajectoryRecorder recorder;
+
+    /**
+     * Simulation without Swing, steps the particle manager as fast as possible
+     * @param particleManager particle manager with the particles already created
+     * @param ticks number of updates to run
+     */
+    public HeadlessSimulation(ParticleManager particleManager, int ticks) {
+        this.particleManager = particleManager;
+        this.ticks = ticks;
+    }
+
+    /**
+     * Records the ticks of the run
+     * @param recorder recorder, closed by the caller after the run
+     */
+    public void setRecorder(TrajectoryRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Runs all ticks without an UPS cap and prints the throughput
+     */
+    public void run() {
+        int particles = particleManager.getParticles().size();
+        System.out.println("Particles: " + particles + ", groups: " + particleManager.getNumberOfGroups()
+                + ", world: " + particleManager.getWidth() + "x" + particleManager.getHeight()
+                + ", threads: " + particleManager.getThreads() + ", simd: " + particleManager.isSimdEnabled()
+                + ", symmetric: " + particleManager.isSymmetric()
+                + ", subdivision: " + particleManager.getSubdivision()
+                + ", verlet: " + particleManager.isVerlet()
+                + ", precision: " + particleManager.getPrecision().name().toLowerCase()
+                + ", storage: " + (!particleManager.isOffHeap() ? "heap"
+                        : particleManager.getParticleFile() == null ? "off-heap" : "mapped " + particleManager.getParticleFile())
+                + (particleManager.getReorderEvery() > 0
+                        ? ", reorder: " + particleManager.getCurve().name().toLowerCase() + " every " + particleManager.getReorderEvery()
+                        : ""));
+        if (particleManager.getForceTableIntervals() > 0) {
+            System.out.printf("Force table: %d intervals, largest difference with the analytic force: %.3g%n",
+                    particleManager.getForceTableIntervals(), particleManager.getForceTableError());
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            particleManager.update();
+            if (recorder != null) {
+                recorder.tick(i + 1, particleManager.getParticles());
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+        System.out.printf("Ticks: %d in %.3f s%n", ticks, seconds);
+        System.out.printf("Ticks/sec: %.1f%n", ticks / seconds);
+        System.out.printf("Particle-updates/sec: %.0f%n", (double) ticks * particles / seconds);
+        if (particleManager.isMeshActive()) {
+            System.out.printf("Particle-mesh: %s mesh, relative force error %.3g at the last calibration%n",
+                    particleManager.getMeshSize(), particleManager.getMeshError());
+        } else if (particleManager.isMeshOverError()) {
+            System.out.printf("Particle-mesh: not used, relative force error %.3g of the finest mesh (%s) is above %.3g%n",
+                    particleManager.getMeshError(), particleManager.getMeshSize(), particleManager.getMeshErrorLimit());
+        } else if (particleManager.isMeshSlower()) {
+            System.out.println("Particle-mesh: not used, the grid is estimated cheaper for these particles");
+        }
+        if (particleManager.isVerlet()) {
+            System.out.printf("Verlet rebuilds: %d in %d ticks, average list length: %.1f (skin %.1f)%n",
+                    particleManager.getVerletRebuilds(), particleManager.getVerletUpdates(),
+                    particleManager.getAverageVerletListLength(), particleManager.getSkin());
+        }
+        Profiler profiler = particleManager.getProfiler();
+        if (profiler != null) {
+            System.out.println("Phase        count    p50 ms   p99 ms   max ms");
+            for (Profiler.Phase phase : new Profiler.Phase[] {Profiler.Phase.REORDER, Profiler.Phase.GRID, Profiler.Phase.FORCES, Profiler.Phase.INTEGRATION}) {
+                LatencyHistogram.Stats stats = profiler.getTotalStats(phase);
+                System.out.printf("%-12s %5d %9.3f %8.3f %8.3f%n", phase.name().toLowerCase(), stats.getCount(),
+                        stats.getP50() / 1000000.0, stats.getP99() / 1000000.0, stats.getMax() / 1000000.0);
+            }
+            System.out.printf("Neighbor pairs/tick: %.0f%n", profiler.getTotalPairsPerTick());
+        }
+        if (recorder != null) {
+            System.out.printf("Recorded frames: %d (every %d ticks), dropped: %d%n",
+                    recorder.getRecordedFrames(), recorder.getEvery(), recorder.getDroppedFrames());
+        }
+    }
+
+    /**
+     * Parses arguments of the form --name=value
+     * @param args command line arguments
+     * @return map of names to values
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            int split = arg.indexOf('=');
+            if (split < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, split), arg.substring(split + 1));
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Creates a particle manager from the command line options
+     * @param options parsed options
+     * @return particle manager with the particles created
+     */
+    static ParticleManager createParticleManager(Map<String, String> options) {
+        ParticleManager particleManager = new ParticleManager(
+                Integer.parseInt(options.getOrDefault("width", "1800")),
+                Integer.parseInt(options.getOrDefault("height", "1200")));
+        particleManager.setNumberOfGroups(Integer.parseInt(options.getOrDefault("groups", "6")));
+        particleManager.setNumberParticles(Integer.parseInt(options.getOrDefault("particles", "600")));
+        particleManager.setThreads(Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        if (options.containsKey("simd")) {
+            particleManager.setSimd(Boolean.parseBoolean(options.get("simd")));
+        }
+        if (options.containsKey("symmetric")) {
+            particleManager.setSymmetric(Boolean.parseBoolean(options.get("symmetric")));
+        }
+        if (options.containsKey("rmax")) {
+            particleManager.setRMax(Double.parseDouble(options.get("rmax")));
+        }
+        if (options.containsKey("subdivision")) {
+            particleManager.setSubdivision(Integer.parseInt(options.get("subdivision")));
+        }
+        if (options.containsKey("verlet")) {
+            particleManager.setVerlet(Boolean.parseBoolean(options.get("verlet")));
+        }
+        if (options.containsKey("skin")) {
+            particleManager.setSkin(Double.parseDouble(options.get("skin")));
+        }
+        if (options.containsKey("force-table")) {
+            particleManager.setForceTable(Integer.parseInt(options.get("force-table")),
+                    Boolean.parseBoolean(options.getOrDefault("fast-sqrt", "false")));
+        }
+        if (options.containsKey("reorder")) {
+            particleManager.setReorder(Integer.parseInt(options.get("reorder")),
+                    SpaceFillingCurve.valueOf(options.getOrDefault("curve", "hilbert").toUpperCase()));
+        }
+        if (options.containsKey("mesh") || options.containsKey("mesh-error")) {
+            particleManager.setMesh(Double.parseDouble(options.getOrDefault("mesh", "0.25")),
+                    Double.parseDouble(options.getOrDefault("mesh-error", "0.05")));
+        }
+        if (options.containsKey("precision")) {
+            particleManager.setPrecision(Precision.valueOf(options.get("precision").toUpperCase()));
+        }
+        if (options.containsKey("seed")) {
+            particleManager.setSeed(Long.parseLong(options.get("seed")));
+        }
+        if (options.containsKey("off-heap") || options.containsKey("off-heap-file")) {
+            try {
+                particleManager.setOffHeap(Boolean.parseBoolean(options.getOrDefault("off-heap", "true")),
+                        options.containsKey("off-heap-file") ? Path.of(options.get("off-heap-file")) : null);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot map the particle file: " + e.getMessage(), e);
+            }
+        }
+        if (options.containsKey("profile-csv")) {
+            particleManager.setProfiler(new Profiler(1000, Path.of(options.get("profile-csv"))));
+        } else if (Boolean.parseBoolean(options.getOrDefault("profile", "false"))) {
+            particleManager.setProfiler(new Profiler(1000));
+        }
+        if (options.containsKey("load")) {
+            // The particles, world size and physics settings come from the checkpoint
+            try {
+                long start = System.nanoTime();
+                Checkpoint.load(particleManager, Path.of(options.get("load")));
+                System.out.printf("Loaded %s in %.3f s%n", options.get("load"), (System.nanoTime() - start) / 1000000000.0);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot load checkpoint: " + e.getMessage(), e);
+            }
+        } else {
+            particleManager.createParticles();
+        }
+        return particleManager;
+    }
+
+    /**
+     * Headless entry point
+     * Options: --width, --height, --particles (per group), --groups, --ticks, --threads, --simd, --symmetric, --rmax, --subdivision, --verlet, --skin, --seed,
+     * --load (checkpoint to start from), --save (checkpoint to write after the run),
+     * --record (trajectory file), --record-every (ticks between frames), --keyframes (frames between key frames),
+     * --profile (times the phases), --profile-csv (also writes the times every second to a file),
+     * --force-table (intervals of the force table), --fast-sqrt (fast inverse square root with the force table),
+     * --reorder (ticks between two reorders along a space filling curve), --curve (hilbert or morton),
+     * --precision (double, float or fixed),
+     * --mesh (rMax relative to the smaller side of the world above which the particle-mesh is used, 0 never),
+     * --mesh-error (largest relative force error of the particle-mesh),
+     * --off-heap (particles outside the Java heap, needs -P ffm and java --enable-preview), --off-heap-file (file to map the particles to)
+     * @param args
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        ParticleManager particleManager = createParticleManager(options);
+        int ticks = Integer.parseInt(options.getOrDefault("ticks", "1000"));
+        HeadlessSimulation simulation = new HeadlessSimulation(particleManager, ticks);
+        if (options.containsKey("record")) {
+            try (TrajectoryRecorder recorder = TrajectoryRecorder.start(Path.of(options.get("record")),
+                    particleManager.getParticles(), particleManager.getWidth(), particleManager.getHeight(),
+                    Integer.parseInt(options.getOrDefault("record-every", "10")),
+                    Integer.parseInt(options.getOrDefault("keyframes", "100")))) {
+                simulation.setRecorder(recorder);
+                simulation.run();
+            } catch (IOException e) {
+                System.err.println("Cannot record trajectory: " + e.getMessage());
+            }
+        } else {
+            simulation.run();
+        }
+        if (particleManager.getProfiler() != null) {
+            particleManager.getProfiler().close();
+        }
+        if (options.containsKey("save")) {
+            try {
+                long start = System.nanoTime();
+                Checkpoint.save(particleManager, Path.of(options.get("save")));
+                System.out.printf("Saved %s in %.3f s%n", options.get("save"), (System.nanoTime() - start) / 1000000000.0);
+            } catch (IOException e) {
+                System.err.println("Cannot save checkpoint: " + e.getMessage());
+            }
+        }
+        particleManager.getParticles().close();
+    }
+}
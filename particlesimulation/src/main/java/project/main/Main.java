@@ -1,11 +1,42 @@
 package project.main;
 
+import java.util.Arrays;
+
 public class Main {
     /**
      * Main class
+     * Starts the headless runner when the first argument is --headless,
+     * the frame export when it is --export, the parameter sweep when it is --sweep,
+     * the comparison of the numeric precisions when it is --compare-precision,
+     * a distributed run over worker processes when it is --distributed
+     * (--worker is used by the coordinator to start a worker process)
      * @param args
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--headless")) {
+            HeadlessSimulation.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--export")) {
+            FrameExporter.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--sweep")) {
+            ParameterSweep.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--compare-precision")) {
+            PrecisionComparison.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--distributed")) {
+            DomainCoordinator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--worker")) {
+            DomainWorker.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         new Simulation();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,74 @@
+package project.main;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Length prefixed messages over a blocking NIO socket channel
+ * One thread may send while another receives, but not two threads sending (or receiving) at once
+ */
+class MessageChannel implements AutoCloseable {
+
+    private final SocketChannel channel;
+    private final ByteBuffer[] sendBuffers = {ByteBuffer.allocate(4), null};
+    private final ByteBuffer length = ByteBuffer.allocate(4);
+    private ByteBuffer received = ByteBuffer.allocate(1 << 16);
+
+    /**
+     * @param channel connected socket channel
+     * @throws IOException when the channel cannot be configured
+     */
+    MessageChannel(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(true);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Sends the remaining bytes of a buffer as one message
+     * @param message message, read from its position until its limit
+     * @throws IOException when the connection fails
+     */
+    void send(ByteBuffer message) throws IOException {
+        sendBuffers[0].clear();
+        sendBuffers[0].putInt(message.remaining()).flip();
+        sendBuffers[1] = message;
+        while (message.hasRemaining() || sendBuffers[0].hasRemaining()) {
+            channel.write(sendBuffers);
+        }
+        sendBuffers[1] = null;
+    }
+
+    /**
+     * Waits for the next message
+     * @return the message, only valid until the next receive
+     * @throws IOException when the connection fails or is closed
+     */
+    ByteBuffer receive() throws IOException {
+        length.clear();
+        readFully(length);
+        int size = length.flip().getInt();
+        if (received.capacity() < size) {
+            received = ByteBuffer.allocate(Math.max(size, received.capacity() * 2));
+        }
+        received.clear().limit(size);
+        readFully(received);
+        return received.flip();
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,344 @@
+package project.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParameterSweep {
+
+    private final int threads;
+    private final int slice;
+    private final int live;
+    private final long memoryBudget;
+    private final long instanceMemory;
+    private final int top;
+
+    private int width = 600;
+    private int height = 400;
+    private int groups = 4;
+    private int particles = 80;
+
+    private final PriorityQueue<SweepRun> best = new PriorityQueue<>(Comparator.comparingDouble(SweepRun::getScore));
+    private final AtomicInteger finished = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * Runs many small headless simulations with different attraction matrices, rMax and friction, and keeps the best
+     * The runs share a fixed pool of threads. A run does a slice of ticks and then goes to the back of the queue,
+     * so hundreds of runs take turns and every thread stays busy until the last runs finish.
+     * A run is only started when its estimated memory fits in the budget next to the runs in progress,
+     * and at most live runs are in progress at once
+     * @param threads threads of the pool
+     * @param slice ticks a run does before it lets the next run go
+     * @param live maximum number of runs in progress
+     * @param memoryBudget memory of all runs in progress together, in bytes
+     * @param instanceMemory memory of one run, in bytes, runs estimated above it are skipped
+     * @param top number of best runs to keep
+     */
+    public ParameterSweep(int threads, int slice, int live, long memoryBudget, long instanceMemory, int top) {
+        this.threads = Math.max(1, threads);
+        this.slice = Math.max(1, slice);
+        this.live = Math.max(1, live);
+        this.memoryBudget = Math.max(1024, memoryBudget);
+        this.instanceMemory = instanceMemory;
+        this.top = Math.max(1, top);
+    }
+
+    /**
+     * Sets the world and particles of every run
+     * @param width width of the world
+     * @param height height of the world
+     * @param groups number of groups
+     * @param particles number of particles in each group
+     */
+    public void setWorld(int width, int height, int groups, int particles) {
+        this.width = width;
+        this.height = height;
+        this.groups = groups;
+        this.particles = particles;
+    }
+
+    /**
+     * Runs all candidates
+     * @param runs candidates, not started yet
+     * @return the best runs, highest score first
+     * @throws InterruptedException when interrupted while waiting for memory or the runs
+     */
+    List<SweepRun> run(List<SweepRun> runs) throws InterruptedException {
+        // The memory is counted in kilobytes, so the budget fits the permits of a semaphore
+        int budgetKb = (int) Math.min(Integer.MAX_VALUE, memoryBudget / 1024);
+        Semaphore memory = new Semaphore(budgetKb);
+        Semaphore slots = new Semaphore(live);
+        CountDownLatch done = new CountDownLatch(runs.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.nanoTime();
+        int reportEvery = Math.max(1, runs.size() / 10);
+        try {
+            for (SweepRun run : runs) {
+                run.prepare(width, height, groups, particles);
+                long estimate = run.estimateMemory();
+                if (estimate > instanceMemory || estimate / 1024 + 1 > budgetKb) {
+                    skipped.incrementAndGet();
+                    done.countDown();
+                    continue;
+                }
+                int permits = (int) (estimate / 1024 + 1);
+                slots.acquire();
+                memory.acquire(permits);
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean finishedRun = true;
+                        boolean error = false;
+                        try {
+                            finishedRun = run.advance(slice);
+                        } catch (RuntimeException | OutOfMemoryError e) {
+                            error = true;
+                            failed.incrementAndGet();
+                            System.err.println("Run " + run.number + " failed: " + e);
+                        }
+                        if (!finishedRun) {
+                            pool.execute(this); // back of the queue, the other runs get their turn first
+                            return;
+                        }
+                        memory.release(permits);
+                        slots.release();
+                        if (!error) {
+                            keep(run);
+                        }
+                        int count = finished.incrementAndGet();
+                        if (count % reportEvery == 0) {
+                            double seconds = (System.nanoTime() - start) / 1000000000.0;
+                            System.out.printf("%d/%d runs, %.1f runs/sec, best score %.3f%n",
+                                    count, runs.size(), count / seconds, bestScore());
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<SweepRun> result;
+        synchronized (best) {
+            result = new ArrayList<>(best);
+        }
+        result.sort(Comparator.comparingDouble(SweepRun::getScore).reversed());
+        return result;
+    }
+
+    /**
+     * Keeps a finished run when it is one of the best
+     */
+    private void keep(SweepRun run) {
+        synchronized (best) {
+            best.add(run);
+            if (best.size() > top) {
+                best.poll();
+            }
+        }
+    }
+
+    private double bestScore() {
+        synchronized (best) {
+            return best.stream().mapToDouble(SweepRun::getScore).max().orElse(0);
+        }
+    }
+
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Creates candidates with random attraction matrices, rMax and friction
+     * The attraction values are the same steps as the space bar (-1.0 to 0.8 in steps of 0.2)
+     * @param count number of candidates
+     * @param random random generator
+     * @param groups number of groups
+     * @param rMax lowest and highest rMax
+     * @param friction lowest and highest friction
+     * @param settings ticks, warmup, sample interval, cluster cell and density of every run
+     */
+    static List<SweepRun> randomRuns(int count, Random random, int groups, double[] rMax, double[] friction,
+            RunSettings settings) {
+        List<SweepRun> runs = new ArrayList<>();
+        for (int k = 0; k < count; k++) {
+            double[][] attraction = new double[groups][groups];
+            for (double[] row : attraction) {
+                for (int j = 0; j < groups; j++) {
+                    row[j] = random.nextInt(-5, 5) / 5.0;
+                }
+            }
+            double r = rMax[0] + random.nextDouble() * (rMax[1] - rMax[0]);
+            double f = friction[0] + random.nextDouble() * (friction[1] - friction[0]);
+            runs.add(settings.create(k, attraction, r, f, random.nextLong()));
+        }
+        return runs;
+    }
+
+    /**
+     * Creates candidates on a grid: every attraction value can be each of the levels, crossed with the rMax and friction values
+     * When the grid has more points than count, count points are taken evenly spread over the grid
+     * @param count maximum number of candidates
+     * @param seed seed of the particle positions, the same for every candidate so they only differ in the parameters
+     * @param groups number of groups
+     * @param levels values of an attraction entry
+     * @param rMax values of rMax
+     * @param friction values of friction
+     * @param settings ticks, warmup, sample interval, cluster cell and density of every run
+     */
+    static List<SweepRun> gridRuns(int count, long seed, int groups, double[] levels, double[] rMax, double[] friction,
+            RunSettings settings) {
+        int entries = groups * groups;
+        long total;
+        try {
+            total = Math.multiplyExact((long) rMax.length, friction.length);
+            for (int i = 0; i < entries; i++) {
+                total = Math.multiplyExact(total, levels.length);
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("The grid is too large, use fewer levels or groups, or --mode=random");
+        }
+        int points = (int) Math.min(count, total);
+        List<SweepRun> runs = new ArrayList<>();
+        for (int k = 0; k < points; k++) {
+            // Mixed radix digits of the point: friction, rMax, then the attraction entries
+            long point = total == points ? k : (long) ((double) k * total / points);
+            double f = friction[(int) (point % friction.length)];
+            point /= friction.length;
+            double r = rMax[(int) (point % rMax.length)];
+            point /= rMax.length;
+            double[][] attraction = new double[groups][groups];
+            for (int i = 0; i < entries; i++) {
+                attraction[i / groups][i % groups] = levels[(int) (point % levels.length)];
+                point /= levels.length;
+            }
+            runs.add(settings.create(k, attraction, r, f, seed));
+        }
+        return runs;
+    }
+
+    /**
+     * Settings which are the same for every run of a sweep
+     */
+    static class RunSettings {
+        private final int ticks;
+        private final int warmup;
+        private final int sampleEvery;
+        private final double clusterCell;
+        private final double density;
+
+        RunSettings(int ticks, int warmup, int sampleEvery, double clusterCell, double density) {
+            this.ticks = Math.max(1, ticks);
+            this.warmup = warmup;
+            this.sampleEvery = sampleEvery;
+            this.clusterCell = clusterCell;
+            this.density = density;
+        }
+
+        SweepRun create(int number, double[][] attraction, double rMax, double friction, long seed) {
+            return new SweepRun(number, attraction, rMax, friction, seed, ticks, warmup, sampleEvery, clusterCell, density);
+        }
+    }
+
+    private static double[] parseList(String values) {
+        return Arrays.stream(values.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+
+    /**
+     * Sweep entry point
+     * Options: --mode (random or grid), --runs (number of runs, or the maximum on a grid), --seed,
+     * --width, --height, --groups, --particles (per group) of every run,
+     * --rmax and --friction (random: min,max, grid: list of values), --levels (grid: values of an attraction entry),
+     * --ticks, --warmup (ticks before the metrics), --sample-every, --cluster-cell (size of the cells of the cluster count),
+     * --density (of a cluster cell relative to the average), --threads, --slice (ticks per turn), --live (runs in progress),
+     * --memory (MB for all runs in progress), --instance-memory (MB for one run), --top (best runs to print)
+     * @param args
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = HeadlessSimulation.parseOptions(args);
+        int threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int groups = Integer.parseInt(options.getOrDefault("groups", "4"));
+        int runCount = Integer.parseInt(options.getOrDefault("runs", "256"));
+        long seed = Long.parseLong(options.getOrDefault("seed", String.valueOf(System.nanoTime())));
+        int ticks = Integer.parseInt(options.getOrDefault("ticks", "1500"));
+        RunSettings settings = new RunSettings(ticks,
+                Integer.parseInt(options.getOrDefault("warmup", String.valueOf(ticks / 3))),
+                Integer.parseInt(options.getOrDefault("sample-every", "10")),
+                Double.parseDouble(options.getOrDefault("cluster-cell", "20")),
+                Double.parseDouble(options.getOrDefault("density", "3")));
+
+        List<SweepRun> runs;
+        String mode = options.getOrDefault("mode", "random");
+        if (mode.equals("grid")) {
+            runs = gridRuns(runCount, seed, groups, parseList(options.getOrDefault("levels", "-1,0,1")),
+                    parseList(options.getOrDefault("rmax", "80")), parseList(options.getOrDefault("friction", "0.9")),
+                    settings);
+        } else if (mode.equals("random")) {
+            runs = randomRuns(runCount, new Random(seed), groups, parseList(options.getOrDefault("rmax", "40,120")),
+                    parseList(options.getOrDefault("friction", "0.85,0.95")), settings);
+        } else {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        ParameterSweep sweep = new ParameterSweep(threads,
+                Integer.parseInt(options.getOrDefault("slice", "50")),
+                Integer.parseInt(options.getOrDefault("live", String.valueOf(4 * threads))),
+                options.containsKey("memory") ? Long.parseLong(options.get("memory")) << 20 : maxMemory / 2,
+                options.containsKey("instance-memory") ? Long.parseLong(options.get("instance-memory")) << 20 : maxMemory / 8,
+                Integer.parseInt(options.getOrDefault("top", "10")));
+        int width = Integer.parseInt(options.getOrDefault("width", "600"));
+        int height = Integer.parseInt(options.getOrDefault("height", "400"));
+        int particles = Integer.parseInt(options.getOrDefault("particles", "80"));
+        sweep.setWorld(width, height, groups, particles);
+        System.out.printf("Runs: %d (%s), particles: %d, world: %dx%d, ticks: %d, threads: %d, seed: %d%n",
+                runs.size(), mode, groups * particles, width, height, ticks, threads, seed);
+
+        long start = System.nanoTime();
+        List<SweepRun> result;
+        try {
+            result = sweep.run(runs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1000000000.0;
+        System.out.printf("Finished in %.3f s, %.1f runs/sec, skipped (memory): %d, failed: %d%n",
+                seconds, runs.size() / seconds, sweep.getSkipped(), sweep.getFailed());
+
+        for (SweepRun run : result) {
+            System.out.printf("%nRun %d: score %.3f, clusters %.1f, energy %.3g, rMax %.1f, friction %.3f, seed %d%n",
+                    run.number, run.getScore(), run.getClusters(), run.getEnergy(), run.rMax, run.friction, run.seed);
+            for (double[] row : run.attraction) {
+                StringBuilder line = new StringBuilder("    {");
+                for (int j = 0; j < row.length; j++) {
+                    line.append(j == 0 ? "" : ", ").append(String.format("%4.1f", row[j]));
+                }
+                System.out.println(line.append("},"));
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package project.main;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import project.particles.ParticleStore;
+
+/**
+ * Growable list of particles with their global index, sent between the workers and the coordinator
+ * The global index is the index of the particle in the single process simulation
+ */
+class ParticleBatch {
+
+    private static final int BYTES = 4 + 4 * 8 + 1;
+
+    int[] id = new int[0];
+    double[] x = new double[0];
+    double[] y = new double[0];
+    double[] vx = new double[0];
+    double[] vy = new double[0];
+    byte[] group = new byte[0];
+    int size = 0;
+    private ByteBuffer encoded = ByteBuffer.allocate(0);
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(int id, double x, double y, double vx, double vy, int group) {
+        if (size == this.id.length) {
+            grow(Math.max(16, size * 2));
+        }
+        this.id[size] = id;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.vx[size] = vx;
+        this.vy[size] = vy;
+        this.group[size] = (byte) group;
+        size++;
+    }
+
+    /**
+     * Adds a particle of another batch
+     */
+    void add(ParticleBatch other, int index) {
+        add(other.id[index], other.x[index], other.y[index], other.vx[index], other.vy[index], other.group[index]);
+    }
+
+    /**
+     * Adds a particle of a store
+     */
+    void add(int id, ParticleStore store, int index) {
+        add(id, store.getX(index), store.getY(index), store.getXspeed(index), store.getYspeed(index), store.getGroup(index));
+    }
+
+    private void grow(int capacity) {
+        id = Arrays.copyOf(id, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        group = Arrays.copyOf(group, capacity);
+    }
+
+    /**
+     * Sorts the particles on their global index
+     */
+    void sortById() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = (long) id[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        ParticleBatch sorted = new ParticleBatch();
+        sorted.grow(Math.max(16, size));
+        for (long key : keys) {
+            sorted.add(this, (int) key);
+        }
+        id = sorted.id;
+        x = sorted.x;
+        y = sorted.y;
+        vx = sorted.vx;
+        vy = sorted.vy;
+        group = sorted.group;
+    }
+
+    /**
+     * Encodes the batch, the buffer is reused by the next encode
+     * @return buffer ready to send
+     */
+    ByteBuffer encode() {
+        int bytes = 4 + size * BYTES;
+        if (encoded.capacity() < bytes) {
+            encoded = ByteBuffer.allocate(bytes + bytes / 4);
+        }
+        encoded.clear();
+        encoded.putInt(size);
+        for (int i = 0; i < size; i++) {
+            encoded.putInt(id[i]).putDouble(x[i]).putDouble(y[i]).putDouble(vx[i]).putDouble(vy[i]).put(group[i]);
+        }
+        return encoded.flip();
+    }
+
+    /**
+     * Adds the particles of an encoded batch
+     * @param buffer buffer from encode
+     */
+    void decodeAppend(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            add(buffer.getInt(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.get());
+        }
+    }
+}
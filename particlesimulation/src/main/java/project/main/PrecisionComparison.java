@@ -0,0 +1,209 @@
+package project.main;
+
+import java.util.Map;
+
+import project.particles.ParticleManager;
+import project.particles.ParticleStore;
+import project.particles.Precision;
+
+public class PrecisionComparison {
+
+    // Tolerances of FLOAT and FIXED against DOUBLE, about 20 times what runs of the default settings show
+    static final double FORCE_TOLERANCE = 1e-5; // largest force difference per neighbor
+    static final int DRIFT_TICKS = 1000; // the drift grows without bound in a chaotic simulation, only checked up to here
+    static final double DRIFT_TOLERANCE = 1.0; // rms drift in pixels
+    static final double ENERGY_TOLERANCE = 0.02; // relative difference of the average kinetic energy per particle
+    static final double DISPERSION_TOLERANCE = 0.02; // relative difference of the average dispersion
+
+    private final Precision[] precisions = Precision.values();
+    private final ParticleManager[] particleManagers = new ParticleManager[precisions.length];
+    private final long[] nanos = new long[precisions.length];
+    private final int ticks;
+    private final int every;
+
+    // Largest rms drift up to DRIFT_TICKS and the sums of the statistics of every comparison after tick 0
+    private final double[] drift = new double[precisions.length];
+    private final double[] energySum = new double[precisions.length];
+    private final double[] dispersionSum = new double[precisions.length];
+
+    /**
+     * Runs the same simulation in every precision side by side and compares them with the DOUBLE run
+     * All runs start from the same particles, rounded to their precision.
+     * The drift is the distance of every particle to the same particle in the DOUBLE run. The simulation is chaotic,
+     * so the drift grows until it is as large as the clusters, after that only the statistics can be compared:
+     * the kinetic energy, the mean speed and the dispersion of the particle count of cells of rMax
+     * (variance over mean, 1 for particles spread at random, larger when they cluster).
+     * The run is within the tolerances when the force difference, the rms drift up to DRIFT_TICKS
+     * and the averages of the energy and dispersion over the comparisons are within the tolerances above
+     * @param options options of the headless simulation, the precision option is ignored
+     * @param ticks number of ticks to run
+     * @param every ticks between two comparisons
+     */
+    public PrecisionComparison(Map<String, String> options, int ticks, int every) {
+        this.ticks = ticks;
+        this.every = Math.max(1, every);
+        for (int p = 0; p < precisions.length; p++) {
+            particleManagers[p] = HeadlessSimulation.createParticleManager(options);
+            particleManagers[p].setPrecision(precisions[p]);
+        }
+    }
+
+    /**
+     * Runs all ticks and prints the comparison every so many ticks
+     * @return true if FLOAT and FIXED are within the tolerances, the ones which are not are printed
+     */
+    public boolean run() {
+        ParticleManager reference = particleManagers[0];
+        System.out.println("Particles: " + reference.getParticles().size() + ", groups: " + reference.getNumberOfGroups()
+                + ", world: " + reference.getWidth() + "x" + reference.getHeight() + ", rMax: " + reference.getRMax()
+                + ", threads: " + reference.getThreads());
+        for (int p = 0; p < precisions.length; p++) {
+            System.out.printf("%-7s simd: %-5b largest force difference per neighbor: %.3g%n", name(p),
+                    particleManagers[p].isSimdEnabled(), particleManagers[p].getPrecisionError());
+        }
+        System.out.println(" tick precision  rms drift  max drift  energy/particle  mean speed  dispersion");
+        print(0);
+        for (int tick = 1; tick <= ticks; tick++) {
+            for (int p = 0; p < precisions.length; p++) {
+                long start = System.nanoTime();
+                particleManagers[p].update();
+                nanos[p] += System.nanoTime() - start;
+            }
+            if (tick % every == 0 || tick == ticks || tick == DRIFT_TICKS) {
+                print(tick);
+            }
+        }
+        for (int p = 0; p < precisions.length; p++) {
+            System.out.printf("%-7s ticks/sec: %.1f%n", name(p), ticks / (nanos[p] / 1000000000.0));
+        }
+        return checkTolerances();
+    }
+
+    /**
+     * Checks FLOAT and FIXED against the tolerances and prints every value above its tolerance
+     * @return true if all values are within the tolerances
+     */
+    private boolean checkTolerances() {
+        boolean within = true;
+        for (int p = 1; p < precisions.length; p++) {
+            within &= check(p, "largest force difference per neighbor", particleManagers[p].getPrecisionError(), FORCE_TOLERANCE);
+            within &= check(p, "rms drift up to tick " + Math.min(ticks, DRIFT_TICKS), drift[p], DRIFT_TOLERANCE);
+            within &= check(p, "relative difference of the average energy",
+                    relativeDifference(energySum[p], energySum[0]), ENERGY_TOLERANCE);
+            within &= check(p, "relative difference of the average dispersion",
+                    relativeDifference(dispersionSum[p], dispersionSum[0]), DISPERSION_TOLERANCE);
+        }
+        System.out.println(within ? "Within the tolerances" : "Not within the tolerances");
+        return within;
+    }
+
+    private boolean check(int p, String name, double value, double tolerance) {
+        if (value <= tolerance) {
+            return true;
+        }
+        System.out.printf("%-7s %s %.3g is above %.3g%n", name(p), name, value, tolerance);
+        return false;
+    }
+
+    private static double relativeDifference(double value, double reference) {
+        return reference == 0 ? Math.abs(value) : Math.abs(value - reference) / Math.abs(reference);
+    }
+
+    /**
+     * Prints the drift and the statistics of every precision
+     * @param tick current tick
+     */
+    private void print(int tick) {
+        ParticleStore reference = particleManagers[0].getParticles();
+        for (int p = 0; p < precisions.length; p++) {
+            ParticleManager particleManager = particleManagers[p];
+            ParticleStore particles = particleManager.getParticles();
+            double squaredSum = 0;
+            double max = 0;
+            double speedSum = 0;
+            double energy = 0;
+            int n = particles.size();
+            for (int id = 0; id < n; id++) {
+                int i = particles.indexOf(id);
+                int r = reference.indexOf(id);
+                double dx = shortest(particles.getX(i) - reference.getX(r), particleManager.getWidth());
+                double dy = shortest(particles.getY(i) - reference.getY(r), particleManager.getHeight());
+                double squared = dx * dx + dy * dy;
+                squaredSum += squared;
+                max = Math.max(max, squared);
+                double vx = particles.getXspeed(i);
+                double vy = particles.getYspeed(i);
+                speedSum += Math.sqrt(vx * vx + vy * vy);
+                energy += 0.5 * (vx * vx + vy * vy);
+            }
+            double rmsDrift = Math.sqrt(squaredSum / Math.max(1, n));
+            double dispersion = dispersion(particleManager);
+            System.out.printf("%5d %-9s %10.4f %10.4f %16.4f %11.4f %11.3f%n", tick, name(p),
+                    rmsDrift, Math.sqrt(max), energy / Math.max(1, n), speedSum / Math.max(1, n), dispersion);
+            if (tick <= DRIFT_TICKS) {
+                drift[p] = Math.max(drift[p], rmsDrift);
+            }
+            if (tick > 0) {
+                energySum[p] += energy / Math.max(1, n);
+                dispersionSum[p] += dispersion;
+            }
+        }
+    }
+
+    /**
+     * Returns the shortest distance in the periodic world
+     */
+    private static double shortest(double d, int size) {
+        if (d > 0.5 * size) {
+            d -= size;
+        }
+        if (d < -0.5 * size) {
+            d += size;
+        }
+        return d;
+    }
+
+    /**
+     * Returns the variance over the mean of the number of particles in cells of about rMax
+     * @param particleManager particle manager to count the particles of
+     * @return index of dispersion
+     */
+    private static double dispersion(ParticleManager particleManager) {
+        ParticleStore particles = particleManager.getParticles();
+        int cols = Math.max(1, (int) (particleManager.getWidth() / particleManager.getRMax()));
+        int rows = Math.max(1, (int) (particleManager.getHeight() / particleManager.getRMax()));
+        int[] counts = new int[cols * rows];
+        for (int i = 0; i < particles.size(); i++) {
+            int col = Math.min(cols - 1, Math.max(0, (int) (particles.getX(i) * cols / particleManager.getWidth())));
+            int row = Math.min(rows - 1, Math.max(0, (int) (particles.getY(i) * rows / particleManager.getHeight())));
+            counts[row * cols + col]++;
+        }
+        double mean = (double) particles.size() / counts.length;
+        double variance = 0;
+        for (int count : counts) {
+            variance += (count - mean) * (count - mean);
+        }
+        variance /= counts.length;
+        return mean > 0 ? variance / mean : 0;
+    }
+
+    private String name(int p) {
+        return precisions[p].name().toLowerCase();
+    }
+
+    /**
+     * Precision comparison entry point
+     * Options: the options of the headless simulation, --ticks (default 1000), --every (ticks between comparisons, default ticks / 10)
+     * Exits with status 1 when FLOAT or FIXED are not within the tolerances
+     * @param args
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = HeadlessSimulation.parseOptions(args);
+        options.putIfAbsent("seed", String.valueOf(System.nanoTime())); // every run needs the same particles
+        int ticks = Integer.parseInt(options.getOrDefault("ticks", "1000"));
+        int every = Integer.parseInt(options.getOrDefault("every", String.valueOf(Math.max(1, ticks / 10))));
+        if (!new PrecisionComparison(options, ticks, every).run()) {
+            System.exit(1);
+        }
+    }
+}
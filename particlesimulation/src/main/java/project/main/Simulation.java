@@ -2,8 +2,14 @@ package project.main;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 import project.particles.ParticleManager;
+import project.particles.TrajectoryRecorder;
 
 public class Simulation implements Runnable{
     
@@ -13,13 +19,17 @@ public class Simulation implements Runnable{
     private final int FPS_SET = 120;
     private final int UPS_SET = 60;
 
-    private int frames = 0;
-    private int updates = 0;
+    private int frames = 0; // only used on the EDT
     private long lastCheck = 0;
     private String fps = "FPS: ";
-    private String ups = "UPS: ";
+    private final TickScheduler scheduler = new TickScheduler(UPS_SET, FPS_SET);
 
     private ParticleManager particleManager;
+    private long tick = 0; // only used on the simulation thread
+    private volatile TrajectoryRecorder recorder; // null when not recording
+    private static final Path TRAJECTORY = Path.of("trajectory.ptrj");
+    private static final int RECORD_EVERY = 10;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // run on the simulation thread before an update
 
     /**
      * Simulation constructor
@@ -31,6 +41,7 @@ public class Simulation implements Runnable{
 
         panel = new Panel(this);
         new Frame(panel);
+        particleManager.setWorldSize(Frame.width, Frame.height);
         particleManager.createParticles();
 
         panel.requestFocus();
@@ -53,6 +64,24 @@ public class Simulation implements Runnable{
         return particleManager;
     }
 
+    /**
+     * Returns the scheduler of the updates
+     * @return tick scheduler
+     */
+    public TickScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Runs a task on the simulation thread before the next update
+     * Changes to the particles (for example from the keyboard) go through here,
+     * so they never happen during an update
+     * @param task task to run
+     */
+    public void runOnSimulationThread(Runnable task) {
+        tasks.add(task);
+    }
+
     /**
      * Starts the simulation
      */
@@ -62,18 +91,50 @@ public class Simulation implements Runnable{
     }
 
     /**
-     * Updates the simulation
+     * Updates the simulation and publishes the particles for the renderer
      */
     public void update() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
         particleManager.update();
+        tick++;
+        if (recorder != null) {
+            recorder.tick(tick, particleManager.getParticles());
+        }
+        particleManager.publishSnapshot();
+    }
+
+    /**
+     * Starts or stops recording every RECORD_EVERY ticks to trajectory.ptrj
+     * Only call on the simulation thread
+     */
+    public void switchRecording() {
+        try {
+            if (recorder == null) {
+                recorder = TrajectoryRecorder.start(TRAJECTORY, particleManager.getParticles(),
+                        particleManager.getWidth(), particleManager.getHeight(), RECORD_EVERY, 100);
+            } else {
+                TrajectoryRecorder stopped = recorder;
+                recorder = null;
+                stopped.close();
+                System.out.println("Recorded " + stopped.getRecordedFrames() + " frames to " + TRAJECTORY
+                        + ", dropped " + stopped.getDroppedFrames());
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot record trajectory: " + e.getMessage());
+        }
     }
 
     /**
      * Renders the particle manager
+     * Runs on the EDT and only reads the newest snapshot, so it does not hold up the updates
      * @param g  Graphics hg
      */
     public void render(Graphics g) {
         particleManager.render(g);
+        frames++;
         updateCounters(g);
     }
 
@@ -85,51 +146,70 @@ public class Simulation implements Runnable{
         if (System.currentTimeMillis() - lastCheck >= 1000) {
             lastCheck = System.currentTimeMillis();
             fps = "FPS: " + frames;
-            ups = "UPS: " + updates;
             frames = 0;
-            updates = 0;
         }
 
         int borderOffset = 60;
-        
+
+        particleManager.showInfo(g, borderOffset);
+
         g.setColor(Color.GREEN);
         g.drawString(fps, Frame.width - borderOffset, 20);
-        g.drawString(ups, Frame.width - borderOffset, 40);
 
-        particleManager.showInfo(g, borderOffset);
+        // Achieved / target updates per second, red when the machine does not keep up
+        long achieved = Math.round(scheduler.getAchievedUps());
+        long target = Math.round(scheduler.getTargetUps());
+        g.setColor(scheduler.isOverloaded() ? Color.RED : Color.GREEN);
+        g.drawString("UPS: " + achieved + (target > 0 ? "/" + target : ""), Frame.width - borderOffset - 14, 40);
+        g.setColor(Color.white);
+        g.drawString(scheduler.getMode().toString(), Frame.width - borderOffset, 140);
+        g.drawString("drop: " + scheduler.getDroppedTicks(), Frame.width - borderOffset, 160);
+        if (recorder != null) {
+            g.setColor(Color.RED);
+            g.drawString("REC", Frame.width - borderOffset - 40, 20);
+        }
     }
 
     /**
      * Runnable thread
-     * Runs the loop on seperate thread
+     * Runs the loop on seperate thread.
+     * The scheduler decides how many updates run in an iteration, see TickScheduler for the modes.
+     * Between updates and repaints the thread is parked until the next one is due, instead of spinning.
+     * A repaint only asks the EDT to draw the newest snapshot, the FPS are counted when a frame is drawn
      */
     @Override
     public void run() {
         double timePerFrame = 1000000000.0 / FPS_SET; 
-        double timePerUpdate = 1000000000.0 / UPS_SET; 
 
         long previousTime = System.nanoTime();
 
-        double deltaU = 0;
         double deltaF = 0;
 
         while(true) {
             long currentTime = System.nanoTime();
-            deltaU += (currentTime - previousTime) / timePerUpdate;
             deltaF += (currentTime - previousTime) / timePerFrame;
             previousTime = currentTime;
+            if (deltaF > 1) {
+                deltaF = 1; // frames which were missed are not drawn later
+            }
+            boolean frameDue = deltaF >= 1;
 
-            if (deltaU >= 1) {
+            int ticks = scheduler.ticksDue(currentTime, frameDue);
+            for (int i = 0; i < ticks; i++) {
                 update();
-                updates++;
-                deltaU--;
+                scheduler.tickDone();
             }
 
-            if (deltaF >= 1) {
+            if (frameDue) {
                 panel.repaint();
-                frames++;
                 deltaF--;
             }
+
+            // Sleep until the next update or repaint is due
+            long wait = Math.min(scheduler.nanosUntilNextTick(), (long) ((1 - deltaF) * timePerFrame));
+            if (ticks == 0 && wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
         }
     }
 }
@@ -0,0 +1,227 @@
+package project.main;
+
+import java.util.Arrays;
+
+import project.particles.ParticleManager;
+import project.particles.ParticleStore;
+
+/**
+ * One candidate of a parameter sweep: a small particle manager and the running metrics of its ticks
+ * The run is advanced a slice of ticks at a time, so many runs can share the threads of a pool
+ */
+class SweepRun {
+
+    final int number;
+    final double[][] attraction;
+    final double rMax;
+    final double friction;
+    final long seed;
+
+    private final int ticks;
+    private final int warmup;
+    private final int sampleEvery;
+    private final double clusterCell;
+    private final double density;
+
+    private ParticleManager particleManager;
+    private int tick = 0;
+
+    // Sums of the samples after the warmup
+    private int samples = 0;
+    private double energySum = 0;
+    private double clusterSum = 0;
+
+    // Occupancy grid of the cluster count, reused by every sample
+    private int cols;
+    private int rows;
+    private int[] counts = new int[0];
+    private int[] stack = new int[0];
+
+    /**
+     * @param number number of the candidate
+     * @param attraction attraction matrix
+     * @param rMax maximum distance of interaction
+     * @param friction friction
+     * @param seed seed of the particle positions
+     * @param ticks ticks to run
+     * @param warmup ticks before the metrics are sampled
+     * @param sampleEvery ticks between two samples
+     * @param clusterCell size of the cells of the cluster count
+     * @param density times the average number of particles in a cell a cell needs to be part of a cluster
+     */
+    SweepRun(int number, double[][] attraction, double rMax, double friction, long seed,
+            int ticks, int warmup, int sampleEvery, double clusterCell, double density) {
+        this.number = number;
+        this.attraction = attraction;
+        this.rMax = rMax;
+        this.friction = friction;
+        this.seed = seed;
+        this.ticks = ticks;
+        this.warmup = Math.min(warmup, ticks - 1);
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.clusterCell = clusterCell;
+        this.density = density;
+    }
+
+    /**
+     * Creates the particle manager of the run, without particles yet
+     * @param width width of the world
+     * @param height height of the world
+     * @param groups number of groups
+     * @param particles number of particles in each group
+     */
+    void prepare(int width, int height, int groups, int particles) {
+        particleManager = new ParticleManager(width, height);
+        particleManager.setThreads(1); // the sweep runs the instances in parallel, not the particles of one instance
+        particleManager.setNumberOfGroups(groups);
+        particleManager.setNumberParticles(particles);
+        particleManager.setAttraction(attraction);
+        particleManager.setRMax(rMax);
+        particleManager.setFriction(friction);
+        particleManager.setSeed(seed);
+    }
+
+    /**
+     * Returns the estimated memory of the run, prepare first
+     * @return estimate in bytes
+     */
+    long estimateMemory() {
+        return particleManager.estimateMemory() + (long) (cols() + 2) * (rows() + 2) * 8;
+    }
+
+    /**
+     * Runs the next ticks, creates the particles on the first call
+     * @param slice maximum number of ticks
+     * @return true when the run is finished
+     */
+    boolean advance(int slice) {
+        if (tick == 0) {
+            particleManager.createParticles();
+        }
+        int end = Math.min(ticks, tick + slice);
+        while (tick < end) {
+            particleManager.update();
+            tick++;
+            if (tick > warmup && (tick - warmup) % sampleEvery == 0) {
+                sample();
+                if (!Double.isFinite(energySum)) {
+                    tick = ticks; // blew up, the score is not worth the remaining ticks
+                }
+            }
+        }
+        if (tick >= ticks) {
+            particleManager = null; // the memory goes back before the next run is admitted
+            counts = new int[0];
+            stack = new int[0];
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the kinetic energy per particle and the number of clusters to the sums
+     */
+    private void sample() {
+        ParticleStore particles = particleManager.getParticles();
+        int n = particles.size();
+        double energy = 0;
+        for (int i = 0; i < n; i++) {
+            double vx = particles.getXspeed(i);
+            double vy = particles.getYspeed(i);
+            energy += 0.5 * (vx * vx + vy * vy);
+        }
+        energySum += n == 0 ? 0 : energy / n;
+        clusterSum += countClusters(particles);
+        samples++;
+    }
+
+    private int cols() {
+        return Math.max(1, (int) (particleManager.getWidth() / clusterCell));
+    }
+
+    private int rows() {
+        return Math.max(1, (int) (particleManager.getHeight() / clusterCell));
+    }
+
+    /**
+     * Counts the groups of connected dense cells on a coarse grid
+     * A cell is dense when it has density times the average number of particles of a cell (at least 3),
+     * dense cells which share a side (also across the periodic border) are one cluster.
+     * An even gas has (almost) no dense cells, a single blob is one cluster
+     */
+    private int countClusters(ParticleStore particles) {
+        if (counts.length == 0) {
+            cols = cols();
+            rows = rows();
+            counts = new int[cols * rows];
+            stack = new int[cols * rows];
+        }
+        Arrays.fill(counts, 0);
+        double cellWidth = (double) particleManager.getWidth() / cols;
+        double cellHeight = (double) particleManager.getHeight() / rows;
+        int n = particles.size();
+        for (int i = 0; i < n; i++) {
+            int col = Math.min(cols - 1, (int) (particles.getX(i) / cellWidth));
+            int row = Math.min(rows - 1, (int) (particles.getY(i) / cellHeight));
+            counts[Math.max(0, row) * cols + Math.max(0, col)]++;
+        }
+        int threshold = Math.max(3, (int) Math.ceil(density * n / counts.length));
+
+        // Flood fill, a visited cell gets a count of -1
+        int clusters = 0;
+        for (int start = 0; start < counts.length; start++) {
+            if (counts[start] < threshold) {
+                continue;
+            }
+            clusters++;
+            int top = 0;
+            stack[top++] = start;
+            counts[start] = -1;
+            while (top > 0) {
+                int cell = stack[--top];
+                int col = cell % cols;
+                int row = cell / cols;
+                top = visit(row * cols + (col + 1) % cols, threshold, top);
+                top = visit(row * cols + (col + cols - 1) % cols, threshold, top);
+                top = visit((row + 1) % rows * cols + col, threshold, top);
+                top = visit((row + rows - 1) % rows * cols + col, threshold, top);
+            }
+        }
+        return clusters;
+    }
+
+    private int visit(int cell, int threshold, int top) {
+        if (counts[cell] >= threshold) {
+            counts[cell] = -1;
+            stack[top++] = cell;
+        }
+        return top;
+    }
+
+    /**
+     * Returns the average kinetic energy per particle after the warmup
+     */
+    double getEnergy() {
+        return samples == 0 ? 0 : energySum / samples;
+    }
+
+    /**
+     * Returns the average number of clusters after the warmup
+     */
+    double getClusters() {
+        return samples == 0 ? 0 : clusterSum / samples;
+    }
+
+    /**
+     * Returns the score of the run, high for several clusters which keep moving
+     * The number of clusters times the logarithm of the energy, so a still crystal and an even gas both score low.
+     * A run which blew up scores negative infinity
+     */
+    double getScore() {
+        double energy = getEnergy();
+        if (!Double.isFinite(energy)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return getClusters() * Math.log1p(energy);
+    }
+}
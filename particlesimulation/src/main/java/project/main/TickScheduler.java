@@ -0,0 +1,196 @@
+package project.main;
+
+/**
+ * Decides when the simulation thread runs its updates
+ * FIXED runs the updates at the target rate and keeps at most CATCH_UP_BUDGET ticks to catch up,
+ * ticks which are later than that are dropped, so simulated time slows down instead of drifting.
+ * UNCAPPED runs updates back to back, as fast as the machine allows.
+ * SYNCED runs the ticks that are due at the target rate as one batch when a frame is drawn, so simulated time
+ * keeps up with the wall clock at the target rate while the frames show every batch.
+ * A batch holds at most the ticks of one frame plus CATCH_UP_BUDGET, the ticks behind that are dropped like in FIXED.
+ * All methods except the getters are only called from the simulation thread
+ */
+public class TickScheduler {
+
+    public enum Mode {
+        FIXED,
+        UNCAPPED,
+        SYNCED
+    }
+
+    static final int CATCH_UP_BUDGET = 5; // most ticks which are behind and still run
+
+    private final double timePerUpdate;
+    private final double timePerFrame;
+    private final double ups;
+
+    private volatile Mode mode = Mode.FIXED;
+    private long previousTime = -1;
+    private double deltaU = 0; // ticks due in FIXED and SYNCED
+
+    // Statistics, read by the EDT
+    private long windowStart = -1;
+    private int windowTicks = 0;
+    private volatile double achievedUps = 0;
+    private volatile double targetUps;
+    private volatile long droppedTicks = 0;
+
+    /**
+     * @param ups target updates per second of FIXED and SYNCED
+     * @param fps frames per second, the frame rate of SYNCED
+     */
+    public TickScheduler(int ups, int fps) {
+        this.ups = ups;
+        timePerUpdate = 1000000000.0 / ups;
+        timePerFrame = 1000000000.0 / fps;
+        targetUps = ups;
+    }
+
+    /**
+     * Returns how many ticks to run now
+     * @param now current time (System.nanoTime)
+     * @param frameDue true if a frame is drawn in this iteration of the loop
+     * @return number of ticks to run back to back
+     */
+    public int ticksDue(long now, boolean frameDue) {
+        if (previousTime < 0) {
+            previousTime = now;
+            windowStart = now;
+        }
+        double elapsed = now - previousTime;
+        previousTime = now;
+        measure(now);
+
+        switch (mode) {
+            case UNCAPPED:
+                return 1;
+            case SYNCED:
+                deltaU += elapsed / timePerUpdate;
+                drop(Math.ceil(timePerFrame / timePerUpdate) + CATCH_UP_BUDGET);
+                if (!frameDue) {
+                    return 0;
+                }
+                int batch = (int) deltaU;
+                deltaU -= batch;
+                return batch;
+            default:
+                deltaU += elapsed / timePerUpdate;
+                drop(CATCH_UP_BUDGET);
+                // One tick per iteration, so the repaints still go on while catching up
+                if (deltaU >= 1) {
+                    deltaU--;
+                    return 1;
+                }
+                return 0;
+        }
+    }
+
+    /**
+     * Drops the due ticks above the budget, too far behind to still run them
+     * @param budget most ticks which stay due
+     */
+    private void drop(double budget) {
+        if (deltaU > budget) {
+            long dropped = (long) (deltaU - budget);
+            droppedTicks += dropped;
+            deltaU -= dropped;
+        }
+    }
+
+    /**
+     * Adds a finished tick to the tick count
+     */
+    public void tickDone() {
+        windowTicks++;
+    }
+
+    /**
+     * Returns how long the loop can sleep before the next tick is due
+     * @return nanoseconds until the next tick, Long.MAX_VALUE when the ticks wait on the next frame
+     */
+    public long nanosUntilNextTick() {
+        switch (mode) {
+            case UNCAPPED:
+                return 0;
+            case SYNCED:
+                return Long.MAX_VALUE;
+            default:
+                return deltaU >= 1 ? 0 : (long) ((1 - deltaU) * timePerUpdate);
+        }
+    }
+
+    /**
+     * Updates the achieved rate once per second
+     */
+    private void measure(long now) {
+        if (now - windowStart >= 1000000000L) {
+            achievedUps = windowTicks * 1000000000.0 / (now - windowStart);
+            windowTicks = 0;
+            windowStart = now;
+        }
+    }
+
+    /**
+     * Switches to the next mode, the ticks which were due are forgotten
+     */
+    public void switchMode() {
+        switch (mode) {
+            case FIXED:
+                setMode(Mode.UNCAPPED);
+                break;
+            case UNCAPPED:
+                setMode(Mode.SYNCED);
+                break;
+            case SYNCED:
+                setMode(Mode.FIXED);
+                break;
+        }
+    }
+
+    /**
+     * Sets the mode, the ticks which were due are forgotten
+     * @param mode new mode
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+        deltaU = 0;
+        targetUps = mode == Mode.UNCAPPED ? 0 : ups;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the updates per second measured over the last second
+     * @return achieved updates per second
+     */
+    public double getAchievedUps() {
+        return achievedUps;
+    }
+
+    /**
+     * Returns the rate the scheduler aims for
+     * @return target updates per second, 0 when uncapped
+     */
+    public double getTargetUps() {
+        return targetUps;
+    }
+
+    /**
+     * Returns how many ticks were dropped because FIXED or SYNCED was further behind than the catch-up budget
+     * @return number of dropped ticks since the start
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    /**
+     * Returns if the machine does not keep up with the target rate
+     * @return true if less than 95% of the target rate was achieved in the last second
+     */
+    public boolean isOverloaded() {
+        double target = targetUps;
+        return target > 0 && achievedUps < 0.95 * target;
+    }
+}
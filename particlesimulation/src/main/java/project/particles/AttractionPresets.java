@@ -0,0 +1,83 @@
+package project.particles;
+
+public class AttractionPresets {
+
+    public static final int TOTAL_REPULSION = 1;
+    public static final int OWN_GROUP = 2;
+    public static final int RGB_WORM = 3;
+    public static final int REPEL_OWN_GROUP = 4;
+
+    /**
+     * Preset attraction matrices for 6 groups
+     */
+    private AttractionPresets() {
+
+    }
+
+    /**
+     * Returns a new copy of a preset attraction matrix
+     * A copy is returned because the attraction matrix can be changed in place
+     * @param preset number of the preset (1 - 4)
+     * @return attraction matrix
+     */
+    public static double[][] get(int preset) {
+        switch (preset) {
+            case TOTAL_REPULSION:
+                return new double[][] { // total repulsion
+                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
+                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
+                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
+                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
+                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
+                    {0.0,  0.0,  0.0,   0.0,    0.0,    0.0},
+                };
+            case OWN_GROUP:
+                return new double[][] { // only attract own color/group
+                    {1.0,  0.0,  0.0,   0.0,    0.0,    0.0},
+                    {0.0,  1.0,  0.0,   0.0,    0.0,    0.0},
+                    {0.0,  0.0,  1.0,   0.0,    0.0,    0.0},
+                    {0.0,  0.0,  0.0,   1.0,    0.0,    0.0},
+                    {0.0,  0.0,  0.0,   0.0,    1.0,    0.0},
+                    {0.0,  0.0,  0.0,   0.0,    0.0,    1.0},
+                };
+            case RGB_WORM:
+                return new double[][] { // rbg worm
+                    {1.0,  -0.1,  0.0,   0.0,    0.0,    0.0},
+                    {0.2,  1.0,  0.0,   0.0,    0.0,    0.0},
+                    {0.0,  0.2,  1.0,   0.0,    0.0,    0.0},
+                    {0.0,  0.0,  0.2,   1.0,    0.0,    0.0},
+                    {0.0,  0.0,  0.0,   0.2,    1.0,    0.0},
+                    {0.0,  0.0,  0.0,   0.0,    0.2,    1.0},
+                };
+            case REPEL_OWN_GROUP:
+                return new double[][] {
+                    {-1.0,  1.0,  1.0,   1.0,    1.0,    1.0},
+                    {1.0,  -1.0,  1.0,   1.0,    1.0,    1.0},
+                    {1.0,  1.0,  -1.0,   1.0,    1.0,    1.0},
+                    {1.0,  1.0,  1.0,   -1.0,    1.0,    1.0},
+                    {1.0,  1.0,  1.0,   1.0,    -1.0,    1.0},
+                    {1.0,  1.0,  1.0,   1.0,    1.0,    -1.0},
+                };
+            default:
+                throw new IllegalArgumentException("Unknown preset: " + preset);
+        }
+    }
+
+    /**
+     * Returns a preset for any number of groups
+     * The 6x6 preset is repeated when there are more groups
+     * @param preset number of the preset (1 - 4)
+     * @param groups number of groups
+     * @return attraction matrix of groups x groups
+     */
+    public static double[][] get(int preset, int groups) {
+        double[][] base = get(preset);
+        double[][] attraction = new double[groups][groups];
+        for (int i = 0; i < groups; i++) {
+            for (int j = 0; j < groups; j++) {
+                attraction[i][j] = base[i % base.length][j % base.length];
+            }
+        }
+        return attraction;
+    }
+}
@@ -0,0 +1,246 @@
+package project.particles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Binary checkpoint of the full state of a particle manager
+ * The file is written and read through memory mapped buffers, every particle array is one bulk copy
+ * (a store outside the heap is copied particle by particle).
+ *
+ * Layout (little endian):
+ *   int magic, int version, int width, int height,
+ *   double rMax, double friction, double dt, int forceFactor, int groups, long particles,
+ *   double[groups * groups] attraction (row after row),
+ *   double[particles] x, y, xspeed, yspeed, byte[particles] group
+ *
+ * The magic is written last, so a file of an interrupted save is not read
+ */
+public final class Checkpoint {
+
+    static final int MAGIC = 0x5053494D; // "PSIM"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 56;
+
+    private Checkpoint() {
+
+    }
+
+    /**
+     * Writes the particles and the settings of a particle manager to a file
+     * @param particleManager particle manager to save
+     * @param path file to write, is replaced when it exists
+     * @throws IOException when the file cannot be written
+     */
+    public static void save(ParticleManager particleManager, Path path) throws IOException {
+        ParticleStore particles = particleManager.getParticles();
+        double[][] attraction = particleManager.getAttraction();
+        int groups = attraction.length;
+        int n = particles.size();
+        long matrixSize = 8L * groups * groups;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + matrixSize);
+            header.putInt(0); // magic, written when the rest is on disk
+            header.putInt(VERSION);
+            header.putInt(particleManager.getWidth());
+            header.putInt(particleManager.getHeight());
+            header.putDouble(particleManager.getRMax());
+            header.putDouble(particleManager.getFriction());
+            header.putDouble(particleManager.getDt());
+            header.putInt(particleManager.getForceFactor());
+            header.putInt(groups);
+            header.putLong(n);
+            for (double[] row : attraction) {
+                header.asDoubleBuffer().put(row);
+                header.position(header.position() + 8 * groups);
+            }
+
+            // The particles are written in the order of their ids, a reordered store loads with the same ids
+            int[] order = particles.getIndexOfIdArray();
+            long offset = HEADER_SIZE + matrixSize;
+            offset = writeDoubles(channel, offset, particles.getXArray(), order, n, particles, particles::getX);
+            offset = writeDoubles(channel, offset, particles.getYArray(), order, n, particles, particles::getY);
+            offset = writeDoubles(channel, offset, particles.getXspeedArray(), order, n, particles, particles::getXspeed);
+            offset = writeDoubles(channel, offset, particles.getYspeedArray(), order, n, particles, particles::getYspeed);
+            if (n > 0) {
+                MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, offset, n);
+                byte[] group = particles.getGroupArray();
+                if (group == null) {
+                    for (int id = 0; id < n; id++) {
+                        buffer.put((byte) particles.getGroup(particles.indexOf(id)));
+                    }
+                } else if (order == null) {
+                    buffer.put(group, 0, n);
+                } else {
+                    for (int id = 0; id < n; id++) {
+                        buffer.put(group[order[id]]);
+                    }
+                }
+                buffer.force();
+            }
+
+            header.force();
+            header.putInt(0, MAGIC);
+            header.force();
+        }
+    }
+
+    /**
+     * Replaces the particles and the settings of a particle manager with a checkpoint
+     * Keeps the threads, kernels and neighbor settings of the particle manager
+     * @param particleManager particle manager to restore into
+     * @param path file written by save
+     * @throws IOException when the file cannot be read or is not a (complete) checkpoint
+     */
+    public static void load(ParticleManager particleManager, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a checkpoint: " + path);
+            }
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a checkpoint or not completely written: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + ": " + path);
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+            double rMax = header.getDouble();
+            double friction = header.getDouble();
+            double dt = header.getDouble();
+            int forceFactor = header.getInt();
+            int groups = header.getInt();
+            long count = header.getLong();
+            long matrixSize = 8L * groups * groups;
+            if (groups < 1 || groups > 127 || count < 0 || count > Integer.MAX_VALUE
+                    || channel.size() != HEADER_SIZE + matrixSize + 33 * count) {
+                throw new IOException("Corrupt checkpoint: " + path);
+            }
+            int n = (int) count;
+
+            double[][] attraction = new double[groups][groups];
+            ByteBuffer matrix = map(channel, FileChannel.MapMode.READ_ONLY, HEADER_SIZE, matrixSize);
+            for (double[] row : attraction) {
+                matrix.asDoubleBuffer().get(row);
+                matrix.position(matrix.position() + 8 * groups);
+            }
+
+            // Every group must index the attraction matrix, checked before the particles are replaced
+            long groupOffset = HEADER_SIZE + matrixSize + 32L * n;
+            if (n > 0) {
+                MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_ONLY, groupOffset, n);
+                for (int i = 0; i < n; i++) {
+                    byte group = buffer.get(i);
+                    if (group < 0 || group >= groups) {
+                        throw new IOException("Corrupt checkpoint, group " + group + " of particle " + i
+                                + " is not below " + groups + ": " + path);
+                    }
+                }
+            }
+
+            particleManager.setWorldSize(width, height); // first, the fixed point positions of a compact store depend on it
+            ParticleStore particles = particleManager.getParticles();
+            particles.resize(n);
+            long offset = HEADER_SIZE + matrixSize;
+            offset = readDoubles(channel, offset, particles.getXArray(), n, particles::setX);
+            offset = readDoubles(channel, offset, particles.getYArray(), n, particles::setY);
+            offset = readDoubles(channel, offset, particles.getXspeedArray(), n, particles::setXspeed);
+            offset = readDoubles(channel, offset, particles.getYspeedArray(), n, particles::setYspeed);
+            if (n > 0) {
+                MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_ONLY, offset, n);
+                if (particles.getGroupArray() == null) {
+                    for (int i = 0; i < n; i++) {
+                        particles.setGroup(i, buffer.get());
+                    }
+                } else {
+                    buffer.get(particles.getGroupArray(), 0, n);
+                }
+            }
+
+            particleManager.setRMax(rMax);
+            particleManager.setFriction(friction);
+            particleManager.setDt(dt);
+            particleManager.setForceFactor(forceFactor);
+            particleManager.setNumberOfGroups(groups);
+            particleManager.setAttraction(attraction);
+            particleManager.particlesRestored();
+        }
+    }
+
+    /**
+     * Writes the first n values of an array at an offset
+     * With an order the value of id k is values[order[k]], without every index is its own id
+     * Without an array (a store outside the heap) every value is read through the getter
+     * @return offset after the values
+     */
+    private static long writeDoubles(FileChannel channel, long offset, double[] values, int[] order, int n,
+            ParticleStore particles, IntToDoubleFunction getter) throws IOException {
+        if (n > 0) {
+            MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, offset, 8L * n);
+            DoubleBuffer doubles = buffer.asDoubleBuffer();
+            if (values == null) {
+                for (int id = 0; id < n; id++) {
+                    doubles.put(getter.applyAsDouble(particles.indexOf(id)));
+                }
+            } else if (order == null) {
+                doubles.put(values, 0, n);
+            } else {
+                for (int id = 0; id < n; id++) {
+                    doubles.put(values[order[id]]);
+                }
+            }
+            buffer.force();
+        }
+        return offset + 8L * n;
+    }
+
+    /**
+     * Reads n values at an offset into an array
+     * Without an array (a store outside the heap) every value is written through the setter
+     * @return offset after the values
+     */
+    private static long readDoubles(FileChannel channel, long offset, double[] values, int n, Setter setter) throws IOException {
+        if (n > 0) {
+            DoubleBuffer doubles = map(channel, FileChannel.MapMode.READ_ONLY, offset, 8L * n).asDoubleBuffer();
+            if (values == null) {
+                for (int i = 0; i < n; i++) {
+                    setter.set(i, doubles.get());
+                }
+            } else {
+                doubles.get(values, 0, n);
+            }
+        }
+        return offset + 8L * n;
+    }
+
+    /**
+     * Setter of one particle array of the store
+     */
+    private interface Setter {
+        void set(int index, double value);
+    }
+
+    /**
+     * Maps a part of the file, little endian
+     * One mapping is at most 2 GB, so one array can hold up to 268M particles
+     */
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Checkpoint section too large: " + size + " bytes");
+        }
+        MappedByteBuffer buffer = channel.map(mode, offset, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+}
@@ -0,0 +1,49 @@
+package project.particles;
+
+/**
+ * Color lookup tables for coloring the particles by a value
+ * A value between 0 and 1 is turned into one of 256 precomputed rgb colors,
+ * so coloring a particle does not create a Color
+ */
+public final class ColorPalette {
+
+    public static final int SIZE = 256;
+
+    private static final int[] BLUE_TO_RED = createBlueToRed();
+
+    private ColorPalette() {
+
+    }
+
+    /**
+     * Gradient from blue (0) to red (1), the speed and density colors
+     */
+    private static int[] createBlueToRed() {
+        int[] palette = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            double normalized = (double) i / (SIZE - 1);
+            int red = (int) (normalized * 255);
+            int blue = (int) ((1 - normalized) * 255);
+            palette[i] = 0xff000000 | (red << 16) | blue; // opaque, like Color.getRGB
+        }
+        return palette;
+    }
+
+    /**
+     * Returns the color of a value on the blue to red gradient
+     * @param value value, clamped between 0 and 1
+     * @return rgb color
+     */
+    public static int blueToRed(double value) {
+        return BLUE_TO_RED[index(value)];
+    }
+
+    /**
+     * Returns the palette entry of a value
+     * @param value value, clamped between 0 and 1
+     * @return index in the palette (0 - 255)
+     */
+    static int index(double value) {
+        return (int) (Math.min(Math.max(value, 0.0), 1.0) * (SIZE - 1));
+    }
+}
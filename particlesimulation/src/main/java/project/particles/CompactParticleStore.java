@@ -0,0 +1,372 @@
+package project.particles;
+
+import java.util.Arrays;
+
+/**
+ * Particle store of the 32 bit precisions, on the heap
+ * The same structure of arrays as ParticleStore, but the positions are floats (FLOAT) or fixed point ints (FIXED)
+ * and the speeds are floats, 16 instead of 32 bytes per particle for the state.
+ * The getters and setters convert to and from double, a set value is rounded to the nearest value of the precision
+ * and a fixed point position outside the world wraps around. The double arrays for bulk access are null
+ */
+class CompactParticleStore extends ParticleStore {
+    private final Precision precision;
+    private int width;
+    private int height;
+
+    private float[] x; // FLOAT positions, null with FIXED
+    private float[] y;
+    private int[] fixedX; // FIXED positions, null with FLOAT
+    private int[] fixedY;
+    private float[] vx;
+    private float[] vy;
+    private byte[] group;
+    private int[] color;
+    private int capacity;
+    private int size = 0;
+
+    // Stable particle ids as in ParticleStore, both null while every index is its own id
+    private int[] id;
+    private int[] indexOfId;
+
+    // Spare arrays for the reorder
+    private float[] spareFloat = new float[0];
+    private int[] spareInt = new int[0];
+    private byte[] spareByte = new byte[0];
+
+    /**
+     * Creates an empty store
+     * @param capacity initial number of particles that fit without growing
+     * @param precision FLOAT or FIXED
+     * @param width width of the world, the range of the fixed point positions
+     * @param height height of the world
+     */
+    CompactParticleStore(int capacity, Precision precision, int width, int height) {
+        if (precision == Precision.DOUBLE) {
+            throw new IllegalArgumentException("The compact store holds 32 bit values, not " + precision);
+        }
+        this.precision = precision;
+        this.width = width;
+        this.height = height;
+        capacity = Math.max(capacity, 16);
+        this.capacity = capacity;
+        if (precision == Precision.FIXED) {
+            fixedX = new int[capacity];
+            fixedY = new int[capacity];
+        } else {
+            x = new float[capacity];
+            y = new float[capacity];
+        }
+        vx = new float[capacity];
+        vy = new float[capacity];
+        group = new byte[capacity];
+        color = new int[capacity];
+    }
+
+    Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets the size of the world, the fixed point positions are converted to the new range
+     * Positions outside the new world wrap around
+     * @param width width of the world
+     * @param height height of the world
+     */
+    void setWorldSize(int width, int height) {
+        if (precision == Precision.FIXED && (width != this.width || height != this.height)) {
+            for (int i = 0; i < size; i++) {
+                fixedX[i] = Precision.toFixed(Precision.fromFixed(fixedX[i], this.width), width);
+                fixedY[i] = Precision.toFixed(Precision.fromFixed(fixedY[i], this.height), height);
+            }
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int add(double x, double y, double vx, double vy, int group) {
+        if (size == capacity) {
+            grow(size * 2);
+        }
+        int index = size++;
+        setX(index, x);
+        setY(index, y);
+        setXspeed(index, vx);
+        setYspeed(index, vy);
+        this.group[index] = (byte) group;
+        if (id != null) {
+            id[index] = index;
+            indexOfId[index] = index;
+        }
+        return index;
+    }
+
+    private void grow(int capacity) {
+        this.capacity = capacity;
+        if (precision == Precision.FIXED) {
+            fixedX = Arrays.copyOf(fixedX, capacity);
+            fixedY = Arrays.copyOf(fixedY, capacity);
+        } else {
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+        }
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        group = Arrays.copyOf(group, capacity);
+        color = Arrays.copyOf(color, capacity);
+        if (id != null) {
+            id = Arrays.copyOf(id, capacity);
+            indexOfId = Arrays.copyOf(indexOfId, capacity);
+        }
+    }
+
+    /**
+     * Makes this store a copy of another store of any kind, through its getters
+     * The values are rounded to the precision of this store
+     * @param other store to copy all particles from
+     */
+    @Override
+    public void copyFrom(ParticleStore other) {
+        int n = other.size();
+        resize(n);
+        boolean ordered = false;
+        for (int i = 0; i < n; i++) {
+            setX(i, other.getX(i));
+            setY(i, other.getY(i));
+            setXspeed(i, other.getXspeed(i));
+            setYspeed(i, other.getYspeed(i));
+            group[i] = (byte) other.getGroup(i);
+            color[i] = other.getColor(i);
+            ordered |= other.getId(i) != i;
+        }
+        if (ordered) {
+            id = new int[capacity];
+            indexOfId = new int[capacity];
+            for (int i = 0; i < n; i++) {
+                id[i] = other.getId(i);
+                indexOfId[id[i]] = i;
+            }
+        }
+    }
+
+    @Override
+    void copyTo(ParticleStore target) {
+        target.resizeForCopy(size, id != null);
+        double[] targetX = target.getXArray();
+        double[] targetY = target.getYArray();
+        double[] targetVx = target.getXspeedArray();
+        double[] targetVy = target.getYspeedArray();
+        for (int i = 0; i < size; i++) {
+            targetX[i] = getX(i);
+            targetY[i] = getY(i);
+            targetVx[i] = vx[i];
+            targetVy[i] = vy[i];
+        }
+        System.arraycopy(group, 0, target.getGroupArray(), 0, size);
+        System.arraycopy(color, 0, target.getColorArray(), 0, size);
+        if (id != null) {
+            System.arraycopy(id, 0, target.getIdArray(), 0, size);
+            System.arraycopy(indexOfId, 0, target.getIndexOfIdArray(), 0, size);
+        }
+    }
+
+    @Override
+    void reorder(int[] order) {
+        if (id == null) {
+            id = new int[capacity];
+            indexOfId = new int[capacity];
+            for (int i = 0; i < size; i++) {
+                id[i] = i;
+            }
+        }
+        if (spareFloat.length < capacity) {
+            spareFloat = new float[capacity];
+            spareInt = new int[capacity];
+            spareByte = new byte[capacity];
+        }
+        // Every array is gathered into the spare array, which then takes its place
+        if (precision == Precision.FIXED) {
+            int[] previous = fixedX;
+            fixedX = gather(previous, order);
+            spareInt = previous;
+            previous = fixedY;
+            fixedY = gather(previous, order);
+            spareInt = previous;
+        } else {
+            float[] previous = x;
+            x = gather(previous, order);
+            spareFloat = previous;
+            previous = y;
+            y = gather(previous, order);
+            spareFloat = previous;
+        }
+        float[] previousFloat = vx;
+        vx = gather(previousFloat, order);
+        spareFloat = previousFloat;
+        previousFloat = vy;
+        vy = gather(previousFloat, order);
+        spareFloat = previousFloat;
+
+        int[] previousInt = color;
+        color = gather(previousInt, order);
+        spareInt = previousInt;
+        previousInt = id;
+        id = gather(previousInt, order);
+        spareInt = previousInt;
+
+        byte[] previousGroup = group;
+        for (int k = 0; k < size; k++) {
+            spareByte[k] = previousGroup[order[k]];
+        }
+        group = spareByte;
+        spareByte = previousGroup;
+
+        for (int k = 0; k < size; k++) {
+            indexOfId[id[k]] = k;
+        }
+    }
+
+    private float[] gather(float[] values, int[] order) {
+        float[] result = spareFloat;
+        for (int k = 0; k < size; k++) {
+            result[k] = values[order[k]];
+        }
+        return result;
+    }
+
+    private int[] gather(int[] values, int[] order) {
+        int[] result = spareInt;
+        for (int k = 0; k < size; k++) {
+            result[k] = values[order[k]];
+        }
+        return result;
+    }
+
+    @Override
+    void resizeForCopy(int size, boolean ordered) {
+        throw new UnsupportedOperationException("The compact store is filled through copyFrom");
+    }
+
+    @Override
+    void resize(int size) {
+        if (capacity < size) {
+            grow(size);
+        }
+        this.size = size;
+        id = null; // filled in the order of the ids
+        indexOfId = null;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        id = null;
+        indexOfId = null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getId(int index) {
+        return id == null ? index : id[index];
+    }
+
+    @Override
+    public int indexOf(int id) {
+        return indexOfId == null ? id : indexOfId[id];
+    }
+
+    // Getters and setters, converting to and from double
+    @Override
+    public double getX(int index) {
+        return fixedX != null ? Precision.fromFixed(fixedX[index], width) : x[index];
+    }
+
+    @Override
+    public void setX(int index, double value) {
+        if (fixedX != null) {
+            fixedX[index] = Precision.toFixed(value, width);
+        } else {
+            x[index] = (float) value;
+        }
+    }
+
+    @Override
+    public double getY(int index) {
+        return fixedY != null ? Precision.fromFixed(fixedY[index], height) : y[index];
+    }
+
+    @Override
+    public void setY(int index, double value) {
+        if (fixedY != null) {
+            fixedY[index] = Precision.toFixed(value, height);
+        } else {
+            y[index] = (float) value;
+        }
+    }
+
+    @Override
+    public double getXspeed(int index) {
+        return vx[index];
+    }
+
+    @Override
+    public void setXspeed(int index, double value) {
+        vx[index] = (float) value;
+    }
+
+    @Override
+    public double getYspeed(int index) {
+        return vy[index];
+    }
+
+    @Override
+    public void setYspeed(int index, double value) {
+        vy[index] = (float) value;
+    }
+
+    @Override
+    public int getGroup(int index) {
+        return group[index];
+    }
+
+    @Override
+    public void setGroup(int index, int value) {
+        group[index] = (byte) value;
+    }
+
+    @Override
+    public int getColor(int index) {
+        return color[index];
+    }
+
+    @Override
+    public void setColor(int index, int rgb) {
+        color[index] = rgb;
+    }
+
+    // Arrays for bulk reads and writes, the double arrays of ParticleStore are null
+    @Override
+    byte[] getGroupArray() {
+        return group;
+    }
+
+    @Override
+    int[] getColorArray() {
+        return color;
+    }
+
+    @Override
+    int[] getIdArray() {
+        return id;
+    }
+
+    @Override
+    int[] getIndexOfIdArray() {
+        return indexOfId;
+    }
+}
@@ -0,0 +1,127 @@
+package project.particles;
+
+/**
+ * Two dimensional complex FFT on a periodic mesh of cols by rows, both a power of two
+ * Iterative radix-2, first over every row and then over every column.
+ * The mesh is stored row by row, the real and imaginary parts in separate arrays
+ */
+class Fft {
+
+    private final int cols;
+    private final int rows;
+    private final double[] cosCols;
+    private final double[] sinCols;
+    private final double[] cosRows;
+    private final double[] sinRows;
+
+    // One column at a time, a column is not contiguous in the mesh
+    private final double[] columnRe;
+    private final double[] columnIm;
+
+    /**
+     * @param cols number of columns, a power of two
+     * @param rows number of rows, a power of two
+     */
+    Fft(int cols, int rows) {
+        if (Integer.bitCount(cols) != 1 || Integer.bitCount(rows) != 1) {
+            throw new IllegalArgumentException("Mesh size must be a power of two: " + cols + "x" + rows);
+        }
+        this.cols = cols;
+        this.rows = rows;
+        cosCols = new double[cols / 2];
+        sinCols = new double[cols / 2];
+        fillTwiddles(cosCols, sinCols, cols);
+        cosRows = new double[rows / 2];
+        sinRows = new double[rows / 2];
+        fillTwiddles(cosRows, sinRows, rows);
+        columnRe = new double[rows];
+        columnIm = new double[rows];
+    }
+
+    private static void fillTwiddles(double[] cos, double[] sin, int n) {
+        for (int k = 0; k < n / 2; k++) {
+            cos[k] = Math.cos(2 * Math.PI * k / n);
+            sin[k] = Math.sin(2 * Math.PI * k / n);
+        }
+    }
+
+    /**
+     * Transforms the mesh in place
+     * The inverse transform is divided by the number of cells, so the inverse of the forward transform is the input
+     * @param re real parts, cols * rows
+     * @param im imaginary parts, cols * rows
+     * @param inverse true for the inverse transform
+     */
+    void transform(double[] re, double[] im, boolean inverse) {
+        for (int row = 0; row < rows; row++) {
+            transform(re, im, row * cols, cols, cosCols, sinCols, inverse);
+        }
+        for (int col = 0; col < cols; col++) {
+            for (int row = 0; row < rows; row++) {
+                columnRe[row] = re[row * cols + col];
+                columnIm[row] = im[row * cols + col];
+            }
+            transform(columnRe, columnIm, 0, rows, cosRows, sinRows, inverse);
+            for (int row = 0; row < rows; row++) {
+                re[row * cols + col] = columnRe[row];
+                im[row * cols + col] = columnIm[row];
+            }
+        }
+        if (inverse) {
+            double scale = 1.0 / (cols * rows);
+            for (int i = 0; i < cols * rows; i++) {
+                re[i] *= scale;
+                im[i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * Transforms n values starting at offset in place
+     */
+    private static void transform(double[] re, double[] im, int offset, int n, double[] cos, double[] sin, boolean inverse) {
+        // Bit reversed order
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double swap = re[offset + i];
+                re[offset + i] = re[offset + j];
+                re[offset + j] = swap;
+                swap = im[offset + i];
+                im[offset + i] = im[offset + j];
+                im[offset + j] = swap;
+            }
+        }
+        double sign = inverse ? 1 : -1;
+        for (int length = 2; length <= n; length <<= 1) {
+            int half = length >> 1;
+            int step = n / length;
+            for (int start = 0; start < n; start += length) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int a = offset + start + k;
+                    int b = a + half;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    int getCols() {
+        return cols;
+    }
+
+    int getRows() {
+        return rows;
+    }
+}
@@ -0,0 +1,47 @@
+package project.particles;
+
+/**
+ * Calculates the total force of a batch of neighbors on one particle from 32 bit positions
+ * Counterpart of ForceKernel for the FLOAT and FIXED precision, the force itself is calculated in float
+ * (the scalar fixed point kernel uses double once the positions are subtracted)
+ */
+interface FloatForceKernel {
+    /**
+     * Adds the force of every neighbor in the range to the total force, from float positions
+     * A neighbor at distance 0 (the particle itself) adds no force
+     * @param x x-coordinate of the particle
+     * @param y y-coordinate of the particle
+     * @param attraction attraction of the particle to every group
+     * @param bx x-coordinates of the neighbors
+     * @param by y-coordinates of the neighbors
+     * @param bg groups of the neighbors
+     * @param from first neighbor (inclusive)
+     * @param to last neighbor (exclusive)
+     * @param rMax maximum distance of interaction
+     * @param width width of the world
+     * @param height height of the world
+     * @param total total force, total[0] in the x direction and total[1] in the y direction
+     */
+    void accumulate(float x, float y, float[] attraction, float[] bx, float[] by, int[] bg, int from, int to,
+            float rMax, int width, int height, double[] total);
+
+    /**
+     * Adds the force of every neighbor in the range to the total force, from fixed point positions
+     * The difference of two positions is the shortest distance in the periodic world by itself
+     * @param x fixed point x-coordinate of the particle
+     * @param y fixed point y-coordinate of the particle
+     * @param attraction attraction of the particle to every group
+     * @param bx fixed point x-coordinates of the neighbors
+     * @param by fixed point y-coordinates of the neighbors
+     * @param bg groups of the neighbors
+     * @param from first neighbor (inclusive)
+     * @param to last neighbor (exclusive)
+     * @param rMax maximum distance of interaction
+     * @param width width of the world
+     * @param height height of the world
+     * @param total total force, total[0] in the x direction and total[1] in the y direction
+     * @see Precision#FIXED
+     */
+    void accumulateFixed(int x, int y, float[] attraction, int[] bx, int[] by, int[] bg, int from, int to,
+            float rMax, int width, int height, double[] total);
+}
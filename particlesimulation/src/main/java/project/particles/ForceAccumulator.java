@@ -0,0 +1,270 @@
+package project.particles;
+
+/**
+ * Sums the forces of all neighbors on one particle
+ * Every thread uses its own accumulator, so the force pass has no shared mutable state.
+ * With a force kernel the neighborhood is handed to the kernel as ranges of the cell sorted arrays of the grid,
+ * with a float kernel the same ranges of the 32 bit copies of the grid
+ */
+class ForceAccumulator implements NeighborVisitor {
+    private final ParticleStore particles;
+    private final Grid grid;
+    private final double[][] attraction;
+    private final double rMax;
+    private final int width;
+    private final int height;
+    private final ForceKernel kernel;
+    private final FloatForceKernel floatKernel;
+    private final float[][] floatAttraction;
+
+    private final double[] total = new double[2];
+    private final int[] ranges;
+
+    // Positions and groups of a Verlet list, gathered so the kernel can read them as one range
+    private double[] listX = new double[0];
+    private double[] listY = new double[0];
+    private int[] listGroup = new int[0];
+
+    private double x;
+    private double y;
+    private double[] currentAttraction;
+    private double totalForcex;
+    private double totalForcey;
+    private int neighborCount;
+
+    /**
+     * @param particles particles to read the positions from
+     * @param grid grid which is built on the current positions, with the same rMax
+     * @param attraction attraction matrix
+     * @param rMax maximum distance of interaction
+     * @param width width of the world
+     * @param height height of the world
+     * @param kernel kernel for ranges of neighbors, null to calculate each neighbor directly
+     */
+    ForceAccumulator(ParticleStore particles, Grid grid, double[][] attraction, double rMax, int width, int height, ForceKernel kernel) {
+        this(particles, grid, attraction, rMax, width, height, kernel, null);
+    }
+
+    /**
+     * @param particles particles to read the positions from
+     * @param grid grid which is built on the current positions, with the same rMax
+     * @param attraction attraction matrix
+     * @param rMax maximum distance of interaction
+     * @param width width of the world
+     * @param height height of the world
+     * @param kernel kernel for ranges of neighbors, null to calculate each neighbor directly
+     * @param floatKernel kernel for the FLOAT and FIXED precision of the grid, null when the grid has the DOUBLE precision
+     */
+    ForceAccumulator(ParticleStore particles, Grid grid, double[][] attraction, double rMax, int width, int height,
+            ForceKernel kernel, FloatForceKernel floatKernel) {
+        this.particles = particles;
+        this.grid = grid;
+        this.attraction = attraction;
+        this.rMax = rMax;
+        this.width = width;
+        this.height = height;
+        this.kernel = kernel;
+        this.floatKernel = floatKernel;
+        this.ranges = grid.newRangeBuffer();
+        this.floatAttraction = new float[attraction.length][];
+        if (floatKernel != null) {
+            for (int i = 0; i < attraction.length; i++) {
+                floatAttraction[i] = new float[attraction[i].length];
+                for (int j = 0; j < attraction[i].length; j++) {
+                    floatAttraction[i][j] = (float) attraction[i][j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Sums the forces of all neighbors on a particle
+     * The result is read with getTotalForcex and getTotalForcey
+     * @param index index of the particle
+     */
+    void accumulate(int index) {
+        totalForcex = 0;
+        totalForcey = 0;
+        x = particles.getX(index);
+        y = particles.getY(index);
+        currentAttraction = attraction[particles.getGroup(index)];
+        neighborCount = 0;
+        if (floatKernel != null) {
+            accumulateFloatRanges(index);
+        } else if (kernel == null) {
+            grid.forEachNeighbor(index, this);
+        } else {
+            accumulateRanges(index);
+        }
+    }
+
+    /**
+     * Hands the neighborhood to the kernel, range by range of the cell sorted arrays
+     * The particle itself is in the ranges, the kernel skips it because its distance is 0
+     * @param index index of the particle
+     */
+    private void accumulateRanges(int index) {
+        double[] sortedX = grid.getSortedX();
+        double[] sortedY = grid.getSortedY();
+        int[] sortedGroup = grid.getSortedGroup();
+        total[0] = 0;
+        total[1] = 0;
+        int rangeCount = grid.getNeighborRanges(index, ranges);
+        neighborCount = -1; // the particle itself is in the ranges
+        for (int r = 0; r < rangeCount; r++) {
+            neighborCount += ranges[2 * r + 1] - ranges[2 * r];
+            kernel.accumulate(x, y, currentAttraction, sortedX, sortedY, sortedGroup, ranges[2 * r], ranges[2 * r + 1],
+                    rMax, width, height, total);
+        }
+        totalForcex = total[0];
+        totalForcey = total[1];
+    }
+
+    /**
+     * Hands the neighborhood to the float kernel, range by range of the 32 bit copies of the grid
+     * @param index index of the particle
+     */
+    private void accumulateFloatRanges(int index) {
+        boolean fixed = grid.getPrecision() == Precision.FIXED;
+        float[] rowAttraction = floatAttraction[particles.getGroup(index)];
+        int fixedX = Precision.toFixed(x, width);
+        int fixedY = Precision.toFixed(y, height);
+        total[0] = 0;
+        total[1] = 0;
+        int rangeCount = grid.getNeighborRanges(index, ranges);
+        neighborCount = -1; // the particle itself is in the ranges
+        for (int r = 0; r < rangeCount; r++) {
+            neighborCount += ranges[2 * r + 1] - ranges[2 * r];
+            if (fixed) {
+                floatKernel.accumulateFixed(fixedX, fixedY, rowAttraction, grid.getSortedFixedX(), grid.getSortedFixedY(),
+                        grid.getSortedGroup(), ranges[2 * r], ranges[2 * r + 1], (float) rMax, width, height, total);
+            } else {
+                floatKernel.accumulate((float) x, (float) y, rowAttraction, grid.getSortedFloatX(), grid.getSortedFloatY(),
+                        grid.getSortedGroup(), ranges[2 * r], ranges[2 * r + 1], (float) rMax, width, height, total);
+            }
+        }
+        totalForcex = total[0];
+        totalForcey = total[1];
+    }
+
+    /**
+     * Sums the forces of the neighbors in the Verlet list of a particle
+     * The result is read with getTotalForcex and getTotalForcey
+     * @param index index of the particle
+     * @param list Verlet lists which are valid for the current positions
+     */
+    void accumulate(int index, VerletList list) {
+        totalForcex = 0;
+        totalForcey = 0;
+        x = particles.getX(index);
+        y = particles.getY(index);
+        currentAttraction = attraction[particles.getGroup(index)];
+        int[] neighbors = list.getNeighbors();
+        int from = list.getListStart(index);
+        int to = list.getListStart(index + 1);
+        neighborCount = to - from;
+        if (kernel == null) {
+            for (int k = from; k < to; k++) {
+                visit(neighbors[k]);
+            }
+            return;
+        }
+
+        int length = to - from;
+        if (listX.length < length) {
+            listX = new double[length + length / 4];
+            listY = new double[listX.length];
+            listGroup = new int[listX.length];
+        }
+        for (int k = 0; k < length; k++) {
+            int neighbor = neighbors[from + k];
+            listX[k] = particles.getX(neighbor);
+            listY[k] = particles.getY(neighbor);
+            listGroup[k] = particles.getGroup(neighbor);
+        }
+        total[0] = 0;
+        total[1] = 0;
+        kernel.accumulate(x, y, currentAttraction, listX, listY, listGroup, 0, length, rMax, width, height, total);
+        totalForcex = total[0];
+        totalForcey = total[1];
+    }
+
+    @Override
+    public void visit(int neighbor) {
+        neighborCount++;
+        calculateDistance(x, y, particles.getX(neighbor), particles.getY(neighbor), currentAttraction[particles.getGroup(neighbor)]);
+    }
+
+    /**
+     * Calcualtes the distance from to points to eachother
+     * and adds the resulting force to the total force
+     * @param x1 1st point x-coordinate
+     * @param y1 1st point y-coordinate
+     * @param x2 2nd point x-coordinate
+     * @param y2 2nd point y-coordinate
+     * @param a attraction value
+     */
+    void calculateDistance(double x1, double y1, double x2, double y2, double a) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        dx = checkdx(dx);
+        dy = checkdy(dy);
+        double squared = dx * dx + dy * dy;
+        if (squared > 0 && squared < rMax * rMax) { // no square root for the neighbors outside rMax
+            double distance = Math.sqrt(squared);
+            double F = ParticleManager.force(distance/rMax, a);
+            totalForcex += dx/distance * F;
+            totalForcey += dy/distance * F;
+        }
+    }
+
+    /**
+     * Checks if a distance in the x direction really is the shortest distance
+     */
+    private double checkdx(double dx) {
+        if (dx > 0.5 * width) {
+            dx -= width;
+        }
+        if (dx < -0.5 * width) {
+            dx += width;
+        }
+        return dx;
+    }
+
+    /**
+     * Checks if a distance in the y direction really is the shortest distance
+     */
+    private double checkdy(double dy) {
+        if (dy > 0.5 * height) {
+            dy -= height;
+        }
+        if (dy < -0.5 * height) {
+            dy += height;
+        }
+        return dy;
+    }
+
+    /**
+     * Sets the total force to 0, before summing pairs with calculateDistance
+     */
+    void clearTotals() {
+        totalForcex = 0;
+        totalForcey = 0;
+    }
+
+    double getTotalForcex() {
+        return totalForcex;
+    }
+
+    double getTotalForcey() {
+        return totalForcey;
+    }
+
+    /**
+     * Returns how many neighbors the last accumulate looked at
+     * For the grid these are all particles in the stencil, for a Verlet list the length of the list
+     */
+    int getNeighborCount() {
+        return neighborCount;
+    }
+}
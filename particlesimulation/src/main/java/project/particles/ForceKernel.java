@@ -0,0 +1,26 @@
+package project.particles;
+
+/**
+ * Calculates the total force of a batch of neighbors on one particle
+ * The neighbors are a range of parallel arrays, so the kernel can work on several neighbors at once
+ */
+interface ForceKernel {
+    /**
+     * Adds the force of every neighbor in the range to the total force
+     * A neighbor at distance 0 (the particle itself) adds no force
+     * @param x x-coordinate of the particle
+     * @param y y-coordinate of the particle
+     * @param attraction attraction of the particle to every group
+     * @param bx x-coordinates of the neighbors
+     * @param by y-coordinates of the neighbors
+     * @param bg groups of the neighbors
+     * @param from first neighbor (inclusive)
+     * @param to last neighbor (exclusive)
+     * @param rMax maximum distance of interaction
+     * @param width width of the world
+     * @param height height of the world
+     * @param total total force, total[0] in the x direction and total[1] in the y direction
+     */
+    void accumulate(double x, double y, double[] attraction, double[] bx, double[] by, int[] bg, int from, int to,
+            double rMax, int width, int height, double[] total);
+}
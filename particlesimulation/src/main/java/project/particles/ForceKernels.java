@@ -0,0 +1,125 @@
+package project.particles;
+
+import java.util.Random;
+
+/**
+ * Selects the force kernel
+ * The vector kernels are only used when the jdk.incubator.vector module is loaded
+ * (java --add-modules jdk.incubator.vector). ForceKernelsTest checks that they match the scalar kernels
+ */
+final class ForceKernels {
+
+    private static final boolean VECTOR_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private ForceKernels() {
+
+    }
+
+    /**
+     * Returns the vector kernel if it can be used
+     * @return vector kernel or null if the vector module is not loaded
+     */
+    static ForceKernel vector() {
+        return VECTOR_AVAILABLE ? new VectorForceKernel() : null;
+    }
+
+    /**
+     * Returns the vector pair kernel if it can be used
+     * @return vector pair kernel or null if the vector module is not loaded
+     */
+    static PairKernel vectorPair() {
+        return VECTOR_AVAILABLE ? new VectorPairKernel() : null;
+    }
+
+    /**
+     * Returns the float vector kernel if it can be used
+     * @return float vector kernel or null if the vector module is not loaded
+     */
+    static FloatForceKernel vectorFloat() {
+        return VECTOR_AVAILABLE ? new VectorFloatForceKernel() : null;
+    }
+
+    /**
+     * Wraps a float kernel as a double kernel, to compare it with the other kernels
+     * Converts the positions of every call to the precision, so it is only meant for the error reports and tests
+     * @param kernel float kernel
+     * @param precision FLOAT to call accumulate, FIXED to call accumulateFixed
+     * @return kernel on double positions
+     */
+    static ForceKernel asForceKernel(FloatForceKernel kernel, Precision precision) {
+        return (x, y, attraction, bx, by, bg, from, to, rMax, width, height, total) -> {
+            float[] floatAttraction = new float[attraction.length];
+            for (int i = 0; i < attraction.length; i++) {
+                floatAttraction[i] = (float) attraction[i];
+            }
+            if (precision == Precision.FIXED) {
+                int[] fixedX = new int[to];
+                int[] fixedY = new int[to];
+                for (int i = from; i < to; i++) {
+                    fixedX[i] = Precision.toFixed(bx[i], width);
+                    fixedY[i] = Precision.toFixed(by[i], height);
+                }
+                kernel.accumulateFixed(Precision.toFixed(x, width), Precision.toFixed(y, height), floatAttraction,
+                        fixedX, fixedY, bg, from, to, (float) rMax, width, height, total);
+            } else {
+                float[] floatX = new float[to];
+                float[] floatY = new float[to];
+                for (int i = from; i < to; i++) {
+                    floatX[i] = (float) bx[i];
+                    floatY[i] = (float) by[i];
+                }
+                kernel.accumulate((float) x, (float) y, floatAttraction, floatX, floatY, bg, from, to, (float) rMax,
+                        width, height, total);
+            }
+        };
+    }
+
+    /**
+     * Returns the largest difference of two kernels on random batches of neighbors
+     * The difference of the total force of a batch is divided by the number of neighbors in the batch
+     * @param kernel kernel to check
+     * @param reference reference kernel
+     * @return largest difference per neighbor
+     */
+    static double maxDifference(ForceKernel kernel, ForceKernel reference) {
+        Random random = new Random(1);
+        int width = 1800;
+        int height = 1200;
+        double rMax = 172;
+        double[] bx = new double[257];
+        double[] by = new double[257];
+        int[] bg = new int[257];
+        double[] attraction = new double[6];
+        double[] expected = new double[2];
+        double[] actual = new double[2];
+        double max = 0;
+
+        for (int batch = 0; batch < 64; batch++) {
+            double x = random.nextDouble() * width;
+            double y = random.nextDouble() * height;
+            int from = random.nextInt(8);
+            int n = random.nextInt(bx.length + 1 - from);
+            for (int i = 0; i < attraction.length; i++) {
+                attraction[i] = random.nextInt(-5, 6) / 5.0;
+            }
+            for (int i = from; i < from + n; i++) {
+                bx[i] = (x + (random.nextDouble() * 2 - 1) * 1.2 * rMax + width) % width;
+                by[i] = (y + (random.nextDouble() * 2 - 1) * 1.2 * rMax + height) % height;
+                bg[i] = random.nextInt(attraction.length);
+            }
+            if (n > 0) {
+                bx[from] = x; // the particle itself
+                by[from] = y;
+            }
+
+            expected[0] = expected[1] = 0;
+            actual[0] = actual[1] = 0;
+            reference.accumulate(x, y, attraction, bx, by, bg, from, from + n, rMax, width, height, expected);
+            kernel.accumulate(x, y, attraction, bx, by, bg, from, from + n, rMax, width, height, actual);
+
+            double scale = Math.max(1.0, n);
+            max = Math.max(max, Math.max(Math.abs(expected[0] - actual[0]), Math.abs(expected[1] - actual[1])) / scale);
+        }
+        return max;
+    }
+}
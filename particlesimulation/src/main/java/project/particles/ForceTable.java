@@ -0,0 +1,98 @@
+package project.particles;
+
+/**
+ * Tabulated force, over the distance relative to rMax
+ * The force of a pair is the repulsion below b plus the attraction value times the attraction shape above b,
+ * so the table of a group pair is the repulsion table plus a times the shape table. Both are stored in one array,
+ * a lookup reads the value and slope of both from the same interval and interpolates linearly.
+ * Because the table is relative to rMax, only the number of intervals and b rebuild it.
+ * The force is linear between 0, b, (1 + b) / 2 and 1, so with intervals which put these on a table point
+ * (a multiple of 10 for b = 0.2) the table is exact up to rounding
+ */
+final class ForceTable {
+
+    // Magic number of the fast inverse square root for doubles
+    private static final long INVERSE_SQRT_MAGIC = 0x5FE6EB50C7B537A9L;
+
+    private final int intervals;
+    private final double b;
+    private final double[] values; // per interval: repulsion, its slope, attraction shape, its slope
+
+    /**
+     * Builds the table
+     * @param intervals number of intervals between distance 0 and rMax
+     * @param b distance (relative to rMax) below which particles always repel
+     */
+    ForceTable(int intervals, double b) {
+        this.intervals = Math.max(1, intervals);
+        this.b = b;
+        // One extra interval of zeros, for a distance which rounds to rMax
+        values = new double[4 * (this.intervals + 1)];
+        for (int k = 0; k < this.intervals; k++) {
+            double d0 = (double) k / this.intervals;
+            double d1 = (double) (k + 1) / this.intervals;
+            double repel0 = ParticleManager.force(d0, 0, b);
+            double repel1 = ParticleManager.force(d1, 0, b);
+            double shape0 = ParticleManager.force(d0, 1, b) - repel0;
+            double shape1 = ParticleManager.force(d1, 1, b) - repel1;
+            values[4 * k] = repel0;
+            values[4 * k + 1] = repel1 - repel0;
+            values[4 * k + 2] = shape0;
+            values[4 * k + 3] = shape1 - shape0;
+        }
+    }
+
+    /**
+     * Returns the force of the table
+     * @param d distance relative to rMax, from 0 up to and including 1
+     * @param a attraction value
+     * @return force, same sign convention as ParticleManager.force
+     */
+    double force(double d, double a) {
+        double t = d * intervals;
+        int k = (int) t;
+        double f = t - k;
+        int base = 4 * k;
+        return values[base] + f * values[base + 1] + a * (values[base + 2] + f * values[base + 3]);
+    }
+
+    int getIntervals() {
+        return intervals;
+    }
+
+    double getB() {
+        return b;
+    }
+
+    /**
+     * Returns the largest difference with the analytic force
+     * Samples the distances from 0 to 1 for the attraction values -1, 0 and 1
+     * (the difference grows linearly with the attraction value, so these bound the other values)
+     * @param samples number of distances
+     * @return largest absolute difference
+     */
+    double maxError(int samples) {
+        double max = 0;
+        for (int s = 0; s < samples; s++) {
+            double d = (s + 0.5) / samples;
+            for (double a = -1; a <= 1; a++) {
+                max = Math.max(max, Math.abs(force(d, a) - ParticleManager.force(d, a, b)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Fast inverse square root, the magic number estimate refined by two Newton steps
+     * The relative error is below 5e-6
+     * @param value positive value
+     * @return about 1 / sqrt(value)
+     */
+    static double inverseSqrt(double value) {
+        double half = 0.5 * value;
+        double y = Double.longBitsToDouble(INVERSE_SQRT_MAGIC - (Double.doubleToRawLongBits(value) >> 1));
+        y = y * (1.5 - half * y * y);
+        y = y * (1.5 - half * y * y);
+        return y;
+    }
+}
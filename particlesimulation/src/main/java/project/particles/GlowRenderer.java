@@ -0,0 +1,280 @@
+package project.particles;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Glow around the particles, added to the pixels of the rasterizer
+ * The glow is a cone of light around every particle which fades out at the glow radius.
+ * The glow of all particles is summed in an accumulation buffer of a quarter of the resolution,
+ * with one pre-blended sprite per color which is cached. The buffer is then scaled up (bilinear)
+ * and added to the pixels once per frame, the channels saturate at 255
+ */
+public class GlowRenderer {
+
+    static final int SCALE = 4; // size of an accumulation pixel in pixels
+    static final double INTENSITY = 15 / 255.0 * 0.95; // brightness in the center of the glow
+    private static final int MAX_SPRITES = 1024;
+    private static final int WEIGHTS = 2 * SCALE; // interpolation weights are in half accumulation pixels
+    private static final int SHIFT = 8 + 2 * Integer.numberOfTrailingZeros(WEIGHTS); // fraction and weights of both directions
+    private static final int MAX_VALUE = 255 << 8; // the channels saturate anyway, also keeps the interpolation in an int
+
+    private int glowRadius = -1;
+    private int spriteSize;
+    private final Map<Integer, int[]> sprites = new HashMap<>();
+
+    // Accumulation buffer, 8 bits of fraction per channel
+    private int bufferWidth;
+    private int bufferHeight;
+    private int[] red = new int[0];
+    private int[] green = new int[0];
+    private int[] blue = new int[0];
+
+    // Two rows of the buffer scaled up to the width of the frame, for the rows above and below a pixel
+    private int[][] upRed = new int[2][0];
+    private int[][] upGreen = new int[2][0];
+    private int[][] upBlue = new int[2][0];
+    private final int[] upRow = new int[2];
+    private final boolean[] upEmpty = new boolean[2];
+
+    // One pixel row of glow per channel, packed and a copy of the pixels
+    private int[] glowRed = new int[0];
+    private int[] glowGreen = new int[0];
+    private int[] glowBlue = new int[0];
+    private int[] glowRow = new int[0];
+    private int[] pixelRow = new int[0];
+
+    /**
+     * Adds the glow of all particles to the pixels
+     * @param particles particles with their colors
+     * @param glowRadius radius of the glow in pixels
+     * @param pixels rgb pixels of the frame, row after row
+     * @param width width of the frame
+     * @param height height of the frame
+     */
+    public void draw(ParticleStore particles, int glowRadius, int[] pixels, int width, int height) {
+        ensureBuffer(width, height);
+        if (glowRadius != this.glowRadius) {
+            this.glowRadius = glowRadius;
+            sprites.clear();
+        }
+        accumulate(particles);
+        compose(pixels, width, height);
+    }
+
+    /**
+     * Makes the accumulation buffer fit the frame and clears it
+     */
+    private void ensureBuffer(int width, int height) {
+        if (upRed[0].length != width) {
+            for (int k = 0; k < 2; k++) {
+                upRed[k] = new int[width];
+                upGreen[k] = new int[width];
+                upBlue[k] = new int[width];
+            }
+            glowRed = new int[width];
+            glowGreen = new int[width];
+            glowBlue = new int[width];
+            glowRow = new int[width];
+            pixelRow = new int[width];
+        }
+        int newWidth = (width + SCALE - 1) / SCALE;
+        int newHeight = (height + SCALE - 1) / SCALE;
+        if (newWidth != bufferWidth || newHeight != bufferHeight) {
+            bufferWidth = newWidth;
+            bufferHeight = newHeight;
+            red = new int[bufferWidth * bufferHeight];
+            green = new int[red.length];
+            blue = new int[red.length];
+        } else {
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+        }
+    }
+
+    /**
+     * Stamps the sprite of every particle into the accumulation buffer
+     */
+    private void accumulate(ParticleStore particles) {
+        int half = spriteSize / 2;
+        int[] sprite = null;
+        int spriteRgb = -1;
+        for (int i = 0; i < particles.size(); i++) {
+            int rgb = particles.getColor(i) & 0xffffff;
+            // Particles of a group are stored together, so the sprite rarely changes
+            if (sprite == null || rgb != spriteRgb) {
+                sprite = getSprite(rgb);
+                spriteRgb = rgb;
+                half = spriteSize / 2;
+            }
+            int cx = (int) Math.floor(particles.getX(i) / SCALE) - half;
+            int cy = (int) Math.floor(particles.getY(i) / SCALE) - half;
+            int fromX = Math.max(0, -cx);
+            int toX = Math.min(spriteSize, bufferWidth - cx);
+            for (int sy = Math.max(0, -cy); sy < Math.min(spriteSize, bufferHeight - cy); sy++) {
+                int offset = (cy + sy) * bufferWidth + cx;
+                int spriteOffset = 3 * sy * spriteSize;
+                for (int sx = fromX; sx < toX; sx++) {
+                    int s = spriteOffset + 3 * sx;
+                    red[offset + sx] += sprite[s];
+                    green[offset + sx] += sprite[s + 1];
+                    blue[offset + sx] += sprite[s + 2];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached sprite of a color, made when it is not cached yet
+     * @param rgb color of the glow
+     * @return red, green and blue per sprite pixel, 8 bits of fraction
+     */
+    private int[] getSprite(int rgb) {
+        int[] sprite = sprites.get(rgb);
+        if (sprite != null) {
+            return sprite;
+        }
+        if (sprites.size() >= MAX_SPRITES) {
+            sprites.clear(); // Many colors, like with the speed coloring
+        }
+
+        double radius = (double) glowRadius / SCALE;
+        int half = (int) Math.ceil(radius);
+        spriteSize = 2 * half + 1;
+        sprite = new int[3 * spriteSize * spriteSize];
+        int r = (rgb >> 16) & 0xff;
+        int g = (rgb >> 8) & 0xff;
+        int b = rgb & 0xff;
+        for (int sy = 0; sy < spriteSize; sy++) {
+            for (int sx = 0; sx < spriteSize; sx++) {
+                double d = Math.hypot(sx - half, sy - half) / radius;
+                double a = d < 1 ? INTENSITY * (1 - d) * 256 : 0; // Same fall off as the old radial gradient
+                int s = 3 * (sy * spriteSize + sx);
+                sprite[s] = (int) (r * a);
+                sprite[s + 1] = (int) (g * a);
+                sprite[s + 2] = (int) (b * a);
+            }
+        }
+        sprites.put(rgb, sprite);
+        return sprite;
+    }
+
+    /**
+     * Scales the accumulation buffer up to the frame and adds it to the pixels
+     * Bilinear interpolation between the centers of the accumulation pixels:
+     * the rows of the buffer are first scaled up horizontally, then every pixel row is
+     * interpolated between the two rows around it.
+     * The loops of a pixel row are kept simple, with every array at the same index, so the JIT vectorizes them
+     */
+    private void compose(int[] pixels, int width, int height) {
+        upRow[0] = -1;
+        upRow[1] = -1;
+        for (int y = 0; y < height; y++) {
+            // The center of accumulation row r is at pixel r * SCALE + SCALE / 2
+            int fy = 2 * y + 1 - SCALE; // position in half pixels from the center of the first row
+            int row0 = Math.max(0, Math.floorDiv(fy, WEIGHTS));
+            int row1 = Math.min(bufferHeight - 1, row0 + 1);
+            int wy = Math.min(WEIGHTS, Math.max(0, fy - WEIGHTS * row0));
+            int k0 = scaleRow(row0, width);
+            int k1 = scaleRow(row1, width);
+            if (upEmpty[k0] && upEmpty[k1]) {
+                continue;
+            }
+
+            int w0 = WEIGHTS - wy;
+            interpolate(glowRed, upRed[k0], upRed[k1], w0, wy, width);
+            interpolate(glowGreen, upGreen[k0], upGreen[k1], w0, wy, width);
+            interpolate(glowBlue, upBlue[k0], upBlue[k1], w0, wy, width);
+            for (int x = 0; x < width; x++) {
+                glowRow[x] = (glowRed[x] << 16) | (glowGreen[x] << 8) | glowBlue[x];
+            }
+
+            // Added on a copy of the row, adding in place at an offset is not vectorized
+            int offset = y * width;
+            System.arraycopy(pixels, offset, pixelRow, 0, width);
+            for (int x = 0; x < width; x++) {
+                pixelRow[x] = addSaturated(pixelRow[x], glowRow[x]);
+            }
+            System.arraycopy(pixelRow, 0, pixels, offset, width);
+        }
+    }
+
+    /**
+     * Interpolates one channel between two scaled up rows
+     */
+    private static void interpolate(int[] result, int[] row0, int[] row1, int w0, int w1, int width) {
+        for (int x = 0; x < width; x++) {
+            result[x] = (row0[x] * w0 + row1[x] * w1) >> SHIFT;
+        }
+    }
+
+    /**
+     * Makes sure one of the two scaled up rows holds a row of the buffer
+     * @param row row of the accumulation buffer
+     * @param width width of the frame
+     * @return 0 or 1, which scaled up row holds it
+     */
+    private int scaleRow(int row, int width) {
+        if (upRow[0] == row) {
+            return 0;
+        }
+        if (upRow[1] == row) {
+            return 1;
+        }
+        // Rows only go down, so the lower numbered row is not needed anymore
+        int k = upRow[0] < upRow[1] ? 0 : 1;
+        upRow[k] = row;
+
+        int[] red = upRed[k];
+        int[] green = upGreen[k];
+        int[] blue = upBlue[k];
+        int offset = row * bufferWidth;
+        boolean empty = true;
+        for (int c = 0; c < bufferWidth; c++) {
+            int r0 = Math.min(this.red[offset + c], MAX_VALUE);
+            int g0 = Math.min(this.green[offset + c], MAX_VALUE);
+            int b0 = Math.min(this.blue[offset + c], MAX_VALUE);
+            empty &= (r0 | g0 | b0) == 0;
+            // The last column is its own right neighbor
+            int next = Math.min(c + 1, bufferWidth - 1);
+            int dr = Math.min(this.red[offset + next], MAX_VALUE) - r0;
+            int dg = Math.min(this.green[offset + next], MAX_VALUE) - g0;
+            int db = Math.min(this.blue[offset + next], MAX_VALUE) - b0;
+
+            // Pixel c * SCALE + SCALE / 2 + j is between the centers of column c and c + 1
+            int start = c * SCALE + SCALE / 2;
+            if (c == 0) {
+                for (int x = 0; x < Math.min(start, width); x++) {
+                    red[x] = r0 * WEIGHTS;
+                    green[x] = g0 * WEIGHTS;
+                    blue[x] = b0 * WEIGHTS;
+                }
+            }
+            for (int j = 0; j < SCALE && start + j < width; j++) {
+                int wx = 2 * j + 1;
+                red[start + j] = r0 * WEIGHTS + dr * wx;
+                green[start + j] = g0 * WEIGHTS + dg * wx;
+                blue[start + j] = b0 * WEIGHTS + db * wx;
+            }
+        }
+        upEmpty[k] = empty;
+        return k;
+    }
+
+    /**
+     * Adds two rgb colors, every channel saturates at 255
+     * All three channels at once: the lower 7 bits are added without carry into the next channel,
+     * the top bit of every channel is added separately and a channel which overflowed is set to 255
+     * @param a rgb color
+     * @param b rgb color
+     * @return sum of the colors
+     */
+    static int addSaturated(int a, int b) {
+        int low = (a & 0x7f7f7f) + (b & 0x7f7f7f);
+        int top = (a ^ b) & 0x808080;
+        int overflow = (a & b & 0x808080) | (top & low);
+        return (low ^ top) | ((overflow >>> 7) * 0xff);
+    }
+}
@@ -2,79 +2,409 @@ package project.particles;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.util.ArrayList;
-import java.util.HashSet;
-
-import project.main.Frame;
+import java.util.Arrays;
 
 public class Grid {
 
-    private double cellSize;
+    private double rMax;
+    private int subdivision = 1;
+    private double cellWidth;
+    private double cellHeight;
     private int cols;
     private int rows;
-    private ArrayList<HashSet<Particle>> cells;
+    private ParticleStore store;
+
+    // Circular stencil, a cell sees the cells (col + i, row + j) with |i| <= stencilWidth[j + reachY]
+    private int reachY;
+    private int[] stencilWidth = new int[0];
+
+    private int[] cellStart = new int[1]; // prefix sum, particles of cell c are sorted[cellStart[c]] until sorted[cellStart[c + 1]]
+    private int[] cellFill = new int[0];
+    private int[] cellOf = new int[0];
+    private int[] sorted = new int[0];
+
+    // Copies of the positions and groups in the same order as sorted, so a cell is a contiguous range
+    private double[] sortedX = new double[0];
+    private double[] sortedY = new double[0];
+    private int[] sortedGroup = new int[0];
+
+    // Positions in the 32 bit precisions, only the copies of the current precision are filled
+    private Precision precision = Precision.DOUBLE;
+    private float[] sortedFloatX = new float[0];
+    private float[] sortedFloatY = new float[0];
+    private int[] sortedFixedX = new int[0];
+    private int[] sortedFixedY = new int[0];
+
+    /**
+     * Grid for spatial partitioning
+     * Flat cell list built with a counting sort,
+     * the arrays are reused each time the grid is rebuilt
+     */
+    public Grid() {
+
+    }
 
     /**
      * Grid contructor for spatial partitioning
-     * @param cellSize size of a gridcell
+     * @param rMax maximum distance of interaction
+     * @param subdivision number of cells per rMax
+     * @param width width of the world
+     * @param height height of the world
+     * @param store particles to put in the grid
      */
-    public Grid(double cellSize, ArrayList<Particle> particles) {
-        this.cols = (int) Math.ceil(Frame.width / cellSize);
-        this.rows = (int) Math.ceil(Frame.height / cellSize);
-        this.cellSize = cellSize;
+    public Grid(double rMax, int subdivision, int width, int height, ParticleStore store) {
+        build(rMax, subdivision, width, height, store);
+    }
+
+    /**
+     * (Re)builds the grid with a counting sort of the particles on their cell
+     * The cells are at least rMax / subdivision in size and divide the world exactly,
+     * so the stencil also reaches far enough across the periodic border.
+     * Only allocates when the number of cells or particles grew, the cell arrays get some room
+     * so changing rMax with the keys does not allocate every time
+     * @param rMax maximum distance of interaction
+     * @param subdivision number of cells per rMax, 1 gives the 3x3 stencil
+     * @param width width of the world
+     * @param height height of the world
+     * @param store particles to put in the grid
+     */
+    public final void build(double rMax, int subdivision, int width, int height, ParticleStore store) {
+        subdivision = Math.max(1, subdivision);
+        int newCols = Math.max(1, (int) (width * subdivision / rMax));
+        int newRows = Math.max(1, (int) (height * subdivision / rMax));
+        boolean stencilChanged = rMax != this.rMax || subdivision != this.subdivision
+                || newCols != cols || newRows != rows || stencilWidth.length == 0;
+        this.rMax = rMax;
+        this.subdivision = subdivision;
+        this.cols = newCols;
+        this.rows = newRows;
+        this.cellWidth = (double) width / cols;
+        this.cellHeight = (double) height / rows;
+        this.store = store;
+        if (stencilChanged) {
+            updateStencil();
+        }
 
-        cells = new ArrayList<>(cols * rows);
-        for (int i = 0; i < cols * rows; i++) {
-            cells.add(new HashSet<>());
+        int cells = cols * rows;
+        int n = store.size();
+        if (cellStart.length < cells + 1) {
+            cellStart = new int[cells + cells / 4 + 1];
+            cellFill = new int[cells + cells / 4];
         }
+        if (cellOf.length < n) {
+            cellOf = new int[n];
+            sorted = new int[n];
+            sortedGroup = new int[n];
+        }
+        allocatePositions(n);
+
+        // Count the particles per cell
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+        for (int i = 0; i < n; i++) {
+            int cellIndex = precision == Precision.FIXED ? getFixedCellIndex(i, width, height) : getCellIndex(i);
+            cellOf[i] = cellIndex;
+            cellStart[cellIndex + 1]++;
+        }
+
+        // Prefix sum gives the start of every cell
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+
+        // Place the particles, in index order within a cell
+        System.arraycopy(cellStart, 0, cellFill, 0, cells);
+        for (int i = 0; i < n; i++) {
+            int position = cellFill[cellOf[i]]++;
+            sorted[position] = i;
+            switch (precision) {
+                case FLOAT:
+                    sortedFloatX[position] = (float) store.getX(i);
+                    sortedFloatY[position] = (float) store.getY(i);
+                    break;
+                case FIXED:
+                    sortedFixedX[position] = Precision.toFixed(store.getX(i), width);
+                    sortedFixedY[position] = Precision.toFixed(store.getY(i), height);
+                    break;
+                default:
+                    sortedX[position] = store.getX(i);
+                    sortedY[position] = store.getY(i);
+            }
+            sortedGroup[position] = store.getGroup(i);
+        }
+    }
+
+    /**
+     * Makes the sorted copies of the positions in the current precision large enough
+     * The copies of the other precisions are not kept up to date
+     * @param n number of particles
+     */
+    private void allocatePositions(int n) {
+        switch (precision) {
+            case FLOAT:
+                if (sortedFloatX.length < n) {
+                    sortedFloatX = new float[n];
+                    sortedFloatY = new float[n];
+                }
+                break;
+            case FIXED:
+                if (sortedFixedX.length < n) {
+                    sortedFixedX = new int[n];
+                    sortedFixedY = new int[n];
+                }
+                break;
+            default:
+                if (sortedX.length < n) {
+                    sortedX = new double[n];
+                    sortedY = new double[n];
+                }
+        }
+    }
+
+    /**
+     * Calculates the circular stencil
+     * A cell i columns and j rows away is in the stencil when its closest point can be within rMax
+     */
+    private void updateStencil() {
+        int reachX = Math.max(1, (int) Math.ceil(rMax / cellWidth));
+        reachY = Math.max(1, (int) Math.ceil(rMax / cellHeight));
+        if (stencilWidth.length != 2 * reachY + 1) {
+            stencilWidth = new int[2 * reachY + 1];
+        }
+        for (int j = -reachY; j <= reachY; j++) {
+            double gapY = Math.max(0, Math.abs(j) - 1) * cellHeight;
+            int width = 0;
+            for (int i = 1; i <= reachX; i++) {
+                double gapX = (i - 1) * cellWidth;
+                if (gapX * gapX + gapY * gapY < rMax * rMax) {
+                    width = i;
+                }
+            }
+            stencilWidth[j + reachY] = width;
+        }
+    }
+
+    /**
+     * Visits the neighbors of a particle
+     * Visits the particles inside the stencil around the cell of the particle, except the particle itself
+     * @param index index of the particle to get neighbors from
+     * @param visitor callback which gets every neighbor index
+     */
+    public void forEachNeighbor(int index, NeighborVisitor visitor) {
+        int cellIndex = cellOf[index];
+        int col = cellIndex % cols;
+        int row = cellIndex / cols;
+
+        for (int j = firstStencilRow(); j <= lastStencilRow(); j++) {
+            int rowStart = ((row + j + rows) % rows) * cols; // Wrap around for rows
+            int width = stencilWidth[j + reachY];
+            int first = col - width;
+            int last = col + width;
+            if (2 * width + 1 >= cols) { // The stencil covers the whole row, take each column once
+                first = 0;
+                last = cols - 1;
+            }
+            for (int i = first; i <= last; i++) {
+                int cell = rowStart + (i + cols) % cols; // Wrap around for columns
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int neighbor = sorted[k];
+                    if (neighbor != index) {
+                        visitor.visit(neighbor);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Cursor alternative to forEachNeighbor
+     * Gives the neighborhood of a particle as ranges in the sorted arrays.
+     * Adjacent cells in a row are stored after eachother, so without wrapping a row of the stencil is one range.
+     * When the stencil is wider or higher than the grid every cell is still given only once.
+     * The ranges include the particle itself
+     * @param index index of the particle
+     * @param ranges array from newRangeBuffer, filled with start (inclusive) and end (exclusive) pairs
+     * @return number of ranges
+     */
+    public int getNeighborRanges(int index, int[] ranges) {
+        int cellIndex = cellOf[index];
+        int col = cellIndex % cols;
+        int row = cellIndex / cols;
+        int count = 0;
+
+        for (int j = firstStencilRow(); j <= lastStencilRow(); j++) {
+            int rowStart = ((row + j + rows) % rows) * cols; // Wrap around for rows
+            int width = stencilWidth[j + reachY];
+            count = addRowRanges(rowStart, col - width, col + width, ranges, count);
+        }
+        return count;
+    }
+
+    /**
+     * First row offset of the stencil
+     * When the stencil is higher than the grid it covers every row, each row is then taken once
+     */
+    private int firstStencilRow() {
+        return 2 * reachY + 1 > rows ? -(rows / 2) : -reachY;
+    }
+
+    private int lastStencilRow() {
+        return firstStencilRow() + Math.min(rows, 2 * reachY + 1) - 1;
+    }
 
-        for (Particle particle : particles) {
-            addParticle(particle);
+    /**
+     * Adds the columns first until last (inclusive) of a row as at most two ranges
+     * @return new number of ranges
+     */
+    private int addRowRanges(int rowStart, int first, int last, int[] ranges, int count) {
+        if (last - first + 1 >= cols) {
+            first = 0;
+            last = cols - 1;
+        }
+        if (first < 0) { // Wrap around for columns
+            count = addRange(rowStart + first + cols, rowStart + cols - 1, ranges, count);
+            first = 0;
+        } else if (last >= cols) {
+            count = addRange(rowStart, rowStart + last - cols, ranges, count);
+            last = cols - 1;
         }
+        return addRange(rowStart + first, rowStart + last, ranges, count);
+    }
+
+    /**
+     * Adds the cells first until last (inclusive) as one range
+     * @return new number of ranges
+     */
+    private int addRange(int firstCell, int lastCell, int[] ranges, int count) {
+        ranges[2 * count] = cellStart[firstCell];
+        ranges[2 * count + 1] = cellStart[lastCell + 1];
+        return count + 1;
     }
 
     /**
-     * Adds a particle to a gridcell based on its position
-     * @param particle particle to be added to the grid
+     * Returns an array which fits the ranges of getNeighborRanges
+     * Stays large enough until the subdivision or rMax changes
+     * @return new range array
      */
-    public void addParticle(Particle particle) {
-        int cellIndex = getCellIndex(particle);
-        cells.get(cellIndex).add(particle);
+    public int[] newRangeBuffer() {
+        return new int[4 * (2 * reachY + 1)];
     }
 
     /**
-     * Returns the neighbors of a particle
-     * First gets the cell and adjacent cells,
-     * then retrieves the particles inside these cells
-     * @param particle particle to get neighbors from 
-     * @return Arraylist of neighbor particles
+     * Returns where a cell starts in the sorted arrays, getCellStart(cell + 1) is where it ends
+     * @param cell cell index
+     * @return position of the first particle of the cell
      */
-    public ArrayList<Particle> getNeighbors(Particle particle) {
-        ArrayList<Particle> neighbors = new ArrayList<>();
-        int cellIndex = getCellIndex(particle);
+    int getCellStart(int cell) {
+        return cellStart[cell];
+    }
+
+    /**
+     * Returns how many columns the stencil reaches to each side in a row
+     * @param j row offset, from -getReachY() to getReachY()
+     * @return number of columns to the left and to the right
+     */
+    int getStencilWidth(int j) {
+        return stencilWidth[j + reachY];
+    }
+
+    // Particles in cell order, only valid until the next build
+    int[] getSortedIndex() {
+        return sorted;
+    }
+
+    double[] getSortedX() {
+        return sortedX;
+    }
+
+    double[] getSortedY() {
+        return sortedY;
+    }
+
+    int[] getSortedGroup() {
+        return sortedGroup;
+    }
+
+    float[] getSortedFloatX() {
+        return sortedFloatX;
+    }
+
+    float[] getSortedFloatY() {
+        return sortedFloatY;
+    }
+
+    int[] getSortedFixedX() {
+        return sortedFixedX;
+    }
+
+    int[] getSortedFixedY() {
+        return sortedFixedY;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets the precision of the sorted copies of the positions, used from the next build
+     * The double copies (getSortedX and getSortedY) are only filled with the DOUBLE precision
+     * @param precision precision of the positions
+     */
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+    }
+
+    /**
+     * Counts the neighbors of a particle without visiting them
+     * @param index index of the particle
+     * @return number of particles in the stencil around the cell, the particle itself excluded
+     */
+    public int countNeighbors(int index) {
+        int cellIndex = cellOf[index];
         int col = cellIndex % cols;
         int row = cellIndex / cols;
-    
-        for (int i = col - 1; i <= col + 1; i++) {
-            for (int j = row - 1; j <= row + 1; j++) {
-                int wrappedI = (i + cols) % cols; // Wrap around for columns
-                int wrappedJ = (j + rows) % rows; // Wrap around for rows
-                neighbors.addAll(cells.get(wrappedJ * cols + wrappedI));
+        int count = -1;
+
+        for (int j = firstStencilRow(); j <= lastStencilRow(); j++) {
+            int rowStart = ((row + j + rows) % rows) * cols; // Wrap around for rows
+            int width = stencilWidth[j + reachY];
+            if (2 * width + 1 >= cols) {
+                count += cellStart[rowStart + cols] - cellStart[rowStart];
+            } else {
+                for (int i = col - width; i <= col + width; i++) {
+                    int cell = rowStart + (i + cols) % cols; // Wrap around for columns
+                    count += cellStart[cell + 1] - cellStart[cell];
+                }
             }
         }
-        // Remove the central particle itself if it was added
-        neighbors.remove(particle);
-        return neighbors;
+        return count;
     }
-    
+
     /**
      * Returns the index of a cell of the particle
-     * @param particle particle which cell index is returned
+     * Positions outside the frame are clamped to the border cells
+     * @param index index of the particle which cell index is returned
      * @return cell index of particle
      */
-    private int getCellIndex(Particle particle) {
-        int col = (int) (particle.getX() / cellSize);
-        int row = (int) (particle.getY() / cellSize);
+    private int getCellIndex(int index) {
+        int col = (int) (store.getX(index) / cellWidth);
+        int row = (int) (store.getY(index) / cellHeight);
+        col = Math.min(Math.max(col, 0), cols - 1);
+        row = Math.min(Math.max(row, 0), rows - 1);
+        return row * cols + col;
+    }
+
+    /**
+     * Returns the index of the cell of the particle from its fixed point position
+     * The cells divide the world exactly, so the column is the fixed point position times
+     * the number of columns, shifted back by 32 bits
+     * @param index index of the particle
+     * @param width width of the world
+     * @param height height of the world
+     * @return cell index of the particle
+     */
+    private int getFixedCellIndex(int index, int width, int height) {
+        int col = Precision.fixedCell(Precision.toFixed(store.getX(index), width), cols);
+        int row = Precision.fixedCell(Precision.toFixed(store.getY(index), height), rows);
         return row * cols + col;
     }
 
@@ -86,9 +416,34 @@ public class Grid {
         for (int i = 0; i < cols; i++) {
             for (int j = 0; j < rows; j++) {
                 g.setColor(Color.white);
-                g.drawRect((int) (i*cellSize), (int) (j*cellSize), (int) cellSize, (int) cellSize);
+                g.drawRect((int) (i*cellWidth), (int) (j*cellHeight), (int) cellWidth, (int) cellHeight);
             }
         }
     }
-}
 
+
+    // Getters
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public double getCellWidth() {
+        return cellWidth;
+    }
+
+    public double getCellHeight() {
+        return cellHeight;
+    }
+
+    public int getSubdivision() {
+        return subdivision;
+    }
+
+    public int getReachY() {
+        return reachY;
+    }
+}
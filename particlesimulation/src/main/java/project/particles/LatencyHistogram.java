@@ -0,0 +1,123 @@
+package project.particles;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds, with buckets of at most 12.5% wide
+ * Values below 16 ns have their own bucket, above that every power of two is split in 8 buckets.
+ * Any thread can record, drain takes the counts since the last drain without losing values
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int LINEAR = 2 * SUB_BUCKETS; // values below this have their own bucket
+    private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Adds a duration
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(nanos));
+        if (nanos > max.get()) {
+            max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * Returns the bucket of a value
+     */
+    static int bucket(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // 4 or more
+        int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value of a bucket
+     */
+    static long bucketEnd(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+    }
+
+    /**
+     * Takes the values recorded since the last drain and empties the histogram
+     * @return count, percentiles and maximum of the taken values
+     */
+    public Stats drain() {
+        long[] taken = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            taken[i] = counts.getAndSet(i, 0);
+            count += taken[i];
+        }
+        long maximum = max.getAndSet(0);
+        return new Stats(count, percentile(taken, count, 0.50, maximum), percentile(taken, count, 0.99, maximum), maximum);
+    }
+
+    /**
+     * Returns the end of the bucket which holds the percentile, never more than the maximum
+     */
+    private static long percentile(long[] taken, long count, double fraction, long maximum) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < taken.length; i++) {
+            seen += taken[i];
+            if (seen >= rank) {
+                return Math.min(bucketEnd(i), maximum);
+            }
+        }
+        return maximum;
+    }
+
+    /**
+     * Summary of drained values, all durations in nanoseconds
+     */
+    public static final class Stats {
+        public static final Stats EMPTY = new Stats(0, 0, 0, 0);
+
+        private final long count;
+        private final long p50;
+        private final long p99;
+        private final long max;
+
+        Stats(long count, long p50, long p99, long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package project.particles;
+
+import java.util.Arrays;
+
+/**
+ * Particle-mesh approximation of the forces, for an rMax which is a large part of the world
+ * The force of a pair is the repulsion below rMax * FORCE_B, which is the same for every group, plus the attraction
+ * value times the shape of the force between rMax * FORCE_B and rMax.
+ * The repulsion is short range, it is calculated exactly on a grid of cells of rMax * FORCE_B.
+ * The shape is long range but smooth, the force on a particle of group t at x is the sum over the groups g of
+ * attraction[t][g] times the shape field of group g at x. These fields are convolutions of the density of the
+ * particles with the shape as a function of the offset, which on the periodic mesh are products in the Fourier domain.
+ *
+ * The particles are spread on the mesh and read back with cloud in cell weights. Spreading and reading back
+ * the same way with a force which is antisymmetric on the mesh gives no force of a particle on itself.
+ * Per tick it costs one FFT per group to transform the densities and one inverse FFT per group for its forces
+ * (the x and y force are the real and imaginary part of one transform), plus one for the neighbor counts,
+ * independent of rMax. The cost of the full grid grows with rMax squared.
+ *
+ * The mesh is only used when it is estimated to cost less than the grid: for few particles or a fine mesh the grid wins.
+ *
+ * The error comes from the mesh cells. The mesh is calibrated on the particles: the cells per rMax are doubled
+ * until the forces of a sample of particles are within the error of the exact sum over all particles.
+ * The error shrinks quickly with finer meshes up to an rMax of about 0.6 times the smaller side of the world.
+ * Above that the circle of rMax crosses the half world lines, where the nearest image of a neighbor jumps to the other
+ * side. The force is discontinuous there, the mesh smooths it and finer meshes only reduce the error slowly
+ */
+class MeshForceSolver {
+
+    static final int MAX_MESH = 1024; // cells per side at most
+    private static final int MIN_MESH = 8;
+    private static final int MIN_CELLS_PER_RMAX = 4; // the first mesh of the calibration
+    private static final int SAMPLES = 64; // particles of the error estimate
+    private static final int RECALIBRATE_EVERY = 600; // ticks, the particles cluster differently over time
+    // Cost of a mesh point per transform step, relative to one neighbor candidate of the grid (measured on one thread)
+    private static final double MESH_POINT_COST = 0.3;
+
+    private static final int SHAPE_X = 0;
+    private static final int SHAPE_Y = 1;
+    private static final int COUNT = 2;
+
+    // Settings of the last calibration
+    private double calibratedRMax;
+    private int calibratedWidth;
+    private int calibratedHeight;
+    private double calibratedError;
+    private int calibratedGroups;
+    private int ticksSinceCalibration;
+    private int calibratedParticles;
+    private double measuredError;
+    private boolean withinError; // the calibration reached the error, otherwise the mesh is not used
+    private boolean cheaper; // the mesh within the error costs less than the grid, otherwise the mesh is not used
+    private int cellsPerRMax;
+
+    private double meshRMax; // rMax of the transformed forces
+    private int cols;
+    private int rows;
+    private double cellWidth;
+    private double cellHeight;
+    private Fft[] ffts = new Fft[0]; // one per group and one for the counts, an Fft is not thread safe
+    private double[][] kernelRe = new double[0][];
+    private double[][] kernelIm = new double[0][];
+    private double[][] densityRe = new double[0][]; // per group, the spectrum after the forward transform
+    private double[][] densityIm = new double[0][];
+    private double[][] fieldRe = new double[0][]; // per group and the counts, the force in x after the inverse transform
+    private double[][] fieldIm = new double[0][]; // the force in y
+
+    private final Grid repulsionGrid = new Grid();
+    private double[][] noAttraction = new double[0][0]; // the force without the shape is the repulsion
+
+    private ParticleStore particles;
+    private double[][] attraction;
+    private double rMax;
+    private int width;
+    private int height;
+    private ForceKernel kernel;
+
+    /**
+     * Sets the particles and settings of the next compute and tells if the mesh can be used with them
+     * Calibrates the mesh first when the settings or the number of particles changed, rMax changed more than 10%
+     * or after RECALIBRATE_EVERY ticks of the mesh. The mesh is used when it is within the error and its estimated cost
+     * is below the cost of the grid. Settings without such a mesh are not calibrated again until they change
+     * @param particles particles
+     * @param attraction attraction matrix
+     * @param rMax maximum distance of interaction
+     * @param width width of the world
+     * @param height height of the world
+     * @param error largest relative error of the forces, as the root mean square over the sampled particles
+     * @param kernel kernel for the repulsion, null to calculate each neighbor directly
+     * @param executor runs the groups and the particles, on one or more threads
+     * @param grain maximum number of particles in a range of the executor
+     * @param forceX buffer for the forces in the x direction of the calibration
+     * @param forceY buffer for the forces in the y direction of the calibration
+     * @param neighborCount buffer for the neighbor counts of the calibration
+     * @param gridCost estimated cost of the grid, in neighbor candidates per tick (see gridCandidates)
+     * @return true if the mesh is within the error and cheaper, false if the forces have to be calculated on the grid
+     */
+    boolean prepare(ParticleStore particles, double[][] attraction, double rMax, int width, int height, double error,
+            ForceKernel kernel, RangeAction.RangeExecutor executor, int grain, double[] forceX, double[] forceY,
+            int[] neighborCount, double gridCost) {
+        this.particles = particles;
+        this.kernel = kernel;
+        this.attraction = attraction;
+        this.rMax = rMax;
+        this.width = width;
+        this.height = height;
+
+        if (Math.abs(rMax - calibratedRMax) > 0.1 * calibratedRMax || width != calibratedWidth || height != calibratedHeight
+                || error != calibratedError || attraction.length != calibratedGroups || particles.size() != calibratedParticles
+                || (withinError && cheaper && ++ticksSinceCalibration >= RECALIBRATE_EVERY)) {
+            calibrate(error, gridCost, executor, grain, forceX, forceY, neighborCount);
+        }
+        return withinError && cheaper;
+    }
+
+    /**
+     * Calculates the approximate total force on every particle, with the particles and settings of the last prepare
+     * A small change of rMax since the calibration, as with the keys, keeps the cells per rMax and only transforms
+     * the forces again
+     * @param executor runs the groups and the particles, on one or more threads
+     * @param grain maximum number of particles in a range of the executor
+     * @param forceX total force in the x direction per particle index, gets overwritten
+     * @param forceY total force in the y direction per particle index, gets overwritten
+     * @param neighborCount approximate number of particles within rMax per particle index, gets overwritten
+     */
+    void compute(RangeAction.RangeExecutor executor, int grain, double[] forceX, double[] forceY, int[] neighborCount) {
+        if (rMax != meshRMax) {
+            setMesh(meshSize(width, cellsPerRMax), meshSize(height, cellsPerRMax), executor);
+        }
+        solve(executor, grain, forceX, forceY, neighborCount);
+    }
+
+    /**
+     * Doubles the cells per rMax until the forces are within the error, or the mesh is MAX_MESH on both sides
+     * When even that mesh is not within the error, withinError is false and the grid has to be used.
+     * Stops before a mesh which costs more than the grid, cheaper is then false
+     */
+    private void calibrate(double error, double gridCost, RangeAction.RangeExecutor executor, int grain,
+            double[] forceX, double[] forceY, int[] neighborCount) {
+        calibratedRMax = rMax;
+        calibratedWidth = width;
+        calibratedHeight = height;
+        calibratedError = error;
+        calibratedGroups = attraction.length;
+        calibratedParticles = particles.size();
+        ticksSinceCalibration = 0;
+        withinError = false;
+        cheaper = true;
+        for (int cells = MIN_CELLS_PER_RMAX; ; cells *= 2) {
+            int newCols = meshSize(width, cells);
+            int newRows = meshSize(height, cells);
+            if (meshCost(newCols, newRows) >= gridCost) {
+                cheaper = false;
+                return;
+            }
+            cellsPerRMax = cells;
+            setMesh(newCols, newRows, executor);
+            solve(executor, grain, forceX, forceY, neighborCount);
+            measuredError = measureError(forceX, forceY);
+            if (measuredError <= error) {
+                withinError = true;
+                return;
+            }
+            if (newCols == MAX_MESH && newRows == MAX_MESH) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Estimates the cost of a tick on a mesh, in neighbor candidates of the grid
+     * The transforms of the groups and the counts, the products with the attraction and the exact repulsion
+     */
+    private double meshCost(int cols, int rows) {
+        int groups = attraction.length;
+        double cells = (double) cols * rows;
+        double steps = (2 * groups + 1) * (Math.log(cells) / Math.log(2)) + groups * (groups + 1);
+        return MESH_POINT_COST * cells * steps
+                + gridCandidates(particles.size(), rMax * ParticleManager.FORCE_B, 2, width, height);
+    }
+
+    /**
+     * Estimates the neighbor candidates the grid visits in one tick, for particles spread evenly
+     * The stencil reaches about one cell beyond rMax, it cannot be larger than the world
+     * @param n number of particles
+     * @param rMax maximum distance of interaction
+     * @param subdivision cells per rMax
+     * @param width width of the world
+     * @param height height of the world
+     * @return number of neighbor candidates
+     */
+    static double gridCandidates(int n, double rMax, int subdivision, int width, int height) {
+        double reach = rMax * (1 + 1.0 / subdivision);
+        double world = (double) width * height;
+        double area = Math.min(world, Math.PI * reach * reach);
+        return (double) n * n * area / world;
+    }
+
+    /**
+     * Returns the number of cells of one side of the mesh, a power of two
+     * @param size width or height of the world
+     * @param cellsPerRMax cells per rMax at least
+     */
+    private int meshSize(int size, int cellsPerRMax) {
+        int cells = (int) Math.ceil(size * cellsPerRMax / rMax);
+        int mesh = Integer.highestOneBit(Math.max(1, cells - 1)) << 1;
+        return Math.min(MAX_MESH, Math.max(MIN_MESH, mesh));
+    }
+
+    /**
+     * Allocates the mesh and transforms the force of every offset
+     * An offset of exactly half the mesh is both the offset and its negative, it gets the average of both
+     */
+    private void setMesh(int newCols, int newRows, RangeAction.RangeExecutor executor) {
+        int groups = attraction.length;
+        int cells = newCols * newRows;
+        boolean resized = newCols != cols || newRows != rows;
+        cols = newCols;
+        rows = newRows;
+        meshRMax = rMax;
+        cellWidth = (double) width / cols;
+        cellHeight = (double) height / rows;
+        if (resized || ffts.length != groups + 1) {
+            ffts = new Fft[groups + 1];
+            for (int f = 0; f < ffts.length; f++) {
+                ffts[f] = new Fft(cols, rows);
+            }
+            kernelRe = new double[3][cells];
+            kernelIm = new double[3][cells];
+            densityRe = new double[groups][cells];
+            densityIm = new double[groups][cells];
+            fieldRe = new double[groups + 1][cells];
+            fieldIm = new double[groups + 1][cells];
+        }
+
+        for (int k = 0; k < kernelRe.length; k++) {
+            Arrays.fill(kernelIm[k], 0);
+        }
+        double[] kernel = new double[3];
+        for (int j = 0; j < rows; j++) {
+            double dy = (j <= rows / 2 ? j : j - rows) * cellHeight;
+            boolean halfRow = j == rows / 2; // dy and -dy are the same row of the periodic mesh
+            for (int i = 0; i < cols; i++) {
+                double dx = (i <= cols / 2 ? i : i - cols) * cellWidth;
+                boolean halfCol = i == cols / 2;
+                // An offset of half the mesh is split over its images, half the weight for each,
+                // so the force stays antisymmetric without dropping the line
+                Arrays.fill(kernel, 0);
+                int images = 0;
+                for (int sy = halfRow ? -1 : 1; sy <= 1; sy += 2) {
+                    for (int sx = halfCol ? -1 : 1; sx <= 1; sx += 2) {
+                        addOffset(sx * dx, sy * dy, kernel);
+                        images++;
+                    }
+                }
+                int c = j * cols + i;
+                kernelRe[SHAPE_X][c] = kernel[SHAPE_X] / images;
+                kernelRe[SHAPE_Y][c] = kernel[SHAPE_Y] / images;
+                kernelRe[COUNT][c] = kernel[COUNT] / images;
+            }
+        }
+        executor.forEachRange(kernelRe.length, 1, (from, to) -> {
+            for (int k = from; k < to; k++) {
+                new Fft(cols, rows).transform(kernelRe[k], kernelIm[k], false);
+            }
+        });
+    }
+
+    /**
+     * Adds the shape of the force and the count of one offset to the kernel values of a mesh point
+     * @param kernel shape in x, shape in y and count, in the order of SHAPE_X, SHAPE_Y and COUNT
+     */
+    private void addOffset(double dx, double dy, double[] kernel) {
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        double d = distance / rMax;
+        if (d < 1) {
+            kernel[COUNT]++;
+        }
+        if (distance == 0 || d <= ParticleManager.FORCE_B) {
+            return;
+        }
+        // The field at x sums the particles at x - offset, which pull towards themselves: minus the offset
+        double shape = ParticleManager.force(d, 1);
+        kernel[SHAPE_X] -= dx / distance * shape;
+        kernel[SHAPE_Y] -= dy / distance * shape;
+    }
+
+    /**
+     * Spreads the particles on the mesh, calculates the fields and reads the forces back
+     */
+    private void solve(RangeAction.RangeExecutor executor, int grain, double[] forceX, double[] forceY, int[] neighborCount) {
+        int groups = attraction.length;
+        int cells = cols * rows;
+        for (int g = 0; g < groups; g++) {
+            Arrays.fill(densityRe[g], 0);
+            Arrays.fill(densityIm[g], 0);
+        }
+        int n = particles.size();
+        for (int i = 0; i < n; i++) {
+            spread(densityRe[particles.getGroup(i)], particles.getX(i), particles.getY(i));
+        }
+        executor.forEachRange(groups, 1, (from, to) -> {
+            for (int g = from; g < to; g++) {
+                ffts[g].transform(densityRe[g], densityIm[g], false);
+            }
+        });
+
+        // Field of every group, and the counts as the last one
+        executor.forEachRange(groups + 1, 1, (from, to) -> {
+            for (int t = from; t < to; t++) {
+                double[] re = fieldRe[t];
+                double[] im = fieldIm[t];
+                for (int c = 0; c < cells; c++) {
+                    // Density of the counts, or the densities weighted by the attraction of the group
+                    double sumRe = 0;
+                    double sumIm = 0;
+                    for (int g = 0; g < groups; g++) {
+                        double a = t < groups ? attraction[t][g] : 1;
+                        sumRe += a * densityRe[g][c];
+                        sumIm += a * densityIm[g][c];
+                    }
+                    if (t == groups) {
+                        re[c] = kernelRe[COUNT][c] * sumRe - kernelIm[COUNT][c] * sumIm;
+                        im[c] = kernelRe[COUNT][c] * sumIm + kernelIm[COUNT][c] * sumRe;
+                        continue;
+                    }
+                    double xRe = kernelRe[SHAPE_X][c] * sumRe - kernelIm[SHAPE_X][c] * sumIm;
+                    double xIm = kernelRe[SHAPE_X][c] * sumIm + kernelIm[SHAPE_X][c] * sumRe;
+                    double yRe = kernelRe[SHAPE_Y][c] * sumRe - kernelIm[SHAPE_Y][c] * sumIm;
+                    double yIm = kernelRe[SHAPE_Y][c] * sumIm + kernelIm[SHAPE_Y][c] * sumRe;
+                    // Both fields are real, so x + i * y transforms back to x in the real and y in the imaginary part
+                    re[c] = xRe - yIm;
+                    im[c] = xIm + yRe;
+                }
+                ffts[t].transform(re, im, true);
+            }
+        });
+
+        // The repulsion of the neighbors within rMax * FORCE_B, with the attraction values 0
+        if (noAttraction.length != groups) {
+            noAttraction = new double[groups][groups];
+        }
+        repulsionGrid.build(rMax * ParticleManager.FORCE_B, 2, width, height, particles);
+        executor.forEachRange(n, grain, (from, to) -> {
+            ForceAccumulator accumulator = new ForceAccumulator(particles, repulsionGrid, noAttraction, rMax, width, height, kernel);
+            for (int i = from; i < to; i++) {
+                int g = particles.getGroup(i);
+                double x = particles.getX(i);
+                double y = particles.getY(i);
+                accumulator.accumulate(i);
+                forceX[i] = interpolate(fieldRe[g], x, y) + accumulator.getTotalForcex();
+                forceY[i] = interpolate(fieldIm[g], x, y) + accumulator.getTotalForcey();
+                neighborCount[i] = (int) Math.max(0, Math.round(interpolate(fieldRe[groups], x, y)) - 1); // minus itself
+            }
+        });
+    }
+
+    /**
+     * Adds a particle to the four mesh points around it, weighted by how close it is to them
+     */
+    private void spread(double[] mesh, double x, double y) {
+        double fx = x / cellWidth;
+        double fy = y / cellHeight;
+        int i0 = (int) Math.floor(fx);
+        int j0 = (int) Math.floor(fy);
+        double tx = fx - i0;
+        double ty = fy - j0;
+        i0 = Math.floorMod(i0, cols);
+        j0 = Math.floorMod(j0, rows);
+        int i1 = i0 + 1 == cols ? 0 : i0 + 1;
+        int j1 = j0 + 1 == rows ? 0 : j0 + 1;
+        mesh[j0 * cols + i0] += (1 - tx) * (1 - ty);
+        mesh[j0 * cols + i1] += tx * (1 - ty);
+        mesh[j1 * cols + i0] += (1 - tx) * ty;
+        mesh[j1 * cols + i1] += tx * ty;
+    }
+
+    /**
+     * Reads a field at a position with the same weights as spread
+     */
+    private double interpolate(double[] mesh, double x, double y) {
+        double fx = x / cellWidth;
+        double fy = y / cellHeight;
+        int i0 = (int) Math.floor(fx);
+        int j0 = (int) Math.floor(fy);
+        double tx = fx - i0;
+        double ty = fy - j0;
+        i0 = Math.floorMod(i0, cols);
+        j0 = Math.floorMod(j0, rows);
+        int i1 = i0 + 1 == cols ? 0 : i0 + 1;
+        int j1 = j0 + 1 == rows ? 0 : j0 + 1;
+        return mesh[j0 * cols + i0] * (1 - tx) * (1 - ty) + mesh[j0 * cols + i1] * tx * (1 - ty)
+                + mesh[j1 * cols + i0] * (1 - tx) * ty + mesh[j1 * cols + i1] * tx * ty;
+    }
+
+    /**
+     * Compares the forces of a sample of particles with the exact sum over all particles
+     * @return root mean square of the difference over the root mean square of the exact force
+     */
+    private double measureError(double[] forceX, double[] forceY) {
+        int n = particles.size();
+        int samples = Math.min(SAMPLES, n);
+        double[] total = new double[2];
+        double difference = 0;
+        double size = 0;
+        for (int s = 0; s < samples; s++) {
+            int i = (int) ((long) s * n / samples);
+            total[0] = 0;
+            total[1] = 0;
+            double[] row = attraction[particles.getGroup(i)];
+            double x = particles.getX(i);
+            double y = particles.getY(i);
+            for (int j = 0; j < n; j++) {
+                exactForce(x, y, particles.getX(j), particles.getY(j), row[particles.getGroup(j)], total);
+            }
+            difference += (forceX[i] - total[0]) * (forceX[i] - total[0]) + (forceY[i] - total[1]) * (forceY[i] - total[1]);
+            size += total[0] * total[0] + total[1] * total[1];
+        }
+        return size > 0 ? Math.sqrt(difference / size) : Math.sqrt(difference);
+    }
+
+    /**
+     * Adds the force of one neighbor, the same calculation as ScalarForceKernel
+     */
+    private void exactForce(double x, double y, double nx, double ny, double a, double[] total) {
+        double dx = nx - x;
+        double dy = ny - y;
+        if (dx > 0.5 * width) {
+            dx -= width;
+        }
+        if (dx < -0.5 * width) {
+            dx += width;
+        }
+        if (dy > 0.5 * height) {
+            dy -= height;
+        }
+        if (dy < -0.5 * height) {
+            dy += height;
+        }
+        double squared = dx * dx + dy * dy;
+        if (squared > 0 && squared < rMax * rMax) {
+            double distance = Math.sqrt(squared);
+            double F = ParticleManager.force(distance / rMax, a);
+            total[0] += dx / distance * F;
+            total[1] += dy / distance * F;
+        }
+    }
+
+    /**
+     * Returns the error of the last calibration
+     * @return root mean square of the difference with the exact force over the root mean square of the exact force
+     */
+    double getMeasuredError() {
+        return measuredError;
+    }
+
+    /**
+     * Returns if the last calibration reached the error
+     * @return false when the finest mesh was not within the error
+     */
+    boolean isWithinError() {
+        return withinError;
+    }
+
+    /**
+     * Returns if the last calibration found the mesh cheaper than the grid
+     * @return false when every mesh tried so far, or the next finer one, costs more than the grid
+     */
+    boolean isCheaper() {
+        return cheaper;
+    }
+
+    int getCols() {
+        return cols;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    int getCellsPerRMax() {
+        return cellsPerRMax;
+    }
+}
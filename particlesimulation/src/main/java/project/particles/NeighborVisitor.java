@@ -0,0 +1,13 @@
+package project.particles;
+
+/**
+ * Callback for iterating over the neighbors of a particle without allocating a collection
+ */
+@FunctionalInterface
+public interface NeighborVisitor {
+    /**
+     * Gets called once for every neighbor
+     * @param neighbor index of the neighbor particle
+     */
+    void visit(int neighbor);
+}
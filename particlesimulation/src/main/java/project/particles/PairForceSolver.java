@@ -0,0 +1,188 @@
+package project.particles;
+
+import java.util.Arrays;
+
+/**
+ * Calculates the forces with a half stencil, so the geometry of every pair is only calculated once
+ * Each cell pairs with the later particles in its own cell, the cells of the stencil to the right in its own row
+ * and the cells of the stencil in the rows below.
+ * The particle gets attraction[g1][g2] and the neighbor gets attraction[g2][g1].
+ *
+ * A row of cells writes forces to itself and the reachY rows below, so rows are processed in strips
+ * of at least reachY rows (and at least two).
+ * All even strips run at the same time, then all odd strips, so no two threads write the same particle.
+ * The order in which forces are added does not depend on the number of threads.
+ */
+class PairForceSolver {
+
+    private double[] sortedForceX = new double[0];
+    private double[] sortedForceY = new double[0];
+    private double[][] reaction = new double[0][0];
+
+    private Grid grid;
+    private double[][] attraction;
+    private double rMax;
+    private int width;
+    private int height;
+    private PairKernel kernel;
+    private int strips;
+    private int stripRows;
+
+    /**
+     * A half stencil only visits every pair once when the wrap around does not
+     * make a cell its own neighbor, so the grid has to be larger than the stencil
+     * @param grid built grid
+     * @return true if the half stencil can be used on the grid
+     */
+    static boolean supports(Grid grid) {
+        return grid.getCols() >= 2 * grid.getStencilWidth(0) + 1 && grid.getRows() >= 2 * grid.getReachY() + 1;
+    }
+
+    /**
+     * Calculates the total force on every particle
+     * @param grid grid which is built on the current positions
+     * @param attraction attraction matrix
+     * @param rMax maximum distance of interaction
+     * @param width width of the world
+     * @param height height of the world
+     * @param kernel kernel for the pairs of a particle and a range of neighbors
+     * @param n number of particles
+     * @param executor runs the strips, on one or more threads
+     * @param forceX total force in the x direction per particle index, gets overwritten
+     * @param forceY total force in the y direction per particle index, gets overwritten
+     */
+    void compute(Grid grid, double[][] attraction, double rMax, int width, int height, PairKernel kernel,
+            int n, RangeAction.RangeExecutor executor, double[] forceX, double[] forceY) {
+        this.grid = grid;
+        this.attraction = attraction;
+        this.rMax = rMax;
+        this.width = width;
+        this.height = height;
+        this.kernel = kernel;
+
+        if (sortedForceX.length < n) {
+            sortedForceX = new double[n];
+            sortedForceY = new double[n];
+        }
+        Arrays.fill(sortedForceX, 0, n, 0);
+        Arrays.fill(sortedForceY, 0, n, 0);
+        updateReaction();
+
+        // With an odd number of strips the last strip touches the first, so it runs on its own
+        stripRows = Math.max(2, grid.getReachY());
+        strips = grid.getRows() / stripRows;
+        boolean lastAlone = strips > 1 && strips % 2 == 1;
+        int paired = lastAlone ? strips - 1 : strips;
+        executor.forEachRange((paired + 1) / 2, 1, (from, to) -> {
+            for (int m = from; m < to; m++) {
+                computeStrip(2 * m);
+            }
+        });
+        executor.forEachRange(paired / 2, 1, (from, to) -> {
+            for (int m = from; m < to; m++) {
+                computeStrip(2 * m + 1);
+            }
+        });
+        if (lastAlone) {
+            computeStrip(strips - 1);
+        }
+
+        // Back from cell order to particle order
+        int[] sorted = grid.getSortedIndex();
+        for (int p = 0; p < n; p++) {
+            forceX[sorted[p]] = sortedForceX[p];
+            forceY[sorted[p]] = sortedForceY[p];
+        }
+    }
+
+    /**
+     * Transposes the attraction matrix, reaction[g1][g2] is attraction[g2][g1]
+     */
+    private void updateReaction() {
+        int groups = attraction.length;
+        if (reaction.length != groups) {
+            reaction = new double[groups][groups];
+        }
+        for (int i = 0; i < groups; i++) {
+            for (int j = 0; j < groups; j++) {
+                reaction[i][j] = attraction[j][i];
+            }
+        }
+    }
+
+    /**
+     * Calculates all pairs of the cells in a strip of rows
+     * @param strip strip number, the last strip also takes the remaining rows
+     */
+    private void computeStrip(int strip) {
+        int rows = grid.getRows();
+        int cols = grid.getCols();
+        int reachY = grid.getReachY();
+        int width = grid.getStencilWidth(0);
+        int firstRow = strip * stripRows;
+        int lastRow = strip == strips - 1 ? rows : firstRow + stripRows;
+        double[] sortedX = grid.getSortedX();
+        double[] sortedY = grid.getSortedY();
+        int[] sortedGroup = grid.getSortedGroup();
+        double[] total = new double[2];
+
+        for (int row = firstRow; row < lastRow; row++) {
+            int rowStart = row * cols;
+            for (int col = 0; col < cols; col++) {
+                int cell = rowStart + col;
+                int end = grid.getCellStart(cell + 1);
+                for (int p = grid.getCellStart(cell); p < end; p++) {
+                    double x = sortedX[p];
+                    double y = sortedY[p];
+                    double[] attractionRow = attraction[sortedGroup[p]];
+                    double[] reactionRow = reaction[sortedGroup[p]];
+                    total[0] = 0;
+                    total[1] = 0;
+
+                    // Later particles in the own cell and the cells to the right
+                    if (col + width < cols) {
+                        pairs(x, y, attractionRow, reactionRow, p + 1, grid.getCellStart(cell + width + 1), total);
+                    } else {
+                        pairs(x, y, attractionRow, reactionRow, p + 1, grid.getCellStart(rowStart + cols), total);
+                        pairs(x, y, attractionRow, reactionRow, grid.getCellStart(rowStart), grid.getCellStart(rowStart + col + width - cols + 1), total);
+                    }
+
+                    // The cells below
+                    for (int j = 1; j <= reachY; j++) {
+                        int belowStart = ((row + j) % rows) * cols; // Wrap around for rows
+                        int w = grid.getStencilWidth(j);
+                        pairsInRow(x, y, attractionRow, reactionRow, belowStart, col - w, col + w, total);
+                    }
+
+                    sortedForceX[p] += total[0];
+                    sortedForceY[p] += total[1];
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the columns first until last (inclusive) of a row to the kernel, split in two when it wraps around
+     */
+    private void pairsInRow(double x, double y, double[] attractionRow, double[] reactionRow, int rowStart, int first, int last, double[] total) {
+        int cols = grid.getCols();
+        if (first < 0) {
+            pairs(x, y, attractionRow, reactionRow, grid.getCellStart(rowStart + first + cols), grid.getCellStart(rowStart + cols), total);
+            first = 0;
+        } else if (last >= cols) {
+            pairs(x, y, attractionRow, reactionRow, grid.getCellStart(rowStart), grid.getCellStart(rowStart + last - cols + 1), total);
+            last = cols - 1;
+        }
+        pairs(x, y, attractionRow, reactionRow, grid.getCellStart(rowStart + first), grid.getCellStart(rowStart + last + 1), total);
+    }
+
+    /**
+     * Hands a range of neighbors to the kernel
+     */
+    private void pairs(double x, double y, double[] attractionRow, double[] reactionRow, int from, int to, double[] total) {
+        if (from < to) {
+            kernel.accumulate(x, y, attractionRow, reactionRow, grid.getSortedX(), grid.getSortedY(), grid.getSortedGroup(),
+                    from, to, rMax, width, height, sortedForceX, sortedForceY, total);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package project.particles;
+
+/**
+ * Calculates the forces between one particle and a range of neighbors, both ways
+ * The distance, unit vector and wrap of a pair are calculated once,
+ * the force on the particle uses its attraction to the neighbor and the force on the neighbor
+ * uses the attraction of the neighbor to the particle
+ */
+interface PairKernel {
+    /**
+     * Adds the force of every neighbor to the total of the particle
+     * and the opposite force to the force of every neighbor
+     * @param x x-coordinate of the particle
+     * @param y y-coordinate of the particle
+     * @param attraction attraction of the particle to every group
+     * @param reaction attraction of every group to the particle
+     * @param bx x-coordinates of the neighbors
+     * @param by y-coordinates of the neighbors
+     * @param bg groups of the neighbors
+     * @param from first neighbor (inclusive)
+     * @param to last neighbor (exclusive)
+     * @param rMax maximum distance of interaction
+     * @param width width of the world
+     * @param height height of the world
+     * @param fx forces in the x direction of the neighbors, same indexing as bx
+     * @param fy forces in the y direction of the neighbors, same indexing as by
+     * @param total total force on the particle, total[0] in the x direction and total[1] in the y direction
+     */
+    void accumulate(double x, double y, double[] attraction, double[] reaction, double[] bx, double[] by, int[] bg,
+            int from, int to, double rMax, int width, int height, double[] fx, double[] fy, double[] total);
+}
@@ -2,19 +2,34 @@ package project.particles;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Random;
-
-import project.main.Frame;
+import java.util.concurrent.ForkJoinPool;
 
 public class ParticleManager {
     private Random random = new Random();
     private int numberParticles = 600;
     private int numberOfGroups = 6;
 
-    private ArrayList<Particle> particles = new ArrayList<>();
+    private int width = 1800;
+    private int height = 1200;
+
+    private ParticleStore particles = new ParticleStore(numberOfGroups * numberParticles);
     private boolean particlesCreated = false;
-    private Grid grid;
+    private Grid grid = new Grid();
+    private int subdivision = 2; // cells per rMax, smaller cells fit the circle of rMax better
+
+    private int radius = 2; // fixed radius for now
+    private Rasterizer rasterizer = new Rasterizer();
+    private GlowRenderer glowRenderer = new GlowRenderer();
+    private volatile boolean glow = false;
+    private static final Color[] GROUP_COLORS = {Color.red, new Color(255, 140, 0), Color.yellow, Color.green, Color.blue, new Color(156, 81, 182)};
+    private static final double MAX_SPEED = 400; // speed with the reddest color
+    private static final double MAX_DENSITY = 1200; // number of neighbors with the reddest color
 
     private double rMax = 172; 
     private double friction = 0.90;
@@ -27,10 +42,40 @@ public class ParticleManager {
         DENISTY
       }
     
-    private ColorMethod colorMethod = ColorMethod.GROUP;
+    private volatile ColorMethod colorMethod = ColorMethod.GROUP;
 
-    private double totalForcex = 0;
-    private double totalForcey = 0;
+    static final double FORCE_B = 0.2; // distance (relative to rMax) below which particles always repel
+    private static final int CURVE_BITS = 10; // cells of the reorder curve per axis, 2^10
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ForkJoinPool pool;
+    private ForceKernel kernel = ForceKernels.vector();
+    private PairKernel pairKernel = vectorOrScalarPairKernel();
+    private boolean simd = true;
+    private TableForceKernel tableKernel; // null when the force is calculated directly
+    private Precision precision = Precision.DOUBLE;
+    private FloatForceKernel floatKernel; // null with the DOUBLE precision
+    private boolean symmetric = false;
+    private PairForceSolver pairSolver = new PairForceSolver();
+    private MeshForceSolver meshSolver = new MeshForceSolver();
+    private double meshAbove = 0.25; // rMax relative to the smaller side of the world above which the mesh is used, 0 never
+    private double meshError = 0.05; // largest relative error of the mesh forces
+    private volatile boolean meshActive = false; // the last tick used the mesh
+    private volatile boolean meshOverError = false; // the last tick wanted the mesh, but the finest mesh was not within the error
+    private volatile boolean meshSlower = false; // the last tick wanted the mesh, but the grid was estimated cheaper
+    private VerletList verletList;
+    private double skin = 20; // extra distance of the Verlet lists
+    private double[] forceX = new double[0];
+    private double[] forceY = new double[0];
+    private int[] neighborCount = new int[0]; // neighbors seen by the force pass, for the density colors
+    private final TripleBuffer<ParticleSnapshot> snapshots = new TripleBuffer<>(ParticleSnapshot::new);
+    private volatile Profiler profiler; // null when the phases are not timed
+    private int reorderEvery = 0; // ticks between two reorders, 0 keeps the order
+    private SpaceFillingCurve curve = SpaceFillingCurve.HILBERT;
+    private int ticksSinceReorder = 0;
+    private long[] curveKeys = new long[0];
+    private int[] curveOrder = new int[0];
+    private boolean[] halo; // particles which are only neighbors and are not updated, null when all are updated
     private double[][] attraction = {
         //red, orange, yellow, green, blue, purple
          {1.0,  0.0,    0.0,    0.0,   0.0,  0.0},
@@ -49,6 +94,16 @@ public class ParticleManager {
 
     }
 
+    /**
+     * Particle manager with a given world size
+     * @param width width of the world
+     * @param height height of the world
+     */
+    public ParticleManager(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
     /**
      * Creates the particle at the start of the simulation
      * @numberOfGroups number of groups it creates
@@ -58,82 +113,312 @@ public class ParticleManager {
     public void createParticles() {
         for (int i = 0; i < numberOfGroups; i++) {
             for (int j = 0; j < numberParticles; j++) {
-                double x = random.nextInt(5, Frame.width - 5);
-                double y = random.nextInt(5, Frame.height - 5);
-                int radius = 2; // fixed radius for now
+                double x = random.nextInt(5, width - 5);
+                double y = random.nextInt(5, height - 5);
                 double xspeed = 0;
                 double yspeed = 0;
-                boolean glowEnabled = false;
-                particles.add(new Particle(x, y, radius, xspeed, yspeed, i, glowEnabled));
+                int index = particles.add(x, y, xspeed, yspeed, i);
+                particles.setColor(index, getGroupColor(i).getRGB());
             }
         }
+        roundToPrecision();
+        particlesCreated = true;
+    }
+
+    /**
+     * Marks the particles as created after they were filled from a checkpoint
+     * The colors are set to the group colors until the next frame is drawn
+     */
+    void particlesRestored() {
+        for (int i = 0; i < particles.size(); i++) {
+            particles.setColor(i, getGroupColor(particles.getGroup(i)).getRGB());
+        }
+        roundToPrecision();
         particlesCreated = true;
     }
 
     /**
      * Update logic for all particles
+     * First the forces of all particles are calculated from the positions of the previous tick,
+     * only then are the velocities and positions updated.
+     * Both passes are split over the fork/join pool when more than one thread is used,
+     * the result does not depend on the number of threads
      */
     public void update() {
-        grid = new Grid(rMax, particles);
+        int n = particles.size();
+        if (forceX.length < n) {
+            forceX = new double[n];
+            forceY = new double[n];
+            neighborCount = new int[n];
+        }
+        Profiler profiler = this.profiler;
+        long reorderStart = profiler != null ? System.nanoTime() : 0;
+        boolean reordered = false;
+        // The mesh is calibrated before the tick, when no mesh within the error is cheaper than the grid the grid is used
+        boolean meshWanted = meshAbove > 0 && halo == null && rMax > meshAbove * Math.min(width, height);
+        boolean mesh = meshWanted && meshSolver.prepare(particles, attraction, rMax, width, height, meshError, kernel,
+                this::forEachRange, getGrain(n), forceX, forceY, neighborCount,
+                MeshForceSolver.gridCandidates(n, rMax, subdivision, width, height));
+        meshActive = mesh;
+        meshOverError = meshWanted && !mesh && meshSolver.isCheaper();
+        meshSlower = meshWanted && !mesh && !meshSolver.isCheaper();
+        VerletList lists = precision == Precision.DOUBLE && !mesh ? verletList : null; // the lists only hold double positions
+        // With Verlet lists the reorder waits for the next rebuild, it would need one anyway
+        if (reorderEvery > 0 && halo == null && ++ticksSinceReorder >= reorderEvery
+                && (lists == null || !lists.isValid(particles, rMax, skin, subdivision, width, height))) {
+            reorder();
+            reordered = true;
+        }
+        long gridStart = profiler != null ? System.nanoTime() : 0;
+
+        if (mesh) {
+            // The mesh needs no grid, the spreading on the mesh is part of the force phase
+        } else if (lists != null) {
+            lists.update(particles, rMax, skin, subdivision, width, height, this::forEachRange, getGrain(n));
+        } else {
+            grid.setPrecision(precision);
+            grid.build(rMax, subdivision, width, height, particles);
+        }
+        long forceStart = profiler != null ? System.nanoTime() : 0;
+
+        if (mesh) {
+            meshSolver.compute(this::forEachRange, getGrain(n), forceX, forceY, neighborCount);
+        } else if (lists != null) {
+            forEachRange(n, this::updateForcesVerlet);
+        } else if (symmetric && precision == Precision.DOUBLE && PairForceSolver.supports(grid)) {
+            pairSolver.compute(grid, attraction, rMax, width, height, pairKernel, n, this::forEachRange, forceX, forceY);
+            forEachRange(n, this::countNeighbors);
+        } else {
+            forEachRange(n, this::updateForces);
+        }
+        long integrationStart = profiler != null ? System.nanoTime() : 0;
 
-        for (Particle particle : particles) {
-            updateVelocity(particle, grid);
-            updatePosition(particle);
-            updateColor(particle);
+        forEachRange(n, this::updateParticles);
+
+        if (profiler != null) {
+            long end = System.nanoTime();
+            if (reordered) {
+                profiler.record(Profiler.Phase.REORDER, gridStart - reorderStart, n);
+            }
+            profiler.record(Profiler.Phase.GRID, forceStart - gridStart, n);
+            profiler.record(Profiler.Phase.FORCES, integrationStart - forceStart, n);
+            profiler.record(Profiler.Phase.INTEGRATION, end - integrationStart, n);
+            profiler.recordTick(countPairs(n), n);
+        }
+    }
+
+    /**
+     * Sorts the particles along the space filling curve through the cells of their positions
+     * Particles which are close in the world end up close in the store, so the grid build, the force pass
+     * and the integration read memory in a more local order. The ids of the particles do not change.
+     * The curve goes through 2^CURVE_BITS by 2^CURVE_BITS cells of the world, so a cell holds a few particles;
+     * the sort is stable, particles in the same cell keep their order
+     */
+    private void reorder() {
+        ticksSinceReorder = 0;
+        int n = particles.size();
+        if (curveKeys.length < n) {
+            curveKeys = new long[n];
+            curveOrder = new int[n];
+        }
+        forEachRange(n, this::computeCurveKeys);
+        if (threads > 1) {
+            Arrays.parallelSort(curveKeys, 0, n);
+        } else {
+            Arrays.sort(curveKeys, 0, n);
+        }
+        for (int k = 0; k < n; k++) {
+            curveOrder[k] = (int) curveKeys[k]; // the index is in the low 32 bits
+        }
+        particles.reorder(curveOrder);
+        if (verletList != null) {
+            verletList.invalidate(); // the lists hold indices, they are rebuilt right after
         }
     }
 
     /**
-     * Updates the velocity for a particle
-     * Uses boolean enableSP to use spatial partitioning
-     * @param particle Particle which velocity will be updated
+     * Sets the sort key of a range of particles, the position on the curve above the index
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
      */
-    private void updateVelocity(Particle particle, Grid grid) {
-        totalForcex = 0;
-        totalForcey = 0;
+    private void computeCurveKeys(int from, int to) {
+        int cells = 1 << CURVE_BITS;
+        double scaleX = cells / (double) width;
+        double scaleY = cells / (double) height;
+        for (int i = from; i < to; i++) {
+            int col = Math.min(cells - 1, Math.max(0, (int) (particles.getX(i) * scaleX)));
+            int row = Math.min(cells - 1, Math.max(0, (int) (particles.getY(i) * scaleY)));
+            curveKeys[i] = curve.index(CURVE_BITS, col, row) << 32 | i;
+        }
+    }
+
+    /**
+     * Returns the number of neighbor pairs of the last force pass
+     * Every pair is counted once, also when the full stencil looked at it from both particles
+     * @param n number of particles
+     */
+    private long countPairs(int n) {
+        long count = 0;
+        for (int i = 0; i < n; i++) {
+            count += neighborCount[i];
+        }
+        return count / 2;
+    }
+
+    /**
+     * Runs a task over all particle indices
+     * Splits the indices in chunks over the pool when more than one thread is used
+     * @param n number of particles
+     * @param task task to run on a range of indices
+     */
+    private void forEachRange(int n, RangeAction.RangeTask task) {
+        forEachRange(n, getGrain(n), task);
+    }
 
+    /**
+     * Returns the chunk size for n particles, about 8 chunks per thread
+     */
+    private int getGrain(int n) {
+        return Math.max(256, n / (threads * 8));
+    }
+
+    /**
+     * Runs a task over the indices [0, n)
+     * @param n number of indices
+     * @param grain maximum number of indices in a chunk
+     * @param task task to run on a range of indices
+     */
+    private void forEachRange(int n, int grain, RangeAction.RangeTask task) {
+        if (threads <= 1 || n <= grain) {
+            task.run(0, n);
+            return;
+        }
+        if (pool == null || pool.getParallelism() != threads) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(threads);
+        }
+        pool.invoke(new RangeAction(task, 0, n, grain));
+    }
+
+    /**
+     * Calculates the total force on a range of particles
+     * Only reads the positions, the forces are written to the force buffer
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     */
+    private void updateForces(int from, int to) {
         // Efficient spatial partitioning algorithm 
-        ArrayList<Particle> neighbors = grid.getNeighbors(particle);
-        for (Particle neighbor : neighbors) {
-            calculateDistance(particle.getX(), particle.getY(), neighbor.getX(), neighbor.getY(), attraction[particle.getGroupNumber()][neighbor.getGroupNumber()]);
+        ForceAccumulator accumulator = new ForceAccumulator(particles, grid, attraction, rMax, width, height, kernel, floatKernel);
+        for (int i = from; i < to; i++) {
+            if (halo != null && halo[i]) {
+                continue;
+            }
+            accumulator.accumulate(i);
+            forceX[i] = accumulator.getTotalForcex();
+            forceY[i] = accumulator.getTotalForcey();
+            neighborCount[i] = accumulator.getNeighborCount();
         }
-        
-        totalForcex *= rMax * forceFactor;
-        totalForcey *= rMax * forceFactor;
-        particle.setXspeed(particle.getXspeed() * friction);
-        particle.setYspeed(particle.getYspeed() * friction);
-        particle.setXspeed(particle.getXspeed() + totalForcex * dt);
-        particle.setYspeed(particle.getYspeed() + totalForcey * dt);
+    }
+
+    /**
+     * Counts the neighbors of a range of particles from the cells of the grid
+     * The half stencil does not see all neighbors of a particle, but the grid is already built for it
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     */
+    private void countNeighbors(int from, int to) {
+        for (int i = from; i < to; i++) {
+            neighborCount[i] = grid.countNeighbors(i);
+        }
+    }
+
+    /**
+     * Calculates the total force on a range of particles from the Verlet lists
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     */
+    private void updateForcesVerlet(int from, int to) {
+        ForceAccumulator accumulator = new ForceAccumulator(particles, grid, attraction, rMax, width, height, kernel);
+        for (int i = from; i < to; i++) {
+            if (halo != null && halo[i]) {
+                continue;
+            }
+            accumulator.accumulate(i, verletList);
+            forceX[i] = accumulator.getTotalForcex();
+            forceY[i] = accumulator.getTotalForcey();
+            neighborCount[i] = accumulator.getNeighborCount();
+        }
+    }
+
+    /**
+     * Updates the velocity and position of a range of particles
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     */
+    private void updateParticles(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (halo != null && halo[i]) {
+                continue;
+            }
+            updateVelocity(i);
+            updatePosition(i);
+        }
+    }
+
+    /**
+     * Updates the velocity for a particle with the force from the force buffer
+     * @param index index of the particle which velocity will be updated
+     */
+    private void updateVelocity(int index) {
+        double totalForcex = forceX[index] * rMax * forceFactor;
+        double totalForcey = forceY[index] * rMax * forceFactor;
+        particles.setXspeed(index, precision.roundSpeed(particles.getXspeed(index) * friction + totalForcex * dt));
+        particles.setYspeed(index, precision.roundSpeed(particles.getYspeed(index) * friction + totalForcey * dt));
     }
 
     /**
      * Updates the position of a particle depening on  xspeed and yspeed
-     * @param particle
+     * @param index index of the particle
+     */
+    private void updatePosition(int index) {
+        if (precision == Precision.FIXED) {
+            updateFixedPosition(index);
+            return;
+        }
+        // Wrapped in double before it is stored, a compact store rounds to float only once
+        double x = inFrame(particles.getX(index) + particles.getXspeed(index) * dt, width);
+        double y = inFrame(particles.getY(index) + particles.getYspeed(index) * dt, height);
+        particles.setX(index, precision.roundPosition(x, width));
+        particles.setY(index, precision.roundPosition(y, height));
+    }
+
+    /**
+     * Updates the position of a particle in fixed point
+     * The step is added to the fixed point position, the int overflow brings it back into the world
+     * @param index index of the particle
      */
-    private void updatePosition(Particle particle) {
-        particle.setX(particle.getX() + particle.getXspeed() * dt);
-        particle.setY(particle.getY() + particle.getYspeed() * dt);
-        setInFrame(particle);
+    private void updateFixedPosition(int index) {
+        int x = Precision.toFixed(particles.getX(index), width) + Precision.toFixed(particles.getXspeed(index) * dt, width);
+        int y = Precision.toFixed(particles.getY(index), height) + Precision.toFixed(particles.getYspeed(index) * dt, height);
+        particles.setX(index, Precision.fromFixed(x, width));
+        particles.setY(index, Precision.fromFixed(y, height));
     }
 
     /**
-     * Calcualtes the distance from to points to eachother
-     * @param x1 1st point x-coordinate 
-     * @param y1 1st point y-coordinate 
-     * @param x2 2nd point x-coordinate 
-     * @param y2 2nd point y-coordinate
-     * @param a attraction value (not needed in this calculation)
+     * Rounds the positions and speeds of all particles to the precision
+     * Only needed for a store outside the heap, a compact store rounds every value it is given
      */
-    private void calculateDistance(double x1, double y1 ,  double x2,  double y2, double a) {
-        double dx = x2 - x1;
-        double dy = y2 - y1;
-        dx = checkdx(dx);
-        dy = checkdy(dy);
-        double distance = Math.sqrt( dx * dx + dy * dy);
-        if (distance > 0 && distance < rMax) {
-            double F = force(distance/rMax, a);
-            totalForcex += dx/distance * F;
-            totalForcey += dy/distance * F;
+    private void roundToPrecision() {
+        if (precision == Precision.DOUBLE || particles instanceof CompactParticleStore) {
+            return;
+        }
+        for (int i = 0; i < particles.size(); i++) {
+            particles.setX(i, precision.roundPosition(particles.getX(i), width));
+            particles.setY(i, precision.roundPosition(particles.getY(i), height));
+            particles.setXspeed(i, precision.roundSpeed(particles.getXspeed(i)));
+            particles.setYspeed(i, precision.roundSpeed(particles.getYspeed(i)));
         }
     }
 
@@ -143,8 +428,18 @@ public class ParticleManager {
      * @param a Attraction multiplier (can be negative for repulsion)
      * @return Force (double)
      */
-    private double force(double d, double a) {
-        double b = 0.2;
+    static double force(double d, double a) {
+        return force(d, a, FORCE_B);
+    }
+
+    /**
+     * Calculates the force of attraction with a given repulsion distance
+     * @param d distance between the particles relative to rMax
+     * @param a attraction multiplier (can be negative for repulsion)
+     * @param b distance (relative to rMax) below which particles always repel
+     * @return force
+     */
+    static double force(double d, double a, double b) {
         if (d < b) {
             return d/b - 1;
         } else if (b < d &&  d < 1) {
@@ -157,68 +452,48 @@ public class ParticleManager {
     /**
      * Prevents a particle from going offscreen
      * If a particle gets offscreen, is simply comes out of the other side
-     * @param particle
+     * @param value position on one axis
+     * @param size width or height of the world
+     * @return position inside the world
      */
-    private void setInFrame(Particle particle) {
-        if (particle.getX() > Frame.width) {
-            particle.setX(particle.getX() % Frame.width);
+    private static double inFrame(double value, int size) {
+        if (value > size) {
+            return value % size;
         }
-        if (particle.getX() < 0) {
-            particle.setX((particle.getX() % Frame.width + Frame.width) % Frame.width);
+        if (value < 0) {
+            return (value % size + size) % size;
         }
-        if (particle.getY() > Frame.height) {
-            particle.setY(particle.getY() % Frame.height);
-        } 
-        if (particle.getY() < 0) {
-            particle.setY((particle.getY() % Frame.height + Frame.height) % Frame.height);
-        } 
+        return value;
     }
 
     /**
-     * Checks if a distance in the x direction really is the shortest distance 
+     * Colors all particles of a snapshot for the current color method
+     * Only runs when a frame is drawn, from the speeds and the neighbor counts of the snapshot
+     * @param snapshot snapshot to color
      */
-    private double checkdx(double dx) {
-        if (dx > 0.5 * Frame.width) {
-            dx -= Frame.width;
+    private void updateColors(ParticleSnapshot snapshot) {
+        ParticleStore drawn = snapshot.getParticles();
+        ColorMethod method = colorMethod;
+        for (int i = 0; i < drawn.size(); i++) {
+            int rgb;
+            switch (method) {
+                case ColorMethod.SPEED:
+                    rgb = getColorBasedOnSpeed(drawn, i);
+                    break;
+                case ColorMethod.DENISTY:
+                    rgb = getColorBasedOnDensity(snapshot, i);
+                    break;
+                default:
+                    rgb = getColorBasedOnGroup(drawn, i);
+            }
+            drawn.setColor(i, rgb);
         }
-        if (dx < -0.5 * Frame.width) {
-            dx += Frame.width;
-        } 
-        return dx;
     }
 
     /**
-     * Checks if a distance in the y direction really is the shortest distance 
+     * Switches to the next color method
+     * The colors are made when drawing, so this does not change the cost of a tick
      */
-    private double checkdy(double dy) {
-        if (dy > 0.5 * Frame.height) {
-            dy -= Frame.height;
-        }
-        if (dy < -0.5 * Frame.height) {
-            dy += Frame.height;
-        }
-        return dy;
-    }
-
-    private void updateColor(Particle particle) {
-        Color color;
-
-        switch (colorMethod) {
-            case ColorMethod.GROUP:
-                color = getColorBasedOnGroup(particle);
-                break;
-            case ColorMethod.SPEED:
-                color = getColorBasedOnSpeed(particle);
-                break;
-            case ColorMethod.DENISTY:
-                color = setColorBasedOnDensity(particle);
-                break;
-            default:
-                color = getColorBasedOnGroup(particle);
-        }
-        particle.setColor(color);
-    }
-
     public void switchColorMethod() {
         switch (colorMethod) {
             case ColorMethod.GROUP:
@@ -233,47 +508,34 @@ public class ParticleManager {
         }
     }
 
-    private Color getColorBasedOnGroup(Particle particle) {
-        return particle.getGroupColor(particle.getGroupNumber());
+    private int getColorBasedOnGroup(ParticleStore particles, int index) {
+        return getGroupColor(particles.getGroup(index)).getRGB();
     }
 
-    private Color getColorBasedOnSpeed(Particle particle) {
-        //TODO: make this dynamic
-        int maxSpeed = 400; 
-
-        // Calculate the speed magnitude
-        double speed = Math.sqrt(particle.getXspeed() * particle.getXspeed() + particle.getYspeed() * particle.getYspeed());
-
-
-        double normalizedSpeed = Math.min(speed / maxSpeed, 1.0); 
-
-        // Interpolate between blue and red
-        int red = (int) (normalizedSpeed * 255); 
-        int blue = (int) ((1 - normalizedSpeed) * 255); 
+    /**
+     * Returns the color of a group
+     * @param group group of the particle
+     * @return color of the group
+     */
+    public static Color getGroupColor(int group) {
+        if (group >= 0 && group < GROUP_COLORS.length) {
+            return GROUP_COLORS[group];
+        }
+        return Color.white; // return white if no group is found
+    }
 
-        return new Color(red, 0, blue);
+    private int getColorBasedOnSpeed(ParticleStore particles, int index) {
+        //TODO: make this dynamic
+        double xspeed = particles.getXspeed(index);
+        double yspeed = particles.getYspeed(index);
+        double speed = Math.sqrt(xspeed * xspeed + yspeed * yspeed);
+        return ColorPalette.blueToRed(speed / MAX_SPEED);
     }
 
-    private Color setColorBasedOnDensity(Particle particle) {
+    private int getColorBasedOnDensity(ParticleSnapshot snapshot, int index) {
         //TODO: make this dynamic and right implementation of density
-        int maxDensity = 1200; 
-
-        int densityCount = 0;
-
-        // Calculate density
-        ArrayList<Particle> neighbors = grid.getNeighbors(particle);
-        for (@SuppressWarnings("unused") Particle neighbor : neighbors) {
-            densityCount++;
-        }
-
-        // Normalize the density
-        double normalizedDensity = Math.min((double) densityCount / maxDensity, 1.0); 
-
-        // Interpolate between blue and red based on density
-        int red = (int) (normalizedDensity * 255); 
-        int blue = (int) ((1 - normalizedDensity) * 255); 
-        
-        return new Color(red, 0, blue);
+        int densityCount = snapshot.getNeighborCount(index);
+        return ColorPalette.blueToRed(densityCount / MAX_DENSITY);
     }
 
     /**
@@ -283,15 +545,15 @@ public class ParticleManager {
      */
     public void showInfo(Graphics g, int borderOffset) {
         g.setColor(new Color(60, 60, 60, 80));
-        g.fillRect(Frame.width - 74, 0, 74, 126);
+        g.fillRect(width - 74, 0, 74, 166); // also behind the scheduler lines of the simulation
 
         g.setColor(Color.white);
-        g.drawString("rMax: " + Math.round(rMax * 10) / 10, Frame.width - borderOffset, 60);
-        g.drawString("dt: " + Math.round(dt * 10000) / 10000.0, Frame.width - borderOffset, 80);
-        g.drawString("fric: " + friction, Frame.width - borderOffset, 100);
-        g.drawString("F: " + Math.round(forceFactor * 10000) / 10000.0, Frame.width - borderOffset, 120);
+        g.drawString("rMax: " + Math.round(rMax * 10) / 10 + (meshActive ? " mesh" : ""), width - borderOffset, 60);
+        g.drawString("dt: " + Math.round(dt * 10000) / 10000.0, width - borderOffset, 80);
+        g.drawString("fric: " + friction, width - borderOffset, 100);
+        g.drawString("F: " + Math.round(forceFactor * 10000) / 10000.0, width - borderOffset, 120);
 
-        int startX = Frame.width - 200;
+        int startX = width - 200;
         int startY = 0;
         int cellSize = 21;
         for (int i = 0; i < attraction.length; i++) {
@@ -301,6 +563,43 @@ public class ParticleManager {
                 g.fillRect(startX + j * cellSize, startY + i * cellSize, cellSize, cellSize);
             }
         }
+
+        Profiler profiler = this.profiler;
+        if (profiler != null) {
+            showProfile(g, profiler);
+        }
+    }
+
+    /**
+     * Draws the p50, p99 and max time of every phase over the last second below the info
+     */
+    private void showProfile(Graphics g, Profiler profiler) {
+        int startX = width - 200;
+        int startY = 180;
+        int lineHeight = 16;
+        Profiler.Phase[] phases = Profiler.Phase.values();
+        g.setColor(new Color(60, 60, 60, 80));
+        g.fillRect(startX, startY, 200, (phases.length + 2) * lineHeight + 6);
+
+        g.setColor(Color.white);
+        g.drawString("ms", startX + 4, startY + lineHeight);
+        g.drawString("p50", startX + 84, startY + lineHeight);
+        g.drawString("p99", startX + 122, startY + lineHeight);
+        g.drawString("max", startX + 160, startY + lineHeight);
+        for (int i = 0; i < phases.length; i++) {
+            LatencyHistogram.Stats stats = profiler.getStats(phases[i]);
+            int y = startY + (i + 2) * lineHeight;
+            g.drawString(phases[i].name().toLowerCase(), startX + 4, y);
+            g.drawString(formatMillis(stats.getP50()), startX + 84, y);
+            g.drawString(formatMillis(stats.getP99()), startX + 122, y);
+            g.drawString(formatMillis(stats.getMax()), startX + 160, y);
+        }
+        g.drawString("pairs/tick: " + Math.round(profiler.getPairsPerTick()), startX + 4,
+                startY + (phases.length + 2) * lineHeight);
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.2f", nanos / 1000000.0);
     }
 
     private Color getGridColor(double value) {
@@ -328,13 +627,7 @@ public class ParticleManager {
      * Changes the glow boolean for the particle glow effect
      */
     public void changeGlow() {
-        for (Particle particle : particles) {
-            if (particle.isGlowEnabled()) {
-                particle.setGlow(false);
-            } else {
-                particle.setGlow(true);
-            }
-        }
+        glow = !glow;
     }
 
     /**
@@ -342,8 +635,8 @@ public class ParticleManager {
      * @param value Amount to be moved
      */
     public void moveParticlesX(int value) {
-        for (Particle particle : particles) {
-            particle.setX(particle.getX() + value);
+        for (int i = 0; i < particles.size(); i++) {
+            particles.setX(i, particles.getX(i) + value);
         }
     }
 
@@ -352,19 +645,51 @@ public class ParticleManager {
      * @param value Amount to be moved
      */
     public void moveParticlesY(int value) {
-        for (Particle particle : particles) {
-            particle.setY(particle.getY() + value);
+        for (int i = 0; i < particles.size(); i++) {
+            particles.setY(i, particles.getY(i) + value);
+        }
+    }
+
+    /**
+     * Copies the particles into a snapshot for the renderer
+     * Call from the thread which updates the particles, after the update.
+     * Never waits on the renderer, a snapshot which is not drawn yet is replaced by the new one
+     */
+    public void publishSnapshot() {
+        Profiler profiler = this.profiler;
+        long start = profiler != null ? System.nanoTime() : 0;
+        snapshots.getWriteBuffer().copyFrom(particles, neighborCount);
+        snapshots.publish();
+        if (profiler != null) {
+            profiler.record(Profiler.Phase.PUBLISH, System.nanoTime() - start, particles.size());
         }
     }
 
     /**
-     * Renders the particles
+     * Renders the particles of the newest published snapshot
+     * Only reads the snapshot, so it can run on another thread than the update.
+     * Draws nothing until the first snapshot is published
      * @param g Graphics g
      */
     public void render(Graphics g) {
         if (particlesCreated) {
-            for (Particle particle : particles) {
-                particle.render(g);
+            // All particles go into the pixels of one image, which is drawn at once
+            Profiler profiler = this.profiler;
+            long colorStart = profiler != null ? System.nanoTime() : 0;
+            ParticleSnapshot snapshot = snapshots.read();
+            ParticleStore drawn = snapshot.getParticles();
+            updateColors(snapshot);
+            long renderStart = profiler != null ? System.nanoTime() : 0;
+
+            rasterizer.clear(width, height);
+            rasterizer.drawParticles(drawn, radius);
+            if (glow) {
+                glowRenderer.draw(drawn, radius * 15, rasterizer.getPixels(), width, height);
+            }
+            g.drawImage(rasterizer.getImage(), 0, 0, null);
+            if (profiler != null) {
+                profiler.record(Profiler.Phase.COLOR, renderStart - colorStart, drawn.size());
+                profiler.record(Profiler.Phase.RENDER, System.nanoTime() - renderStart, drawn.size());
             }
 
             // for debugging
@@ -372,8 +697,11 @@ public class ParticleManager {
         }
     }
 
-
     // Getters and setters
+    public double[][] getAttraction() {
+        return attraction;
+    }
+
     public void setAttraction(double[][] attraction) {
         this.attraction = attraction;
     }
@@ -417,4 +745,508 @@ public class ParticleManager {
     public int getNumberOfGroups() {
         return numberOfGroups;
     }
+
+    /**
+     * Sets the number of particles created in each group
+     * Only has effect before the particles are created
+     * @param numberParticles number of particles in each group
+     */
+    public void setNumberParticles(int numberParticles) {
+        this.numberParticles = numberParticles;
+    }
+
+    /**
+     * Sets the number of groups
+     * Only has effect before the particles are created,
+     * resets the attraction matrix to only attract the own group
+     * @param numberOfGroups number of groups (1 - 127)
+     */
+    public void setNumberOfGroups(int numberOfGroups) {
+        this.numberOfGroups = numberOfGroups;
+        attraction = new double[numberOfGroups][numberOfGroups];
+        for (int i = 0; i < numberOfGroups; i++) {
+            attraction[i][i] = 1.0;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets the size of the (periodic) world
+     * @param width width of the world
+     * @param height height of the world
+     */
+    public void setWorldSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        if (particles instanceof CompactParticleStore compact) {
+            compact.setWorldSize(width, height);
+        }
+    }
+
+    /**
+     * Sets the seed of the random generator, so runs can be repeated
+     * @param seed seed for the random positions and attraction rules
+     */
+    public void setSeed(long seed) {
+        random = new Random(seed);
+    }
+
+    public ParticleStore getParticles() {
+        return particles;
+    }
+
+    /**
+     * Moves the particles to memory outside the Java heap, or back to the heap
+     * Outside the heap the particles are in one memory segment of an arena, or of a memory-mapped file which
+     * another process can read while the simulation runs (layout in SegmentParticleStore).
+     * Needs the build with -P ffm and java --enable-preview (java.lang.foreign is a preview API in Java 21),
+     * without them the particles stay on the heap. Not while update runs on another thread
+     * @param offHeap true to keep the particles outside the heap
+     * @param file file to map the particles to, created or replaced, null for memory which is not in a file
+     * @return true if the particles are where they were asked to be
+     * @throws IOException when the file cannot be mapped
+     */
+    public boolean setOffHeap(boolean offHeap, Path file) throws IOException {
+        int capacity = Math.max(particles.size(), numberOfGroups * numberParticles);
+        ParticleStore store;
+        if (!offHeap) {
+            store = createHeapStore(capacity);
+        } else {
+            store = createOffHeapStore(capacity, file);
+            if (store == null) {
+                return false;
+            }
+        }
+        store.copyFrom(particles);
+        particles.close();
+        particles = store;
+        return true;
+    }
+
+    public boolean isOffHeap() {
+        return particles.isOffHeap();
+    }
+
+    /**
+     * Creates an empty store outside the heap
+     * SegmentParticleStore is only compiled with -P ffm and only loads with java --enable-preview,
+     * so it is looked up by name
+     * @param capacity initial number of particles that fit without growing
+     * @param file file to map the particles to, null for memory which is not in a file
+     * @return empty store, null when the class is not there or does not load
+     * @throws IOException when the file cannot be mapped
+     */
+    private static ParticleStore createOffHeapStore(int capacity, Path file) throws IOException {
+        try {
+            Method create = Class.forName("project.particles.SegmentParticleStore")
+                    .getDeclaredMethod("create", int.class, Path.class);
+            return (ParticleStore) create.invoke(null, capacity, file);
+        } catch (ClassNotFoundException e) {
+            System.err.println("Off-heap particles need the build with -P ffm, keeping the particles on the heap");
+        } catch (LinkageError e) {
+            System.err.println("Off-heap particles need java --enable-preview, keeping the particles on the heap");
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        return null;
+    }
+
+    /**
+     * Creates an empty store on the heap for the precision
+     * Positions and speeds are 32 bit values in a compact store with FLOAT and FIXED
+     * @param capacity initial number of particles that fit without growing
+     * @return empty store
+     */
+    private ParticleStore createHeapStore(int capacity) {
+        if (precision == Precision.DOUBLE) {
+            return new ParticleStore(capacity);
+        }
+        return new CompactParticleStore(capacity, precision, width, height);
+    }
+
+    /**
+     * Returns the file the particles are mapped to
+     * @return file, null when the particles are on the heap or in memory which is not in a file
+     */
+    public Path getParticleFile() {
+        return particles.getFile();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns if the force pass uses the vector (SIMD) kernel
+     * @return true if the vector kernel is used
+     */
+    public boolean isSimdEnabled() {
+        if (precision != Precision.DOUBLE) {
+            return floatKernel instanceof VectorFloatForceKernel;
+        }
+        return tableKernel == null && kernel != null;
+    }
+
+    /**
+     * Turns the vector (SIMD) force kernel on or off
+     * Only turns on when the jdk.incubator.vector module is loaded, and not while the force table is used
+     * @param simd true to use the vector kernel, false for the scalar calculation
+     */
+    public void setSimd(boolean simd) {
+        this.simd = simd;
+        selectKernels();
+    }
+
+    /**
+     * Turns the force table on or off
+     * The table replaces the force calculation of every neighbor by a lookup and rejects the neighbors outside rMax
+     * on their squared distance. The table is relative to rMax and the attraction values, so changing those
+     * does not rebuild it. More intervals give a smaller error, see getForceTableError
+     * @param intervals number of intervals between distance 0 and rMax, 0 to calculate the force directly
+     * @param fastInverseSqrt true to use the fast inverse square root (relative error below 5e-6) instead of Math.sqrt
+     */
+    public void setForceTable(int intervals, boolean fastInverseSqrt) {
+        if (intervals <= 0) {
+            tableKernel = null;
+        } else if (tableKernel == null || tableKernel.getTable().getIntervals() != intervals
+                || tableKernel.getTable().getB() != FORCE_B || tableKernel.isFastInverseSqrt() != fastInverseSqrt) {
+            tableKernel = new TableForceKernel(new ForceTable(intervals, FORCE_B), fastInverseSqrt);
+        }
+        selectKernels();
+    }
+
+    /**
+     * Returns the number of intervals of the force table
+     * @return intervals, 0 when the force is calculated directly
+     */
+    public int getForceTableIntervals() {
+        return tableKernel == null ? 0 : tableKernel.getTable().getIntervals();
+    }
+
+    /**
+     * Returns how far the force table is from the analytic force
+     * The larger of the difference of the tabulated force itself and the difference per neighbor
+     * of the table kernel with the scalar kernel, on random batches of neighbors
+     * @return largest difference, 0 when the force is calculated directly
+     */
+    public double getForceTableError() {
+        if (tableKernel == null) {
+            return 0;
+        }
+        return Math.max(tableKernel.getTable().maxError(100000), ForceKernels.maxDifference(tableKernel, new ScalarForceKernel()));
+    }
+
+    /**
+     * Selects the kernels of the force pass from the force table and SIMD settings
+     */
+    private void selectKernels() {
+        if (tableKernel != null) {
+            kernel = tableKernel;
+            pairKernel = tableKernel;
+        } else {
+            kernel = simd ? ForceKernels.vector() : null;
+            pairKernel = simd ? vectorOrScalarPairKernel() : new ScalarPairKernel();
+        }
+        FloatForceKernel vectorFloat = simd ? ForceKernels.vectorFloat() : null;
+        if (precision == Precision.DOUBLE) {
+            floatKernel = null;
+        } else {
+            floatKernel = vectorFloat != null ? vectorFloat : new ScalarFloatForceKernel();
+        }
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets the numeric precision of the particle state and the force pass
+     * On the heap the particles move to a store of the precision, with FLOAT and FIXED the positions and speeds
+     * are then kept in 32 bits. Outside the heap the store keeps doubles, which are rounded to the precision.
+     * With FLOAT and FIXED the force is calculated in float from 32 bit copies of the positions in the grid,
+     * the force table, the half stencil and the Verlet lists are then not used.
+     * Not while update runs on another thread
+     * @param precision precision of the positions, speeds and forces
+     */
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+        selectKernels();
+        if (!particles.isOffHeap()) {
+            ParticleStore store = createHeapStore(Math.max(particles.size(), numberOfGroups * numberParticles));
+            store.copyFrom(particles);
+            particles = store;
+        }
+        roundToPrecision();
+    }
+
+    /**
+     * Returns how far the force of the precision is from the force in double
+     * The largest difference per neighbor of the float kernel with the scalar kernel, on random batches of neighbors
+     * @return largest difference, 0 with the DOUBLE precision
+     */
+    public double getPrecisionError() {
+        if (floatKernel == null) {
+            return 0;
+        }
+        return ForceKernels.maxDifference(ForceKernels.asForceKernel(floatKernel, precision), new ScalarForceKernel());
+    }
+
+    /**
+     * Sets when the particle-mesh approximation replaces the grid
+     * With an rMax close to the size of the world every cell of the grid sees almost every particle,
+     * the mesh costs the same for every rMax. Above the rMax the mesh is only used when a mesh within the error
+     * is estimated to cost less than the grid, so few particles stay on the grid. Not used while halo particles are set
+     * @param above rMax relative to the smaller side of the world above which the mesh is used, 0 to never use it
+     * @param error largest relative error of the forces (root mean square), the mesh is made finer until it is reached,
+     *        which is only cheap up to an rMax of about 0.6 times the smaller side of the world
+     */
+    public void setMesh(double above, double error) {
+        this.meshAbove = Math.max(0, above);
+        this.meshError = Math.max(0, error);
+    }
+
+    public double getMeshAbove() {
+        return meshAbove;
+    }
+
+    public double getMeshErrorLimit() {
+        return meshError;
+    }
+
+    /**
+     * Turns the automatic particle-mesh approximation off, or back on at a quarter of the world
+     */
+    public void switchMesh() {
+        meshAbove = meshAbove > 0 ? 0 : 0.25;
+    }
+
+    /**
+     * Returns if the last tick calculated the forces with the particle-mesh approximation
+     * @return true if the mesh was used
+     */
+    public boolean isMeshActive() {
+        return meshActive;
+    }
+
+    /**
+     * Returns if the last tick used the grid instead of the mesh because even the finest mesh was not within the error
+     * @return true if the mesh was not within the error
+     */
+    public boolean isMeshOverError() {
+        return meshOverError;
+    }
+
+    /**
+     * Returns if the last tick used the grid instead of the mesh because the grid was estimated cheaper
+     * @return true if the mesh was slower
+     */
+    public boolean isMeshSlower() {
+        return meshSlower;
+    }
+
+    /**
+     * Returns the relative error of the mesh forces, measured on a sample of particles at the last calibration
+     * @return root mean square of the difference with the exact forces over that of the exact forces
+     */
+    public double getMeshError() {
+        return meshSolver.getMeasuredError();
+    }
+
+    /**
+     * Returns the size of the mesh as columns x rows
+     * @return mesh size, 0x0 before the mesh was used
+     */
+    public String getMeshSize() {
+        return meshSolver.getCols() + "x" + meshSolver.getRows();
+    }
+
+    /**
+     * Returns the vector pair kernel if available, otherwise the scalar pair kernel
+     * @return pair kernel
+     */
+    private static PairKernel vectorOrScalarPairKernel() {
+        PairKernel vector = ForceKernels.vectorPair();
+        return vector != null ? vector : new ScalarPairKernel();
+    }
+
+    public boolean isSymmetric() {
+        return symmetric;
+    }
+
+    /**
+     * Turns the half stencil force calculation on or off
+     * Calculates every pair once and applies the force to both particles.
+     * Falls back to the full stencil when the grid is not larger than the stencil
+     * @param symmetric true to use the half stencil
+     */
+    public void setSymmetric(boolean symmetric) {
+        this.symmetric = symmetric;
+    }
+
+    /**
+     * Sets the number of threads used for the update
+     * @param threads number of threads, 1 runs the update on the calling thread
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getSubdivision() {
+        return subdivision;
+    }
+
+    /**
+     * Sets the number of grid cells per rMax
+     * Smaller cells give a stencil closer to the circle of rMax, so less pairs are checked,
+     * but more and shorter ranges per particle
+     * @param subdivision number of cells per rMax (at least 1)
+     */
+    public void setSubdivision(int subdivision) {
+        this.subdivision = Math.max(1, subdivision);
+    }
+
+    /**
+     * Turns the periodic reorder of the particles on or off
+     * Every so many ticks the particles are sorted along a space filling curve, before the grid is built
+     * (with Verlet lists at the first rebuild after that).
+     * The ids of the particles (ParticleStore.getId) stay the same, their indices change.
+     * Not done while halo particles are set
+     * @param everyTicks ticks between two reorders, 0 to keep the order
+     * @param curve curve to sort along
+     */
+    public void setReorder(int everyTicks, SpaceFillingCurve curve) {
+        this.reorderEvery = Math.max(0, everyTicks);
+        this.curve = curve;
+        this.ticksSinceReorder = 0;
+    }
+
+    public int getReorderEvery() {
+        return reorderEvery;
+    }
+
+    public SpaceFillingCurve getCurve() {
+        return curve;
+    }
+
+    /**
+     * Returns an estimate of the memory of the particles, force buffers and grid with the current settings
+     * Counts the particles which will be created (or exist, when that is more), not the Verlet lists
+     * or the buffers of the drawing. Used to limit the memory of many particle managers running at once
+     * @return estimate in bytes
+     */
+    public long estimateMemory() {
+        long n = Math.max(particles.size(), (long) numberOfGroups * numberParticles);
+        long cols = Math.max(1, (int) (width * subdivision / rMax));
+        long rows = Math.max(1, (int) (height * subdivision / rMax));
+        // store 37, forces and neighbor counts 20, grid order and sorted copies 28 bytes per particle,
+        // cell start and fill with some room. The reorder adds ids 8, spare arrays 13, sort keys and order 12 bytes
+        long reorder = reorderEvery > 0 ? 33 : 0;
+        // 32 bit sorted copies of the positions, and 32 bit positions and speeds in a compact store
+        long compact = precision == Precision.DOUBLE ? 0 : particles.isOffHeap() ? 8 : 24;
+        return n * (85 + reorder - compact) + (cols + 1) * (rows + 1) * 10 + 4096;
+    }
+
+    /**
+     * Marks particles as halo, they are neighbors of the other particles but are not moved themselves
+     * Used when the world is split over workers, the halo are copies of the particles of the other workers.
+     * With the scalar full stencil the forces on the other particles are the same, bit for bit,
+     * as when all particles are in one store, as long as the particles are in the same order
+     * @param halo true for every particle which is halo, null to update all particles
+     */
+    public void setHalo(boolean[] halo) {
+        this.halo = halo;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Sets the profiler which times the phases of the ticks and frames
+     * @param profiler profiler, null to stop timing
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Turns the profiler with one summary per second on or off
+     */
+    public void switchProfiler() {
+        Profiler current = profiler;
+        if (current == null) {
+            profiler = new Profiler(1000);
+        } else {
+            profiler = null;
+            current.close();
+        }
+    }
+
+    public boolean isVerlet() {
+        return verletList != null;
+    }
+
+    /**
+     * Turns the Verlet neighbor lists on or off
+     * The lists hold all particles within rMax + skin and are only rebuilt when a particle
+     * moved more than skin / 2, instead of rebuilding the grid every tick.
+     * The half stencil is not used with Verlet lists
+     * @param verlet true to use Verlet lists
+     */
+    public void setVerlet(boolean verlet) {
+        if (!verlet) {
+            verletList = null;
+        } else if (verletList == null) {
+            verletList = new VerletList();
+        }
+    }
+
+    public double getSkin() {
+        return skin;
+    }
+
+    /**
+     * Sets the extra distance of the Verlet lists
+     * A larger skin means longer lists but less rebuilds
+     * @param skin extra distance around rMax (0 or more)
+     */
+    public void setSkin(double skin) {
+        this.skin = Math.max(0, skin);
+    }
+
+    /**
+     * Returns how many times the Verlet lists were built
+     * @return number of builds, 0 without Verlet lists
+     */
+    public long getVerletRebuilds() {
+        return verletList == null ? 0 : verletList.getRebuilds();
+    }
+
+    /**
+     * Returns how many ticks used the Verlet lists
+     * @return number of ticks, 0 without Verlet lists
+     */
+    public long getVerletUpdates() {
+        return verletList == null ? 0 : verletList.getUpdates();
+    }
+
+    /**
+     * Returns the average number of neighbors in a Verlet list
+     * @return average list length of the last build, 0 without Verlet lists
+     */
+    public double getAverageVerletListLength() {
+        return verletList == null ? 0 : verletList.getAverageLength();
+    }
 }
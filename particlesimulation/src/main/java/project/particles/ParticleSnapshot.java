@@ -0,0 +1,42 @@
+package project.particles;
+
+import java.util.Arrays;
+
+/**
+ * Copy of the particles after a tick, handed from the simulation thread to the renderer
+ * Holds everything the renderer needs to color and draw the particles,
+ * so drawing does not read the particles which are being updated
+ */
+public class ParticleSnapshot {
+    private final ParticleStore particles = new ParticleStore(0);
+    private int[] neighborCount = new int[0];
+
+    /**
+     * Copies the particles and their neighbor counts
+     * @param source particles to copy
+     * @param neighborCount neighbors of every particle in the last force pass
+     */
+    void copyFrom(ParticleStore source, int[] neighborCount) {
+        particles.copyFrom(source);
+        int n = source.size();
+        if (this.neighborCount.length < n) {
+            this.neighborCount = new int[n];
+        }
+        int counted = Math.min(n, neighborCount.length); // before the first tick nothing is counted
+        System.arraycopy(neighborCount, 0, this.neighborCount, 0, counted);
+        Arrays.fill(this.neighborCount, counted, n, 0);
+    }
+
+    public ParticleStore getParticles() {
+        return particles;
+    }
+
+    /**
+     * Returns the number of neighbors of a particle in the force pass before the snapshot
+     * @param index index of the particle
+     * @return number of neighbors
+     */
+    public int getNeighborCount(int index) {
+        return neighborCount[index];
+    }
+}
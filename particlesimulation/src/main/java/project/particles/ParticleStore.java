@@ -0,0 +1,379 @@
+package project.particles;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class ParticleStore {
+    private double[] x;
+    private double[] y;
+    private double[] vx;
+    private double[] vy;
+    private byte[] group;
+    private int[] color;
+    private int size = 0;
+
+    // Stable particle ids, the id of a particle is the index it was added at.
+    // Both null while no reorder moved the particles, then every index is its own id
+    private int[] id;
+    private int[] indexOfId;
+
+    // Spare arrays for the reorder, the permuted array and the spare swap places
+    private double[] spareDouble = new double[0];
+    private int[] spareInt = new int[0];
+    private byte[] spareByte = new byte[0];
+
+    /**
+     * Structure-of-arrays storage for all particles
+     * Every particle is an index into parallel primitive arrays,
+     * so the update and render loops are plain linear scans
+     * @param capacity initial number of particles that fit without growing
+     */
+    public ParticleStore(int capacity) {
+        capacity = Math.max(capacity, 16);
+        x = new double[capacity];
+        y = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        group = new byte[capacity];
+        color = new int[capacity];
+    }
+
+    /**
+     * Store which keeps its particles outside these arrays, it overrides every method
+     * @see SegmentParticleStore
+     */
+    ParticleStore() {
+
+    }
+
+    /**
+     * Adds a particle to the store
+     * @param x location of the particle at the x-axis
+     * @param y location of the particle at the y-axis
+     * @param vx speed of the particle in the x-direction
+     * @param vy speed of the particle in the y-direction
+     * @param group group in which the particle belongs (0 - 127)
+     * @return index of the new particle
+     */
+    public int add(double x, double y, double vx, double vy, int group) {
+        if (size == this.x.length) {
+            grow(size * 2);
+        }
+        int index = size++;
+        this.x[index] = x;
+        this.y[index] = y;
+        this.vx[index] = vx;
+        this.vy[index] = vy;
+        this.group[index] = (byte) group;
+        if (id != null) {
+            id[index] = index;
+            indexOfId[index] = index;
+        }
+        return index;
+    }
+
+    /**
+     * Grows all arrays to the new capacity
+     * @param capacity new capacity
+     */
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        group = Arrays.copyOf(group, capacity);
+        color = Arrays.copyOf(color, capacity);
+        if (id != null) {
+            id = Arrays.copyOf(id, capacity);
+            indexOfId = Arrays.copyOf(indexOfId, capacity);
+        }
+    }
+
+    /**
+     * Makes this store a copy of another store
+     * Only grows the arrays when the other store does not fit
+     * @param other store to copy all particles from
+     */
+    public void copyFrom(ParticleStore other) {
+        other.copyTo(this);
+    }
+
+    /**
+     * Copies all particles into a store on the heap
+     * @param target store on the heap to copy to
+     */
+    void copyTo(ParticleStore target) {
+        if (target.x.length < size) {
+            target.grow(x.length);
+        }
+        target.size = size;
+        System.arraycopy(x, 0, target.x, 0, size);
+        System.arraycopy(y, 0, target.y, 0, size);
+        System.arraycopy(vx, 0, target.vx, 0, size);
+        System.arraycopy(vy, 0, target.vy, 0, size);
+        System.arraycopy(group, 0, target.group, 0, size);
+        System.arraycopy(color, 0, target.color, 0, size);
+        if (id == null) {
+            target.id = null;
+            target.indexOfId = null;
+        } else {
+            if (target.id == null || target.id.length < target.x.length) {
+                target.id = new int[target.x.length];
+                target.indexOfId = new int[target.x.length];
+            }
+            System.arraycopy(id, 0, target.id, 0, size);
+            System.arraycopy(indexOfId, 0, target.indexOfId, 0, size);
+        }
+    }
+
+    /**
+     * Sets the number of particles of a store on the heap which is filled with a copy through the arrays
+     * Grows the arrays when needed, the copied values are undefined until they are filled
+     * @param size new number of particles
+     * @param ordered true when the copied particles were reordered, the id arrays are then allocated to be filled
+     */
+    void resizeForCopy(int size, boolean ordered) {
+        if (x.length < size) {
+            grow(size);
+        }
+        this.size = size;
+        if (!ordered) {
+            id = null;
+            indexOfId = null;
+        } else if (id == null || id.length < x.length) {
+            id = new int[x.length];
+            indexOfId = new int[x.length];
+        }
+    }
+
+    /**
+     * Moves the particles to a new order, their ids stay the same
+     * @param order index of the particle which goes to index k, for every k, a permutation of [0, size)
+     */
+    void reorder(int[] order) {
+        if (id == null) {
+            id = new int[x.length];
+            indexOfId = new int[x.length];
+            for (int i = 0; i < size; i++) {
+                id[i] = i;
+            }
+        }
+        if (spareDouble.length < x.length) {
+            spareDouble = new double[x.length];
+            spareInt = new int[x.length];
+            spareByte = new byte[x.length];
+        }
+        // Every array is gathered into the spare array, which then takes its place
+        double[] previous = x;
+        x = gather(previous, order);
+        spareDouble = previous;
+        previous = y;
+        y = gather(previous, order);
+        spareDouble = previous;
+        previous = vx;
+        vx = gather(previous, order);
+        spareDouble = previous;
+        previous = vy;
+        vy = gather(previous, order);
+        spareDouble = previous;
+
+        int[] previousInt = color;
+        color = gather(previousInt, order);
+        spareInt = previousInt;
+        previousInt = id;
+        id = gather(previousInt, order);
+        spareInt = previousInt;
+
+        byte[] previousGroup = group;
+        for (int k = 0; k < size; k++) {
+            spareByte[k] = previousGroup[order[k]];
+        }
+        group = spareByte;
+        spareByte = previousGroup;
+
+        for (int k = 0; k < size; k++) {
+            indexOfId[id[k]] = k;
+        }
+    }
+
+    private double[] gather(double[] values, int[] order) {
+        double[] result = spareDouble;
+        for (int k = 0; k < size; k++) {
+            result[k] = values[order[k]];
+        }
+        return result;
+    }
+
+    private int[] gather(int[] values, int[] order) {
+        int[] result = spareInt;
+        for (int k = 0; k < size; k++) {
+            result[k] = values[order[k]];
+        }
+        return result;
+    }
+
+    /**
+     * Sets the number of particles, for filling the arrays in bulk
+     * Grows the arrays when needed, new particles have undefined values until they are filled
+     * @param size new number of particles
+     */
+    void resize(int size) {
+        if (x.length < size) {
+            grow(size);
+        }
+        this.size = size;
+        id = null; // filled in the order of the ids
+        indexOfId = null;
+    }
+
+    /**
+     * Removes all particles, keeps the allocated arrays
+     */
+    public void clear() {
+        size = 0;
+        id = null;
+        indexOfId = null;
+    }
+
+    /**
+     * Returns if the particles are outside the Java heap
+     * @return true for a store in off-heap or memory-mapped memory
+     */
+    public boolean isOffHeap() {
+        return false;
+    }
+
+    /**
+     * Returns the file the particles are mapped to
+     * @return file, null for a store on the heap or in memory which is not in a file
+     */
+    Path getFile() {
+        return null;
+    }
+
+    /**
+     * Releases the memory of a store outside the heap, the store cannot be used after it
+     * Does nothing for a store on the heap
+     */
+    public void close() {
+
+    }
+
+    /**
+     * Returns the number of particles in the store
+     * @return number of particles
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Returns the stable id of a particle, the index it was added at
+     * @param index current index of the particle
+     * @return id
+     */
+    public int getId(int index) {
+        return id == null ? index : id[index];
+    }
+
+    /**
+     * Returns the current index of a particle
+     * @param id stable id of the particle
+     * @return index
+     */
+    public int indexOf(int id) {
+        return indexOfId == null ? id : indexOfId[id];
+    }
+
+    // Getters and setters
+    public double getX(int index) {
+        return x[index];
+    }
+
+    public void setX(int index, double value) {
+        x[index] = value;
+    }
+
+    public double getY(int index) {
+        return y[index];
+    }
+
+    public void setY(int index, double value) {
+        y[index] = value;
+    }
+
+    public double getXspeed(int index) {
+        return vx[index];
+    }
+
+    public void setXspeed(int index, double value) {
+        vx[index] = value;
+    }
+
+    public double getYspeed(int index) {
+        return vy[index];
+    }
+
+    public void setYspeed(int index, double value) {
+        vy[index] = value;
+    }
+
+    public int getGroup(int index) {
+        return group[index];
+    }
+
+    public void setGroup(int index, int value) {
+        group[index] = (byte) value;
+    }
+
+    public int getColor(int index) {
+        return color[index];
+    }
+
+    public void setColor(int index, int rgb) {
+        color[index] = rgb;
+    }
+
+    // Arrays for bulk reads and writes, only the first size() entries are particles
+    // All null when the store is not on the heap, read and write through the getters and setters then
+    double[] getXArray() {
+        return x;
+    }
+
+    double[] getYArray() {
+        return y;
+    }
+
+    double[] getXspeedArray() {
+        return vx;
+    }
+
+    double[] getYspeedArray() {
+        return vy;
+    }
+
+    byte[] getGroupArray() {
+        return group;
+    }
+
+    int[] getColorArray() {
+        return color;
+    }
+
+    /**
+     * Returns the id of every index
+     * @return id of every index, null when every index is its own id
+     */
+    int[] getIdArray() {
+        return id;
+    }
+
+    /**
+     * Returns the index of every id, for reading the particles in the order of their ids
+     * @return index of every id, null when every index is its own id
+     */
+    int[] getIndexOfIdArray() {
+        return indexOfId;
+    }
+}
@@ -0,0 +1,29 @@
+package project.particles;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of one phase of a tick or a frame, only emitted while the profiler is on
+ */
+@Name("project.particles.Phase")
+@Label("Simulation Phase")
+@Category("Particle Simulation")
+@Description("Time of one phase of a tick or a drawn frame")
+@StackTrace(false)
+class PhaseEvent extends jdk.jfr.Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+
+    @Label("Particles")
+    int particles;
+}
@@ -0,0 +1,95 @@
+package project.particles;
+
+/**
+ * Numeric precision of the particle state and the force pass
+ * In the 32 bit modes the particles on the heap are in a CompactParticleStore, which keeps the positions and speeds
+ * in 32 bits. A store outside the heap keeps doubles, every value in it is rounded to one the mode can represent.
+ * The grid keeps its cell sorted copies of the positions in 32 bits, which halves the memory the force pass reads
+ * and doubles the number of neighbors per vector
+ */
+public enum Precision {
+    /**
+     * Positions and speeds in 64 bit floating point
+     */
+    DOUBLE,
+    /**
+     * Positions and speeds in 32 bit floating point
+     */
+    FLOAT,
+    /**
+     * Positions in 32 bit fixed point, speeds in 32 bit floating point
+     * The world is mapped on the full range of an int, so the periodic wrap is the overflow of the int addition,
+     * the difference of two positions is the shortest one without checks,
+     * and the cell of a position is a multiplication and a shift
+     */
+    FIXED;
+
+    private static final double FIXED_ONE = 4294967296.0; // 2^32, one world size in fixed point
+
+    /**
+     * Rounds a speed to the precision of the mode
+     * @param value speed
+     * @return nearest speed the mode can represent
+     */
+    double roundSpeed(double value) {
+        return this == DOUBLE ? value : (float) value;
+    }
+
+    /**
+     * Rounds a position inside the world to the precision of the mode
+     * @param value position, 0 until size
+     * @param size width or height of the world
+     * @return nearest position the mode can represent
+     */
+    double roundPosition(double value, int size) {
+        switch (this) {
+            case FLOAT:
+                return (float) value;
+            case FIXED:
+                return fromFixed(toFixed(value, size), size);
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Converts a position or a distance to fixed point
+     * Values outside the world wrap around, size itself is 0
+     * @param value position or distance
+     * @param size width or height of the world
+     * @return fixed point value, read as unsigned for a position and as signed for a distance
+     */
+    static int toFixed(double value, int size) {
+        return (int) Math.round(value * (FIXED_ONE / size));
+    }
+
+    /**
+     * Converts a fixed point position back to a position in the world
+     * Exact as long as the size is below 2^21
+     * @param fixed fixed point position, unsigned
+     * @param size width or height of the world
+     * @return position, 0 until size
+     */
+    static double fromFixed(int fixed, int size) {
+        return (fixed & 0xFFFFFFFFL) * (size / FIXED_ONE);
+    }
+
+    /**
+     * Returns the size of one step of the fixed point values
+     * @param size width or height of the world
+     * @return distance of fixed point 1
+     */
+    static double fixedStep(int size) {
+        return size / FIXED_ONE;
+    }
+
+    /**
+     * Returns the cell of a fixed point position, without a division
+     * @param fixed fixed point position, unsigned
+     * @param cells number of cells over the world
+     * @return cell, 0 until cells
+     */
+    static int fixedCell(int fixed, int cells) {
+        return (int) ((fixed & 0xFFFFFFFFL) * cells >>> 32);
+    }
+}
@@ -0,0 +1,205 @@
+package project.particles;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times the phases of the ticks and the drawn frames
+ * Every phase has a latency histogram, which is summarized (p50, p99, max) once per interval by a daemon thread.
+ * The summary is shown on the info overlay and can be appended to a CSV file.
+ * Every recorded phase is also a Flight Recorder event (project.particles.Phase), every tick a project.particles.Tick
+ * event with the neighbor pairs. The particle manager only calls the profiler when one is set, so without a
+ * profiler the phases are not timed at all
+ */
+public class Profiler implements AutoCloseable {
+
+    public enum Phase {
+        REORDER,
+        GRID,
+        FORCES,
+        INTEGRATION,
+        PUBLISH,
+        COLOR,
+        RENDER
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+    private final LatencyHistogram[] totals = new LatencyHistogram[PHASES.length]; // since the start
+    private final AtomicLong totalPairs = new AtomicLong();
+    private final AtomicLong totalTicks = new AtomicLong();
+    private final AtomicLong pairs = new AtomicLong();
+    private final AtomicLong ticks = new AtomicLong();
+    private final ScheduledExecutorService roller;
+    private final BufferedWriter csv;
+    private final long start = System.nanoTime();
+
+    // Summary of the last interval, read by the overlay
+    private volatile LatencyHistogram.Stats[] stats = new LatencyHistogram.Stats[PHASES.length];
+    private volatile double pairsPerTick = 0;
+
+    /**
+     * Starts a profiler without a CSV file
+     * @param intervalMillis time between two summaries
+     */
+    public Profiler(long intervalMillis) {
+        this(intervalMillis, null);
+    }
+
+    /**
+     * Starts a profiler
+     * @param intervalMillis time between two summaries
+     * @param csvPath file which gets a line per phase every summary, null for no file
+     * @throws UncheckedIOException when the CSV file cannot be created
+     */
+    public Profiler(long intervalMillis, Path csvPath) {
+        for (int i = 0; i < PHASES.length; i++) {
+            histograms[i] = new LatencyHistogram();
+            totals[i] = new LatencyHistogram();
+            stats[i] = LatencyHistogram.Stats.EMPTY;
+        }
+        try {
+            csv = csvPath == null ? null : Files.newBufferedWriter(csvPath);
+            if (csv != null) {
+                csv.write("seconds,phase,count,p50_ns,p99_ns,max_ns,pairs_per_tick");
+                csv.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create " + csvPath, e);
+        }
+        roller = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "profiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        roller.scheduleAtFixedRate(this::roll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records the time of a phase
+     * @param phase phase which was timed
+     * @param nanos time the phase took
+     * @param particles number of particles
+     */
+    public void record(Phase phase, long nanos, int particles) {
+        histograms[phase.ordinal()].record(nanos);
+        totals[phase.ordinal()].record(nanos);
+        PhaseEvent event = new PhaseEvent();
+        if (event.shouldCommit()) {
+            event.phase = phase.name();
+            event.time = nanos;
+            event.particles = particles;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records the neighbor pairs of a tick
+     * @param tickPairs neighbor pairs looked at in the tick
+     * @param particles number of particles
+     */
+    public void recordTick(long tickPairs, int particles) {
+        pairs.addAndGet(tickPairs);
+        ticks.incrementAndGet();
+        totalPairs.addAndGet(tickPairs);
+        totalTicks.incrementAndGet();
+        TickEvent event = new TickEvent();
+        if (event.shouldCommit()) {
+            event.pairs = tickPairs;
+            event.particles = particles;
+            event.commit();
+        }
+    }
+
+    /**
+     * Summarizes the histograms of the last interval and writes them to the CSV file
+     */
+    private void roll() {
+        LatencyHistogram.Stats[] next = new LatencyHistogram.Stats[PHASES.length];
+        for (int i = 0; i < PHASES.length; i++) {
+            next[i] = histograms[i].drain();
+        }
+        long tickCount = ticks.getAndSet(0);
+        long pairCount = pairs.getAndSet(0);
+        pairsPerTick = tickCount == 0 ? 0 : (double) pairCount / tickCount;
+        stats = next;
+
+        if (csv != null) {
+            try {
+                double seconds = (System.nanoTime() - start) / 1000000000.0;
+                for (int i = 0; i < PHASES.length; i++) {
+                    csv.write(String.format("%.3f,%s,%d,%d,%d,%d,%.0f", seconds, PHASES[i], next[i].getCount(),
+                            next[i].getP50(), next[i].getP99(), next[i].getMax(), pairsPerTick));
+                    csv.newLine();
+                }
+                csv.flush();
+            } catch (IOException e) {
+                System.err.println("Cannot write profile: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the summary of a phase over the last interval
+     * @param phase phase
+     * @return count, p50, p99 and max in nanoseconds
+     */
+    public LatencyHistogram.Stats getStats(Phase phase) {
+        return stats[phase.ordinal()];
+    }
+
+    /**
+     * Returns the average number of neighbor pairs per tick over the last interval
+     * @return neighbor pairs per tick
+     */
+    public double getPairsPerTick() {
+        return pairsPerTick;
+    }
+
+    /**
+     * Returns the summary of a phase since the start (or the last call), for a report at the end of a run
+     * @param phase phase
+     * @return count, p50, p99 and max in nanoseconds
+     */
+    public LatencyHistogram.Stats getTotalStats(Phase phase) {
+        return totals[phase.ordinal()].drain();
+    }
+
+    /**
+     * Returns the average number of neighbor pairs per tick since the start
+     * @return neighbor pairs per tick
+     */
+    public double getTotalPairsPerTick() {
+        long tickCount = totalTicks.get();
+        return tickCount == 0 ? 0 : (double) totalPairs.get() / tickCount;
+    }
+
+    /**
+     * Summarizes what was recorded since the last interval and stops the profiler
+     */
+    @Override
+    public void close() {
+        roller.shutdown();
+        try {
+            roller.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        roll();
+        if (csv != null) {
+            try {
+                csv.close();
+            } catch (IOException e) {
+                System.err.println("Cannot write profile: " + e.getMessage());
+            }
+        }
+    }
+}
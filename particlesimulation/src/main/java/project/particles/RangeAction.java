@@ -0,0 +1,65 @@
+package project.particles;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join action that splits an index range into chunks
+ * and runs a task on every chunk
+ * Never serialized, the task is a lambda
+ */
+@SuppressWarnings("serial")
+class RangeAction extends RecursiveAction {
+
+    /**
+     * Work on a range of particle indices
+     */
+    @FunctionalInterface
+    interface RangeTask {
+        /**
+         * @param from first index (inclusive)
+         * @param to last index (exclusive)
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs a range task, split over threads or not
+     */
+    @FunctionalInterface
+    interface RangeExecutor {
+        /**
+         * @param n number of indices, the task gets ranges of [0, n)
+         * @param grain maximum size of a range that runs on one thread
+         * @param task task to run
+         */
+        void forEachRange(int n, int grain, RangeTask task);
+    }
+
+    private final RangeTask task;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    /**
+     * @param task task to run on every chunk
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param grain maximum size of a chunk
+     */
+    RangeAction(RangeTask task, int from, int to, int grain) {
+        this.task = task;
+        this.from = from;
+        this.to = to;
+        this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= grain) {
+            task.run(from, to);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        invokeAll(new RangeAction(task, from, mid, grain), new RangeAction(task, mid, to, grain));
+    }
+}
@@ -0,0 +1,130 @@
+package project.particles;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Draws the particles straight into the pixels of an image
+ * Every particle is a disc mask copied into the int[] of a TYPE_INT_RGB image,
+ * the finished image is drawn with one drawImage per frame instead of a fillOval per particle
+ */
+public class Rasterizer {
+
+    private BufferedImage image;
+    private int[] pixels;
+    private int width;
+    private int height;
+
+    // Disc masks per radius, row dy of the disc covers x + spanStart[dy] until x + spanEnd[dy] (exclusive)
+    private int[][] spanStarts = new int[0][];
+    private int[][] spanEnds = new int[0][];
+
+    /**
+     * (Re)creates the image when the size changed
+     * @param width width of the image
+     * @param height height of the image
+     */
+    private void ensureImage(int width, int height) {
+        if (image == null || width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+    }
+
+    /**
+     * Clears the image to black
+     * @param width width of the image
+     * @param height height of the image
+     */
+    public void clear(int width, int height) {
+        ensureImage(width, height);
+        Arrays.fill(pixels, 0);
+    }
+
+    /**
+     * Draws every particle as a disc in its color
+     * Later particles are drawn over earlier ones, like with fillOval
+     * @param particles particles to draw
+     * @param radius radius of a particle
+     */
+    public void drawParticles(ParticleStore particles, int radius) {
+        ensureMask(radius);
+        int[] spanStart = spanStarts[radius];
+        int[] spanEnd = spanEnds[radius];
+        for (int i = 0; i < particles.size(); i++) {
+            int x = (int) particles.getX(i) - radius;
+            int y = (int) particles.getY(i) - radius;
+            int rgb = particles.getColor(i) & 0xffffff;
+            for (int dy = 0; dy < spanStart.length; dy++) {
+                int row = y + dy;
+                if (row < 0 || row >= height) {
+                    continue;
+                }
+                int from = Math.max(x + spanStart[dy], 0);
+                int to = Math.min(x + spanEnd[dy], width);
+                int offset = row * width;
+                for (int col = from; col < to; col++) {
+                    pixels[offset + col] = rgb;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the disc mask of a radius
+     * The mask is taken from fillOval on a small image, so the discs are the same pixels as before
+     * @param radius radius of a particle
+     */
+    private void ensureMask(int radius) {
+        if (radius < spanStarts.length && spanStarts[radius] != null) {
+            return;
+        }
+        if (radius >= spanStarts.length) {
+            spanStarts = Arrays.copyOf(spanStarts, radius + 1);
+            spanEnds = Arrays.copyOf(spanEnds, radius + 1);
+        }
+
+        int size = 2 * radius + 1;
+        BufferedImage disc = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = disc.createGraphics();
+        g.setColor(Color.white);
+        g.fillOval(0, 0, 2 * radius, 2 * radius);
+        g.dispose();
+
+        int[] spanStart = new int[size];
+        int[] spanEnd = new int[size];
+        for (int dy = 0; dy < size; dy++) {
+            for (int dx = 0; dx < size; dx++) {
+                if ((disc.getRGB(dx, dy) & 0xffffff) != 0) {
+                    if (spanEnd[dy] == 0) {
+                        spanStart[dy] = dx;
+                    }
+                    spanEnd[dy] = dx + 1;
+                }
+            }
+        }
+        spanStarts[radius] = spanStart;
+        spanEnds[radius] = spanEnd;
+    }
+
+    /**
+     * Returns the image with the drawn particles
+     * @return image, only valid until the next clear
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Returns the pixels of the image, one rgb int per pixel, row after row
+     * @return pixels of the image
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+}
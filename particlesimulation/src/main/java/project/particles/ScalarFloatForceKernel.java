@@ -0,0 +1,114 @@
+package project.particles;
+
+/**
+ * Float force kernel which handles one neighbor at a time
+ * Same calculation as ScalarForceKernel in float, used as fallback and as reference for the vector kernel
+ */
+class ScalarFloatForceKernel implements FloatForceKernel {
+
+    private static final float B = (float) ParticleManager.FORCE_B;
+
+    @Override
+    public void accumulate(float x, float y, float[] attraction, float[] bx, float[] by, int[] bg, int from, int to,
+            float rMax, int width, int height, double[] total) {
+        accumulateRange(x, y, attraction, bx, by, bg, from, to, rMax, width, height, total);
+    }
+
+    @Override
+    public void accumulateFixed(int x, int y, float[] attraction, int[] bx, int[] by, int[] bg, int from, int to,
+            float rMax, int width, int height, double[] total) {
+        accumulateFixedRange(x, y, attraction, bx, by, bg, from, to, rMax, width, height, total);
+    }
+
+    /**
+     * Static version of accumulate, for the tail of the vector kernel
+     * @see FloatForceKernel#accumulate
+     */
+    static void accumulateRange(float x, float y, float[] attraction, float[] bx, float[] by, int[] bg, int from, int to,
+            float rMax, int width, int height, double[] total) {
+        float squaredMax = rMax * rMax;
+        float halfWidth = 0.5f * width;
+        float halfHeight = 0.5f * height;
+        float totalForcex = 0;
+        float totalForcey = 0;
+        for (int i = from; i < to; i++) {
+            float dx = bx[i] - x;
+            float dy = by[i] - y;
+            if (dx > halfWidth) {
+                dx -= width;
+            }
+            if (dx < -halfWidth) {
+                dx += width;
+            }
+            if (dy > halfHeight) {
+                dy -= height;
+            }
+            if (dy < -halfHeight) {
+                dy += height;
+            }
+            float squared = dx * dx + dy * dy;
+            if (squared > 0 && squared < squaredMax) {
+                float distance = (float) Math.sqrt(squared);
+                float F = force(distance / rMax, attraction[bg[i]]);
+                totalForcex += dx / distance * F;
+                totalForcey += dy / distance * F;
+            }
+        }
+        total[0] += totalForcex;
+        total[1] += totalForcey;
+    }
+
+    /**
+     * Static version of accumulateFixed, for the tail of the vector kernel
+     * Calculates in double after the int subtraction: a scalar int to float conversion only writes part
+     * of its register, so every conversion waits for the square root of the neighbor before it.
+     * The conversion through the bits of a double does not, which makes the loop about twice as fast
+     * @see FloatForceKernel#accumulateFixed
+     */
+    static void accumulateFixedRange(int x, int y, float[] attraction, int[] bx, int[] by, int[] bg, int from, int to,
+            float rMax, int width, int height, double[] total) {
+        double squaredMax = (double) rMax * rMax;
+        double stepX = Precision.fixedStep(width);
+        double stepY = Precision.fixedStep(height);
+        double totalForcex = 0;
+        double totalForcey = 0;
+        for (int i = from; i < to; i++) {
+            double dx = toDouble(bx[i] - x) * stepX; // the int subtraction wraps around the world
+            double dy = toDouble(by[i] - y) * stepY;
+            double squared = dx * dx + dy * dy;
+            if (squared > 0 && squared < squaredMax) {
+                double distance = Math.sqrt(squared);
+                double F = ParticleManager.force(distance / rMax, attraction[bg[i]]);
+                totalForcex += dx / distance * F;
+                totalForcey += dy / distance * F;
+            }
+        }
+        total[0] += totalForcex;
+        total[1] += totalForcey;
+    }
+
+    /**
+     * Converts an int to a double by adding it to the bits of 1.5 * 2^52 and subtracting that again
+     * @param value any int
+     * @return value as double, exact
+     */
+    private static double toDouble(int value) {
+        return Double.longBitsToDouble(0x4338000000000000L + value) - 6755399441055744.0;
+    }
+
+    /**
+     * ParticleManager.force in float
+     * @param d distance between the particles relative to rMax
+     * @param a attraction multiplier
+     * @return force
+     */
+    static float force(float d, float a) {
+        if (d < B) {
+            return d / B - 1;
+        } else if (B < d && d < 1) {
+            return a * (1 - Math.abs(2 * d - 1 - B) / (1 - B));
+        } else {
+            return 0;
+        }
+    }
+}
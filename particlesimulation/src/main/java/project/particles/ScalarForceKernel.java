@@ -0,0 +1,50 @@
+package project.particles;
+
+/**
+ * Force kernel which handles one neighbor at a time
+ * Same calculation as ForceAccumulator.calculateDistance, used as fallback and as reference
+ */
+class ScalarForceKernel implements ForceKernel {
+
+    @Override
+    public void accumulate(double x, double y, double[] attraction, double[] bx, double[] by, int[] bg, int from, int to,
+            double rMax, int width, int height, double[] total) {
+        accumulateRange(x, y, attraction, bx, by, bg, from, to, rMax, width, height, total);
+    }
+
+    /**
+     * Static version of accumulate, for the tail of the vector kernel
+     * @see ForceKernel#accumulate
+     */
+    static void accumulateRange(double x, double y, double[] attraction, double[] bx, double[] by, int[] bg, int from, int to,
+            double rMax, int width, int height, double[] total) {
+        double squaredMax = rMax * rMax;
+        double totalForcex = 0;
+        double totalForcey = 0;
+        for (int i = from; i < to; i++) {
+            double dx = bx[i] - x;
+            double dy = by[i] - y;
+            if (dx > 0.5 * width) {
+                dx -= width;
+            }
+            if (dx < -0.5 * width) {
+                dx += width;
+            }
+            if (dy > 0.5 * height) {
+                dy -= height;
+            }
+            if (dy < -0.5 * height) {
+                dy += height;
+            }
+            double squared = dx * dx + dy * dy;
+            if (squared > 0 && squared < squaredMax) { // no square root for the neighbors outside rMax
+                double distance = Math.sqrt(squared);
+                double F = ParticleManager.force(distance / rMax, attraction[bg[i]]);
+                totalForcex += dx / distance * F;
+                totalForcey += dy / distance * F;
+            }
+        }
+        total[0] += totalForcex;
+        total[1] += totalForcey;
+    }
+}
@@ -0,0 +1,56 @@
+package project.particles;
+
+/**
+ * Pair kernel which handles one neighbor at a time
+ * Used as fallback and as reference for the vector pair kernel
+ */
+class ScalarPairKernel implements PairKernel {
+
+    @Override
+    public void accumulate(double x, double y, double[] attraction, double[] reaction, double[] bx, double[] by, int[] bg,
+            int from, int to, double rMax, int width, int height, double[] fx, double[] fy, double[] total) {
+        accumulateRange(x, y, attraction, reaction, bx, by, bg, from, to, rMax, width, height, fx, fy, total);
+    }
+
+    /**
+     * Static version of accumulate, for the tail of the vector pair kernel
+     * @see PairKernel#accumulate
+     */
+    static void accumulateRange(double x, double y, double[] attraction, double[] reaction, double[] bx, double[] by, int[] bg,
+            int from, int to, double rMax, int width, int height, double[] fx, double[] fy, double[] total) {
+        double squaredMax = rMax * rMax;
+        double totalForcex = 0;
+        double totalForcey = 0;
+        for (int i = from; i < to; i++) {
+            double dx = bx[i] - x;
+            double dy = by[i] - y;
+            if (dx > 0.5 * width) {
+                dx -= width;
+            }
+            if (dx < -0.5 * width) {
+                dx += width;
+            }
+            if (dy > 0.5 * height) {
+                dy -= height;
+            }
+            if (dy < -0.5 * height) {
+                dy += height;
+            }
+            double squared = dx * dx + dy * dy;
+            if (squared > 0 && squared < squaredMax) { // no square root for the neighbors outside rMax
+                double distance = Math.sqrt(squared);
+                double d = distance / rMax;
+                double ux = dx / distance;
+                double uy = dy / distance;
+                double F = ParticleManager.force(d, attraction[bg[i]]);
+                double R = ParticleManager.force(d, reaction[bg[i]]);
+                totalForcex += ux * F;
+                totalForcey += uy * F;
+                fx[i] -= ux * R;
+                fy[i] -= uy * R;
+            }
+        }
+        total[0] += totalForcex;
+        total[1] += totalForcey;
+    }
+}
@@ -0,0 +1,368 @@
+package project.particles;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Particle store outside the Java heap, in memory of an arena or in a memory-mapped file
+ * The same structure of arrays as ParticleStore, every array is a part of one memory segment.
+ * The garbage collector never sees the particles, so the heap only has to hold the grid and the forces,
+ * and a mapped file can be read by another process while the simulation runs.
+ *
+ * Layout (native byte order), a header of 64 bytes followed by the arrays of capacity entries:
+ * int magic, int version, int capacity, int size, int ordered (1 when the ids are not the indices),
+ * then x, y, x speed, y speed (double), color, id, index of id (int) and group (byte).
+ * The header is written when the number of particles or the capacity changes
+ *
+ * java.lang.foreign is a preview API in Java 21, this class only loads with java --enable-preview
+ */
+class SegmentParticleStore extends ParticleStore {
+
+    static final int MAGIC = 0x50534547; // "PSEG"
+    static final int VERSION = 1;
+    static final long HEADER_SIZE = 64;
+    private static final long BYTES_PER_PARTICLE = 4 * 8 + 3 * 4 + 1;
+
+    private final Path file; // null for memory of an arena
+    private Arena arena;
+    private MemorySegment segment;
+    private MemorySegment x;
+    private MemorySegment y;
+    private MemorySegment vx;
+    private MemorySegment vy;
+    private MemorySegment color;
+    private MemorySegment id;
+    private MemorySegment indexOfId;
+    private MemorySegment group;
+    private MemorySegment spare; // for the reorder, null until the first reorder after allocating
+    private int capacity;
+    private int size = 0;
+    private boolean ordered = false; // the ids are only stored after a reorder, before it every index is its own id
+
+    private SegmentParticleStore(int capacity, Path file) throws IOException {
+        this.file = file;
+        allocate(Math.max(capacity, 16));
+    }
+
+    /**
+     * Creates a store outside the heap
+     * Returns the store as ParticleStore, so a caller only loads this class when it calls this method
+     * @param capacity initial number of particles that fit without growing
+     * @param file file to map the particles to, created or replaced, null for memory which is not in a file
+     * @return empty store
+     * @throws IOException when the file cannot be mapped
+     */
+    static ParticleStore create(int capacity, Path file) throws IOException {
+        return new SegmentParticleStore(capacity, file);
+    }
+
+    /**
+     * Allocates or maps the segment for a capacity and slices the arrays out of it
+     * The previous segment is not released, the caller closes its arena
+     */
+    private void allocate(int capacity) throws IOException {
+        long bytes = HEADER_SIZE + BYTES_PER_PARTICLE * capacity;
+        arena = Arena.ofShared(); // read by the threads of the force pass
+        if (file == null) {
+            segment = arena.allocate(bytes, HEADER_SIZE);
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(bytes);
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes, arena);
+            }
+        }
+        this.capacity = capacity;
+        x = column(0, 8);
+        y = column(1, 8);
+        vx = column(2, 8);
+        vy = column(3, 8);
+        color = segment.asSlice(HEADER_SIZE + 32L * capacity, 4L * capacity);
+        id = segment.asSlice(HEADER_SIZE + 36L * capacity, 4L * capacity);
+        indexOfId = segment.asSlice(HEADER_SIZE + 40L * capacity, 4L * capacity);
+        group = segment.asSlice(HEADER_SIZE + 44L * capacity, capacity);
+        spare = null;
+        segment.set(ValueLayout.JAVA_INT, 0, MAGIC);
+        segment.set(ValueLayout.JAVA_INT, 4, VERSION);
+        segment.set(ValueLayout.JAVA_INT, 8, capacity);
+        writeSize();
+    }
+
+    private MemorySegment column(int index, int bytes) {
+        return segment.asSlice(HEADER_SIZE + (long) index * bytes * capacity, (long) bytes * capacity);
+    }
+
+    private void writeSize() {
+        segment.set(ValueLayout.JAVA_INT, 12, size);
+        segment.set(ValueLayout.JAVA_INT, 16, ordered ? 1 : 0);
+    }
+
+    /**
+     * Grows the segment to the new capacity, keeps the particles
+     * A mapped file is copied to memory first, the larger mapping moves every array in the file
+     * @param capacity new capacity
+     */
+    private void grow(int capacity) {
+        Arena previousArena = arena;
+        MemorySegment previous = segment;
+        int previousCapacity = this.capacity;
+        try {
+            if (file != null) {
+                Arena copyArena = Arena.ofConfined();
+                previous = copyArena.allocate(previous.byteSize(), HEADER_SIZE).copyFrom(previous);
+                previousArena.close();
+                previousArena = copyArena;
+            }
+            allocate(capacity);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot grow the particle file " + file + ": " + e.getMessage(), e);
+        }
+        long offset = HEADER_SIZE;
+        long newOffset = HEADER_SIZE;
+        for (int bytes : new int[] {8, 8, 8, 8, 4, 4, 4, 1}) {
+            MemorySegment.copy(previous, offset, segment, newOffset, (long) bytes * size);
+            offset += (long) bytes * previousCapacity;
+            newOffset += (long) bytes * capacity;
+        }
+        previousArena.close();
+    }
+
+    @Override
+    public int add(double x, double y, double vx, double vy, int group) {
+        if (size == capacity) {
+            grow(size * 2);
+        }
+        int index = size++;
+        this.x.setAtIndex(ValueLayout.JAVA_DOUBLE, index, x);
+        this.y.setAtIndex(ValueLayout.JAVA_DOUBLE, index, y);
+        this.vx.setAtIndex(ValueLayout.JAVA_DOUBLE, index, vx);
+        this.vy.setAtIndex(ValueLayout.JAVA_DOUBLE, index, vy);
+        this.group.set(ValueLayout.JAVA_BYTE, index, (byte) group);
+        if (ordered) {
+            id.setAtIndex(ValueLayout.JAVA_INT, index, index);
+            indexOfId.setAtIndex(ValueLayout.JAVA_INT, index, index);
+        }
+        writeSize();
+        return index;
+    }
+
+    @Override
+    public void copyFrom(ParticleStore other) {
+        if (capacity < other.size()) {
+            grow(other.size());
+        }
+        size = other.size();
+        if (other instanceof SegmentParticleStore segmentStore) {
+            ordered = segmentStore.ordered;
+            MemorySegment.copy(segmentStore.x, 0, x, 0, 8L * size);
+            MemorySegment.copy(segmentStore.y, 0, y, 0, 8L * size);
+            MemorySegment.copy(segmentStore.vx, 0, vx, 0, 8L * size);
+            MemorySegment.copy(segmentStore.vy, 0, vy, 0, 8L * size);
+            MemorySegment.copy(segmentStore.color, 0, color, 0, 4L * size);
+            MemorySegment.copy(segmentStore.id, 0, id, 0, 4L * size);
+            MemorySegment.copy(segmentStore.indexOfId, 0, indexOfId, 0, 4L * size);
+            MemorySegment.copy(segmentStore.group, 0, group, 0, size);
+        } else if (other.getXArray() == null) {
+            // A compact store, the 32 bit values are widened through the getters
+            ordered = other.getIdArray() != null;
+            for (int i = 0; i < size; i++) {
+                setX(i, other.getX(i));
+                setY(i, other.getY(i));
+                setXspeed(i, other.getXspeed(i));
+                setYspeed(i, other.getYspeed(i));
+                setColor(i, other.getColor(i));
+                setGroup(i, other.getGroup(i));
+                if (ordered) {
+                    id.setAtIndex(ValueLayout.JAVA_INT, i, other.getId(i));
+                    indexOfId.setAtIndex(ValueLayout.JAVA_INT, i, other.indexOf(i));
+                }
+            }
+        } else {
+            ordered = other.getIdArray() != null;
+            MemorySegment.copy(other.getXArray(), 0, x, ValueLayout.JAVA_DOUBLE, 0, size);
+            MemorySegment.copy(other.getYArray(), 0, y, ValueLayout.JAVA_DOUBLE, 0, size);
+            MemorySegment.copy(other.getXspeedArray(), 0, vx, ValueLayout.JAVA_DOUBLE, 0, size);
+            MemorySegment.copy(other.getYspeedArray(), 0, vy, ValueLayout.JAVA_DOUBLE, 0, size);
+            MemorySegment.copy(other.getColorArray(), 0, color, ValueLayout.JAVA_INT, 0, size);
+            if (ordered) {
+                MemorySegment.copy(other.getIdArray(), 0, id, ValueLayout.JAVA_INT, 0, size);
+                MemorySegment.copy(other.getIndexOfIdArray(), 0, indexOfId, ValueLayout.JAVA_INT, 0, size);
+            }
+            MemorySegment.copy(other.getGroupArray(), 0, group, ValueLayout.JAVA_BYTE, 0, size);
+        }
+        writeSize();
+    }
+
+    @Override
+    void copyTo(ParticleStore target) {
+        target.resizeForCopy(size, ordered);
+        MemorySegment.copy(x, ValueLayout.JAVA_DOUBLE, 0, target.getXArray(), 0, size);
+        MemorySegment.copy(y, ValueLayout.JAVA_DOUBLE, 0, target.getYArray(), 0, size);
+        MemorySegment.copy(vx, ValueLayout.JAVA_DOUBLE, 0, target.getXspeedArray(), 0, size);
+        MemorySegment.copy(vy, ValueLayout.JAVA_DOUBLE, 0, target.getYspeedArray(), 0, size);
+        MemorySegment.copy(color, ValueLayout.JAVA_INT, 0, target.getColorArray(), 0, size);
+        if (ordered) {
+            MemorySegment.copy(id, ValueLayout.JAVA_INT, 0, target.getIdArray(), 0, size);
+            MemorySegment.copy(indexOfId, ValueLayout.JAVA_INT, 0, target.getIndexOfIdArray(), 0, size);
+        }
+        MemorySegment.copy(group, ValueLayout.JAVA_BYTE, 0, target.getGroupArray(), 0, size);
+    }
+
+    /**
+     * Moves the particles to a new order, their ids stay the same
+     * Every array is gathered into the spare segment and copied back, so a mapped file stays in place
+     * @param order index of the particle which goes to index k, for every k, a permutation of [0, size)
+     */
+    @Override
+    void reorder(int[] order) {
+        if (!ordered) {
+            for (int i = 0; i < size; i++) {
+                id.setAtIndex(ValueLayout.JAVA_INT, i, i);
+            }
+            ordered = true;
+        }
+        if (spare == null) {
+            spare = arena.allocate(8L * capacity, 8);
+        }
+        for (MemorySegment column : new MemorySegment[] {x, y, vx, vy}) {
+            for (int k = 0; k < size; k++) {
+                spare.setAtIndex(ValueLayout.JAVA_DOUBLE, k, column.getAtIndex(ValueLayout.JAVA_DOUBLE, order[k]));
+            }
+            MemorySegment.copy(spare, 0, column, 0, 8L * size);
+        }
+        for (MemorySegment column : new MemorySegment[] {color, id}) {
+            for (int k = 0; k < size; k++) {
+                spare.setAtIndex(ValueLayout.JAVA_INT, k, column.getAtIndex(ValueLayout.JAVA_INT, order[k]));
+            }
+            MemorySegment.copy(spare, 0, column, 0, 4L * size);
+        }
+        for (int k = 0; k < size; k++) {
+            spare.set(ValueLayout.JAVA_BYTE, k, group.get(ValueLayout.JAVA_BYTE, order[k]));
+        }
+        MemorySegment.copy(spare, 0, group, 0, size);
+
+        for (int k = 0; k < size; k++) {
+            indexOfId.setAtIndex(ValueLayout.JAVA_INT, id.getAtIndex(ValueLayout.JAVA_INT, k), k);
+        }
+        writeSize();
+    }
+
+    @Override
+    void resize(int size) {
+        if (capacity < size) {
+            grow(size);
+        }
+        this.size = size;
+        ordered = false; // filled in the order of the ids
+        writeSize();
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        ordered = false;
+        writeSize();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+
+    @Override
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Writes a mapped file to disk and releases the segment
+     */
+    @Override
+    public void close() {
+        if (file != null) {
+            segment.force();
+        }
+        arena.close();
+    }
+
+    @Override
+    public int getId(int index) {
+        return ordered ? id.getAtIndex(ValueLayout.JAVA_INT, index) : index;
+    }
+
+    @Override
+    public int indexOf(int id) {
+        return ordered ? indexOfId.getAtIndex(ValueLayout.JAVA_INT, id) : id;
+    }
+
+    // Getters and setters
+    @Override
+    public double getX(int index) {
+        return x.getAtIndex(ValueLayout.JAVA_DOUBLE, index);
+    }
+
+    @Override
+    public void setX(int index, double value) {
+        x.setAtIndex(ValueLayout.JAVA_DOUBLE, index, value);
+    }
+
+    @Override
+    public double getY(int index) {
+        return y.getAtIndex(ValueLayout.JAVA_DOUBLE, index);
+    }
+
+    @Override
+    public void setY(int index, double value) {
+        y.setAtIndex(ValueLayout.JAVA_DOUBLE, index, value);
+    }
+
+    @Override
+    public double getXspeed(int index) {
+        return vx.getAtIndex(ValueLayout.JAVA_DOUBLE, index);
+    }
+
+    @Override
+    public void setXspeed(int index, double value) {
+        vx.setAtIndex(ValueLayout.JAVA_DOUBLE, index, value);
+    }
+
+    @Override
+    public double getYspeed(int index) {
+        return vy.getAtIndex(ValueLayout.JAVA_DOUBLE, index);
+    }
+
+    @Override
+    public void setYspeed(int index, double value) {
+        vy.setAtIndex(ValueLayout.JAVA_DOUBLE, index, value);
+    }
+
+    @Override
+    public int getGroup(int index) {
+        return group.get(ValueLayout.JAVA_BYTE, index);
+    }
+
+    @Override
+    public void setGroup(int index, int value) {
+        group.set(ValueLayout.JAVA_BYTE, index, (byte) value);
+    }
+
+    @Override
+    public int getColor(int index) {
+        return color.getAtIndex(ValueLayout.JAVA_INT, index);
+    }
+
+    @Override
+    public void setColor(int index, int rgb) {
+        color.setAtIndex(ValueLayout.JAVA_INT, index, rgb);
+    }
+}
@@ -0,0 +1,66 @@
+package project.particles;
+
+/**
+ * Curves through the cells of a square grid of 2^bits by 2^bits cells
+ * Cells close to eachother on the curve are close to eachother in the world,
+ * so particles sorted on the curve have their neighbors close by in memory
+ */
+public enum SpaceFillingCurve {
+    /**
+     * Z-order, interleaves the bits of the column and the row
+     */
+    MORTON {
+        @Override
+        long index(int bits, int col, int row) {
+            return spread(col) | spread(row) << 1;
+        }
+    },
+    /**
+     * Hilbert curve, every step of the curve goes to a cell which shares a side
+     */
+    HILBERT {
+        @Override
+        long index(int bits, int col, int row) {
+            int last = (1 << bits) - 1;
+            long index = 0;
+            for (int s = 1 << (bits - 1); s > 0; s >>= 1) {
+                int rx = (col & s) > 0 ? 1 : 0;
+                int ry = (row & s) > 0 ? 1 : 0;
+                index += (long) s * s * ((3 * rx) ^ ry);
+                // Rotates the quadrant, so the curve of the quadrant starts and ends at the right corners
+                if (ry == 0) {
+                    if (rx == 1) {
+                        col = last - col;
+                        row = last - row;
+                    }
+                    int swap = col;
+                    col = row;
+                    row = swap;
+                }
+            }
+            return index;
+        }
+    };
+
+    /**
+     * Returns the position of a cell on the curve
+     * @param bits bits of the column and row (at most 31)
+     * @param col column, 0 until 2^bits
+     * @param row row, 0 until 2^bits
+     * @return position on the curve, 0 until 4^bits
+     */
+    abstract long index(int bits, int col, int row);
+
+    /**
+     * Puts a zero bit between every two bits of a value
+     */
+    private static long spread(int value) {
+        long v = value & 0xFFFFFFFFL;
+        v = (v | v << 16) & 0x0000FFFF0000FFFFL;
+        v = (v | v << 8) & 0x00FF00FF00FF00FFL;
+        v = (v | v << 4) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | v << 2) & 0x3333333333333333L;
+        v = (v | v << 1) & 0x5555555555555555L;
+        return v;
+    }
+}
@@ -0,0 +1,103 @@
+package project.particles;
+
+/**
+ * Force kernel which looks the force up in a force table
+ * Neighbors outside rMax are rejected on the squared distance, before any square root.
+ * The remaining neighbors need one inverse square root, from Math.sqrt or from the fast inverse square root
+ */
+class TableForceKernel implements ForceKernel, PairKernel {
+
+    private final ForceTable table;
+    private final boolean fastInverseSqrt;
+
+    /**
+     * @param table force table
+     * @param fastInverseSqrt true to use the fast inverse square root instead of Math.sqrt
+     */
+    TableForceKernel(ForceTable table, boolean fastInverseSqrt) {
+        this.table = table;
+        this.fastInverseSqrt = fastInverseSqrt;
+    }
+
+    ForceTable getTable() {
+        return table;
+    }
+
+    boolean isFastInverseSqrt() {
+        return fastInverseSqrt;
+    }
+
+    @Override
+    public void accumulate(double x, double y, double[] attraction, double[] bx, double[] by, int[] bg, int from, int to,
+            double rMax, int width, int height, double[] total) {
+        double squaredMax = rMax * rMax;
+        double inverseMax = 1.0 / rMax;
+        double totalForcex = 0;
+        double totalForcey = 0;
+        for (int i = from; i < to; i++) {
+            double dx = bx[i] - x;
+            double dy = by[i] - y;
+            if (dx > 0.5 * width) {
+                dx -= width;
+            }
+            if (dx < -0.5 * width) {
+                dx += width;
+            }
+            if (dy > 0.5 * height) {
+                dy -= height;
+            }
+            if (dy < -0.5 * height) {
+                dy += height;
+            }
+            double squared = dx * dx + dy * dy;
+            if (squared > 0 && squared < squaredMax) {
+                double inverse = fastInverseSqrt ? ForceTable.inverseSqrt(squared) : 1.0 / Math.sqrt(squared);
+                double F = table.force(squared * inverse * inverseMax, attraction[bg[i]]);
+                totalForcex += dx * inverse * F;
+                totalForcey += dy * inverse * F;
+            }
+        }
+        total[0] += totalForcex;
+        total[1] += totalForcey;
+    }
+
+    @Override
+    public void accumulate(double x, double y, double[] attraction, double[] reaction, double[] bx, double[] by, int[] bg,
+            int from, int to, double rMax, int width, int height, double[] fx, double[] fy, double[] total) {
+        double squaredMax = rMax * rMax;
+        double inverseMax = 1.0 / rMax;
+        double totalForcex = 0;
+        double totalForcey = 0;
+        for (int i = from; i < to; i++) {
+            double dx = bx[i] - x;
+            double dy = by[i] - y;
+            if (dx > 0.5 * width) {
+                dx -= width;
+            }
+            if (dx < -0.5 * width) {
+                dx += width;
+            }
+            if (dy > 0.5 * height) {
+                dy -= height;
+            }
+            if (dy < -0.5 * height) {
+                dy += height;
+            }
+            double squared = dx * dx + dy * dy;
+            if (squared > 0 && squared < squaredMax) {
+                double inverse = fastInverseSqrt ? ForceTable.inverseSqrt(squared) : 1.0 / Math.sqrt(squared);
+                double d = squared * inverse * inverseMax;
+                double ux = dx * inverse;
+                double uy = dy * inverse;
+                double F = table.force(d, attraction[bg[i]]);
+                double R = table.force(d, reaction[bg[i]]);
+                totalForcex += ux * F;
+                totalForcey += uy * F;
+                fx[i] -= ux * R;
+                fy[i] -= uy * R;
+            }
+        }
+        total[0] += totalForcex;
+        total[1] += totalForcey;
+    }
+}
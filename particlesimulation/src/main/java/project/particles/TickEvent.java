@@ -0,0 +1,24 @@
+package project.particles;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of the neighbor pairs of a tick, only emitted while the profiler is on
+ */
+@Name("project.particles.Tick")
+@Label("Simulation Tick")
+@Category("Particle Simulation")
+@Description("Neighbor pairs looked at in one tick")
+@StackTrace(false)
+class TickEvent extends jdk.jfr.Event {
+
+    @Label("Neighbor Pairs")
+    long pairs;
+
+    @Label("Particles")
+    int particles;
+}
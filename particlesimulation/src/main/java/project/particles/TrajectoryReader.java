@@ -0,0 +1,261 @@
+package project.particles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a recording of TrajectoryRecorder
+ * Any frame can be read, the reader decodes from the key frame before it.
+ * Reading the frames in order only decodes each frame once
+ */
+public class TrajectoryReader implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int every;
+    private final int count;
+    private final byte[] groups;
+
+    private long[] frameOffset;
+    private long[] frameTick;
+    private byte[] frameType;
+    private int frames;
+
+    // Decoded frame
+    private final char[] x;
+    private final char[] y;
+    private int current = -1;
+    private ByteBuffer data = ByteBuffer.allocate(0);
+
+    /**
+     * Opens a recording and reads its frame index
+     * Without an index (the recording was not closed) the frames are found from their headers
+     * @param path file written by TrajectoryRecorder
+     * @throws IOException when the file cannot be read or is not a recording
+     */
+    public TrajectoryReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, 24);
+            if (header.getInt() != TrajectoryRecorder.MAGIC) {
+                throw new IOException("Not a trajectory: " + path);
+            }
+            int version = header.getInt();
+            if (version != TrajectoryRecorder.VERSION) {
+                throw new IOException("Unsupported trajectory version " + version + ": " + path);
+            }
+            width = header.getInt();
+            height = header.getInt();
+            every = header.getInt();
+            count = header.getInt();
+            groups = new byte[count];
+            read(24, count).get(groups);
+            x = new char[count];
+            y = new char[count];
+            if (!readIndex()) {
+                scanFrames(24 + count);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the index at the end of the file
+     * @return false when the file has no index
+     */
+    private boolean readIndex() throws IOException {
+        long size = channel.size();
+        if (size < 24 + count + TrajectoryRecorder.TRAILER_SIZE) {
+            return false;
+        }
+        ByteBuffer trailer = read(size - TrajectoryRecorder.TRAILER_SIZE, TrajectoryRecorder.TRAILER_SIZE);
+        long indexPosition = trailer.getLong();
+        if (trailer.getInt() != TrajectoryRecorder.INDEX_MAGIC) {
+            return false;
+        }
+        frames = read(indexPosition, 4).getInt();
+        ByteBuffer index = read(indexPosition + 4, 17 * frames);
+        frameOffset = new long[frames];
+        frameTick = new long[frames];
+        frameType = new byte[frames];
+        for (int i = 0; i < frames; i++) {
+            frameOffset[i] = index.getLong();
+            frameTick[i] = index.getLong();
+            frameType[i] = index.get();
+        }
+        return true;
+    }
+
+    /**
+     * Finds the frames from their headers, a frame which is not completely written is left out
+     */
+    private void scanFrames(long offset) throws IOException {
+        frameOffset = new long[64];
+        frameTick = new long[64];
+        frameType = new byte[64];
+        long size = channel.size();
+        while (offset + TrajectoryRecorder.FRAME_HEADER_SIZE <= size) {
+            ByteBuffer header = read(offset, TrajectoryRecorder.FRAME_HEADER_SIZE);
+            byte type = header.get();
+            long tick = header.getLong();
+            int length = header.getInt();
+            long end = offset + TrajectoryRecorder.FRAME_HEADER_SIZE + length;
+            if (length < 0 || end > size) {
+                break;
+            }
+            if (frames == frameOffset.length) {
+                frameOffset = Arrays.copyOf(frameOffset, frames * 2);
+                frameTick = Arrays.copyOf(frameTick, frames * 2);
+                frameType = Arrays.copyOf(frameType, frames * 2);
+            }
+            frameOffset[frames] = offset;
+            frameTick[frames] = tick;
+            frameType[frames] = type;
+            frames++;
+            offset = end;
+        }
+    }
+
+    /**
+     * Reads a frame into arrays of positions
+     * @param frame number of the frame (0 until getFrameCount)
+     * @param xs filled with the x positions, at least getParticleCount long
+     * @param ys filled with the y positions, at least getParticleCount long
+     * @throws IOException when the file cannot be read
+     */
+    public void readFrame(int frame, double[] xs, double[] ys) throws IOException {
+        seek(frame);
+        double scaleX = width / 65536.0;
+        double scaleY = height / 65536.0;
+        for (int i = 0; i < count; i++) {
+            // Middle of the quantization step
+            xs[i] = (x[i] + 0.5) * scaleX;
+            ys[i] = (y[i] + 0.5) * scaleY;
+        }
+    }
+
+    /**
+     * Decodes a frame into the quantized positions
+     * Starts from the key frame before it, unless the current frame is on the way
+     */
+    private void seek(int frame) throws IOException {
+        if (frame < 0 || frame >= frames) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + frames);
+        }
+        int start = frame;
+        while (frameType[start] != TrajectoryRecorder.KEY) {
+            start--; // the first frame is always a key frame
+        }
+        if (current >= start && current <= frame) {
+            start = current + 1;
+        }
+        for (int f = start; f <= frame; f++) {
+            decode(f);
+        }
+        current = frame;
+    }
+
+    private void decode(int frame) throws IOException {
+        ByteBuffer header = read(frameOffset[frame], TrajectoryRecorder.FRAME_HEADER_SIZE);
+        header.position(9);
+        int length = header.getInt();
+        if (data.capacity() < length) {
+            data = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        data.clear().limit(length);
+        readFully(frameOffset[frame] + TrajectoryRecorder.FRAME_HEADER_SIZE, data);
+        data.flip();
+        if (frameType[frame] == TrajectoryRecorder.KEY) {
+            for (int i = 0; i < count; i++) {
+                x[i] = data.getChar();
+            }
+            for (int i = 0; i < count; i++) {
+                y[i] = data.getChar();
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                x[i] = (char) (x[i] + getVarint(data)); // wraps around at 16 bits like the recorded positions
+            }
+            for (int i = 0; i < count; i++) {
+                y[i] = (char) (y[i] + getVarint(data));
+            }
+        }
+    }
+
+    /**
+     * Reads a zigzag varint difference
+     */
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(offset, buffer);
+        return buffer.flip();
+    }
+
+    private void readFully(long offset, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of trajectory");
+            }
+            offset += read;
+        }
+    }
+
+    public int getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Returns the tick of the simulation a frame was recorded at
+     * @param frame number of the frame
+     * @return tick of the frame
+     */
+    public long getTick(int frame) {
+        return frameTick[frame];
+    }
+
+    public int getParticleCount() {
+        return count;
+    }
+
+    public int getGroup(int index) {
+        return groups[index];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getEvery() {
+        return every;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
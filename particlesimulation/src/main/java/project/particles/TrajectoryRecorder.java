@@ -0,0 +1,322 @@
+package project.particles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the positions of every Nth tick to a file, read back with TrajectoryReader
+ * Positions are quantized to 16 bits relative to the world size, so the periodic wrap is the overflow of 16 bits.
+ * Every frame is stored as the difference with the frame before (zigzag varints),
+ * with a key frame of the full positions every keyFrameInterval frames for seeking.
+ * The tick thread only quantizes into a free slot of a ring buffer, a writer thread encodes and writes the slots.
+ * When the ring is full the frame is dropped, the tick thread never waits on the disk.
+ *
+ * Layout (little endian):
+ *   header: int magic, int version, int width, int height, int every, int particles, byte[particles] group
+ *   frame: byte type (KEY or DELTA), long tick, int length, byte[length] data
+ *   index: int frames, per frame long offset, long tick, byte type
+ *   trailer: long offset of the index, int INDEX_MAGIC
+ * Without the index (the recording was not closed) the reader finds the frames from their headers
+ */
+public class TrajectoryRecorder implements AutoCloseable {
+
+    static final int MAGIC = 0x5054524A; // "PTRJ"
+    static final int INDEX_MAGIC = 0x50494458; // "PIDX"
+    static final int VERSION = 1;
+    static final byte KEY = 0;
+    static final byte DELTA = 1;
+    static final int FRAME_HEADER_SIZE = 13;
+    static final int TRAILER_SIZE = 12;
+    static final int RING_SIZE = 8; // frames which can wait on the writer
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int every;
+    private final int keyFrameInterval;
+    private final int count;
+
+    // Ring of quantized frames, filled by the tick thread and emptied by the writer thread
+    private final char[][] ringX = new char[RING_SIZE][];
+    private final char[][] ringY = new char[RING_SIZE][];
+    private final long[] ringTick = new long[RING_SIZE];
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private volatile boolean closing = false;
+    private volatile long dropped = 0; // only changed by the tick thread
+
+    private Thread writer; // started after the recorder is constructed
+
+    // Only used by the writer thread
+    private final char[] previousX;
+    private final char[] previousY;
+    private byte[] data;
+    private long position;
+    private long[] indexOffset = new long[1024];
+    private long[] indexTick = new long[1024];
+    private byte[] indexType = new byte[1024];
+    private int frames = 0;
+    private volatile IOException error;
+
+    /**
+     * Starts a recording, the file is replaced when it exists
+     * The writer thread starts once the recorder is fully constructed
+     * @param path file to write
+     * @param particles particles to record, the number of particles has to stay the same
+     * @param width width of the world
+     * @param height height of the world
+     * @param every records every Nth tick
+     * @param keyFrameInterval number of frames from one key frame to the next
+     * @return recorder with its writer thread running
+     * @throws IOException when the file cannot be written
+     */
+    public static TrajectoryRecorder start(Path path, ParticleStore particles, int width, int height, int every,
+            int keyFrameInterval) throws IOException {
+        TrajectoryRecorder recorder = new TrajectoryRecorder(path, particles, width, height, every, keyFrameInterval);
+        recorder.writer = new Thread(recorder::writeFrames, "trajectory-writer");
+        recorder.writer.setDaemon(true);
+        recorder.writer.start();
+        return recorder;
+    }
+
+    /**
+     * Opens the file and writes the header
+     * @param path file to write
+     * @param particles particles to record, the number of particles has to stay the same
+     * @param width width of the world
+     * @param height height of the world
+     * @param every records every Nth tick
+     * @param keyFrameInterval number of frames from one key frame to the next
+     * @throws IOException when the file cannot be written
+     */
+    private TrajectoryRecorder(Path path, ParticleStore particles, int width, int height, int every, int keyFrameInterval)
+            throws IOException {
+        this.width = width;
+        this.height = height;
+        this.every = Math.max(1, every);
+        this.keyFrameInterval = Math.max(1, keyFrameInterval);
+        count = particles.size();
+        for (int i = 0; i < RING_SIZE; i++) {
+            ringX[i] = new char[count];
+            ringY[i] = new char[count];
+        }
+        previousX = new char[count];
+        previousY = new char[count];
+        data = new byte[FRAME_HEADER_SIZE + 6 * count]; // a varint of a 16 bit difference is at most 3 bytes
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(24 + count).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(this.every).putInt(count);
+        for (int id = 0; id < count; id++) {
+            header.put((byte) particles.getGroup(particles.indexOf(id))); // in the order of the ids, like the frames
+        }
+        writeFully(header.flip());
+    }
+
+    /**
+     * Records the positions when the tick is a multiple of every
+     * Call from the thread which updates the particles, after the update
+     * @param tick number of the tick
+     * @param particles particles to record
+     */
+    public void tick(long tick, ParticleStore particles) {
+        if (tick % every != 0) {
+            return;
+        }
+        long slot = published.get();
+        if (closing || particles.size() != count || slot - consumed.get() >= RING_SIZE || error != null) {
+            dropped++;
+            return;
+        }
+        int index = (int) (slot % RING_SIZE);
+        if (particles.getXArray() == null) {
+            quantize(particles, ringX[index], ringY[index]);
+        } else {
+            int[] order = particles.getIndexOfIdArray();
+            quantize(particles.getXArray(), order, ringX[index], 65536.0 / width);
+            quantize(particles.getYArray(), order, ringY[index], 65536.0 / height);
+        }
+        ringTick[index] = tick;
+        published.set(slot + 1);
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Turns positions into 16 bit fixed point, a position of the world size wraps around to 0
+     * The frame is in the order of the particle ids, so it stays the same when the particles are reordered
+     * @param order index of every id, null when every index is its own id
+     */
+    private void quantize(double[] values, int[] order, char[] quantized, double scale) {
+        if (order == null) {
+            for (int i = 0; i < count; i++) {
+                quantized[i] = (char) (int) Math.floor(values[i] * scale);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                quantized[i] = (char) (int) Math.floor(values[order[i]] * scale);
+            }
+        }
+    }
+
+    /**
+     * Turns the positions of a store without double arrays into 16 bit fixed point, through the getters
+     */
+    private void quantize(ParticleStore particles, char[] quantizedX, char[] quantizedY) {
+        double scaleX = 65536.0 / width;
+        double scaleY = 65536.0 / height;
+        for (int id = 0; id < count; id++) {
+            int i = particles.indexOf(id);
+            quantizedX[id] = (char) (int) Math.floor(particles.getX(i) * scaleX);
+            quantizedY[id] = (char) (int) Math.floor(particles.getY(i) * scaleY);
+        }
+    }
+
+    /**
+     * Loop of the writer thread, writes the frames of the ring until the recording is closed
+     */
+    private void writeFrames() {
+        while (true) {
+            long slot = consumed.get();
+            if (slot == published.get()) {
+                if (closing) {
+                    return;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+            int index = (int) (slot % RING_SIZE);
+            if (error == null) {
+                try {
+                    writeFrame(ringTick[index], ringX[index], ringY[index]);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            consumed.set(slot + 1);
+        }
+    }
+
+    /**
+     * Encodes one frame, as key frame or as difference with the previous frame
+     */
+    private void writeFrame(long tick, char[] x, char[] y) throws IOException {
+        byte type = frames % keyFrameInterval == 0 ? KEY : DELTA;
+        int length = FRAME_HEADER_SIZE;
+        if (type == KEY) {
+            for (int i = 0; i < count; i++) {
+                length = putChar(x[i], length);
+            }
+            for (int i = 0; i < count; i++) {
+                length = putChar(y[i], length);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                length = putVarint((short) (x[i] - previousX[i]), length);
+            }
+            for (int i = 0; i < count; i++) {
+                length = putVarint((short) (y[i] - previousY[i]), length);
+            }
+        }
+        System.arraycopy(x, 0, previousX, 0, count);
+        System.arraycopy(y, 0, previousY, 0, count);
+
+        ByteBuffer frame = ByteBuffer.wrap(data, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+        frame.put(type).putLong(tick).putInt(length - FRAME_HEADER_SIZE).position(0);
+        addToIndex(position, tick, type);
+        writeFully(frame);
+    }
+
+    private int putChar(char value, int offset) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+        return offset + 2;
+    }
+
+    /**
+     * Writes a difference as zigzag varint, small differences of both signs take one byte
+     */
+    private int putVarint(short delta, int offset) {
+        int value = (delta << 1) ^ (delta >> 31);
+        while ((value & ~0x7f) != 0) {
+            data[offset++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+
+    private void addToIndex(long offset, long tick, byte type) {
+        if (frames == indexOffset.length) {
+            indexOffset = Arrays.copyOf(indexOffset, frames * 2);
+            indexTick = Arrays.copyOf(indexTick, frames * 2);
+            indexType = Arrays.copyOf(indexType, frames * 2);
+        }
+        indexOffset[frames] = offset;
+        indexTick[frames] = tick;
+        indexType[frames] = type;
+        frames++;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the frames which are still in the ring and the frame index, and closes the file
+     * @throws IOException when writing failed, also for an error of the writer thread
+     */
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (error != null) {
+                throw error;
+            }
+            ByteBuffer index = ByteBuffer.allocate(4 + 17 * frames + TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long indexPosition = position;
+            index.putInt(frames);
+            for (int i = 0; i < frames; i++) {
+                index.putLong(indexOffset[i]).putLong(indexTick[i]).put(indexType[i]);
+            }
+            index.putLong(indexPosition).putInt(INDEX_MAGIC);
+            writeFully(index.flip());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the number of frames which were written or are waiting on the writer
+     * @return number of recorded frames
+     */
+    public long getRecordedFrames() {
+        return published.get();
+    }
+
+    /**
+     * Returns the number of frames which were not recorded, because the writer fell behind
+     * @return number of dropped frames
+     */
+    public long getDroppedFrames() {
+        return dropped;
+    }
+
+    public int getEvery() {
+        return every;
+    }
+}
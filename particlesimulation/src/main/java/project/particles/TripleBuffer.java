@@ -0,0 +1,61 @@
+package project.particles;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free exchange of values between one writer thread and one reader thread
+ * The writer fills its back buffer and publishes it, the reader takes the newest published buffer.
+ * There are three buffers, so the writer never waits on the reader and the reader never sees a buffer
+ * which is being written. Values published between two reads are skipped
+ * @param <T> type of the buffers
+ */
+public class TripleBuffer<T> {
+
+    private static final int INDEX = 3; // mask of the buffer index
+    private static final int FRESH = 4; // set when the middle buffer was published and not read yet
+
+    private final Object[] buffers = new Object[3];
+    private final AtomicInteger middle = new AtomicInteger(1); // index of the buffer in between, with the FRESH bit
+    private int back = 0; // only used by the writer
+    private int front = 2; // only used by the reader
+
+    /**
+     * @param factory creates the three buffers
+     */
+    public TripleBuffer(Supplier<T> factory) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = factory.get();
+        }
+    }
+
+    /**
+     * Returns the buffer the writer can fill, only call from the writer thread
+     * @return back buffer
+     */
+    @SuppressWarnings("unchecked")
+    public T getWriteBuffer() {
+        return (T) buffers[back];
+    }
+
+    /**
+     * Publishes the filled back buffer and gives the writer a new back buffer
+     * Only call from the writer thread
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * Returns the newest published buffer, only call from the reader thread
+     * The buffer stays owned by the reader until the next read
+     * @return newest buffer, or the same buffer as the last read when nothing new was published
+     */
+    @SuppressWarnings("unchecked")
+    public T read() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return (T) buffers[front];
+    }
+}
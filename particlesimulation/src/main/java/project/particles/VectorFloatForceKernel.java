@@ -0,0 +1,144 @@
+package project.particles;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Float force kernel on the Java Vector API
+ * Same masked calculation as VectorForceKernel with twice the lanes.
+ * The fixed point positions are subtracted as ints, which also does the periodic wrap, and then converted to float.
+ * Needs the jdk.incubator.vector module at runtime, see ForceKernels
+ */
+class VectorFloatForceKernel implements FloatForceKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED; // same number of lanes
+    private static final float B = (float) ParticleManager.FORCE_B;
+
+    @Override
+    public void accumulate(float x, float y, float[] attraction, float[] bx, float[] by, int[] bg, int from, int to,
+            float rMax, int width, int height, double[] total) {
+        // Constants are broadcast once, masked operations with a scalar argument are a lot slower
+        FloatVector zero = FloatVector.zero(SPECIES);
+        FloatVector one = FloatVector.broadcast(SPECIES, 1.0f);
+        FloatVector squaredMax = FloatVector.broadcast(SPECIES, rMax * rMax);
+        FloatVector inverseMax = FloatVector.broadcast(SPECIES, 1.0f / rMax);
+        FloatVector b = FloatVector.broadcast(SPECIES, B);
+        FloatVector inverseB = FloatVector.broadcast(SPECIES, 1.0f / B);
+        FloatVector onePlusB = FloatVector.broadcast(SPECIES, 1.0f + B);
+        FloatVector inverseOneMinusB = FloatVector.broadcast(SPECIES, 1.0f / (1.0f - B));
+        FloatVector px = FloatVector.broadcast(SPECIES, x);
+        FloatVector py = FloatVector.broadcast(SPECIES, y);
+        FloatVector w = FloatVector.broadcast(SPECIES, width);
+        FloatVector h = FloatVector.broadcast(SPECIES, height);
+        FloatVector halfWidth = FloatVector.broadcast(SPECIES, 0.5f * width);
+        FloatVector halfHeight = FloatVector.broadcast(SPECIES, 0.5f * height);
+        FloatVector minusHalfWidth = halfWidth.neg();
+        FloatVector minusHalfHeight = halfHeight.neg();
+        FloatVector sumx = zero;
+        FloatVector sumy = zero;
+
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector dx = FloatVector.fromArray(SPECIES, bx, i).sub(px);
+            FloatVector dy = FloatVector.fromArray(SPECIES, by, i).sub(py);
+
+            // Shortest distance in the periodic world
+            dx = dx.sub(zero.blend(w, dx.compare(VectorOperators.GT, halfWidth)));
+            dx = dx.add(zero.blend(w, dx.compare(VectorOperators.LT, minusHalfWidth)));
+            dy = dy.sub(zero.blend(h, dy.compare(VectorOperators.GT, halfHeight)));
+            dy = dy.add(zero.blend(h, dy.compare(VectorOperators.LT, minusHalfHeight)));
+
+            // Rejected on the squared distance, a vector without neighbors in range needs no square root
+            FloatVector squared = dx.mul(dx).add(dy.mul(dy));
+            VectorMask<Float> inRange = squared.compare(VectorOperators.GT, zero)
+                    .and(squared.compare(VectorOperators.LT, squaredMax));
+            if (!inRange.anyTrue()) {
+                continue;
+            }
+            FloatVector a = FloatVector.fromArray(SPECIES, attraction, 0, bg, i); // gathers attraction[bg[i]]
+            FloatVector distance = squared.sqrt();
+
+            // Piecewise force, d < b repels and b < d < 1 uses the attraction
+            FloatVector d = distance.mul(inverseMax);
+            FloatVector repel = d.mul(inverseB).sub(one);
+            FloatVector attract = a.mul(one.sub(d.add(d).sub(onePlusB).abs().mul(inverseOneMinusB)));
+            VectorMask<Float> near = d.compare(VectorOperators.LT, b).and(inRange);
+            VectorMask<Float> middle = d.compare(VectorOperators.GT, b).and(inRange);
+            FloatVector F = zero.blend(attract, middle).blend(repel, near);
+
+            // Out of range lanes divide by one, their force is already zero
+            FloatVector scale = F.div(one.blend(distance, inRange));
+            sumx = sumx.add(dx.mul(scale));
+            sumy = sumy.add(dy.mul(scale));
+        }
+
+        total[0] += sumx.reduceLanes(VectorOperators.ADD);
+        total[1] += sumy.reduceLanes(VectorOperators.ADD);
+
+        // Neighbors which do not fill a full vector
+        ScalarFloatForceKernel.accumulateRange(x, y, attraction, bx, by, bg, i, to, rMax, width, height, total);
+    }
+
+    @Override
+    public void accumulateFixed(int x, int y, float[] attraction, int[] bx, int[] by, int[] bg, int from, int to,
+            float rMax, int width, int height, double[] total) {
+        // Constants are broadcast once, masked operations with a scalar argument are a lot slower
+        FloatVector zero = FloatVector.zero(SPECIES);
+        FloatVector one = FloatVector.broadcast(SPECIES, 1.0f);
+        FloatVector squaredMax = FloatVector.broadcast(SPECIES, rMax * rMax);
+        FloatVector inverseMax = FloatVector.broadcast(SPECIES, 1.0f / rMax);
+        FloatVector b = FloatVector.broadcast(SPECIES, B);
+        FloatVector inverseB = FloatVector.broadcast(SPECIES, 1.0f / B);
+        FloatVector onePlusB = FloatVector.broadcast(SPECIES, 1.0f + B);
+        FloatVector inverseOneMinusB = FloatVector.broadcast(SPECIES, 1.0f / (1.0f - B));
+        IntVector px = IntVector.broadcast(INT_SPECIES, x);
+        IntVector py = IntVector.broadcast(INT_SPECIES, y);
+        FloatVector stepX = FloatVector.broadcast(SPECIES, (float) Precision.fixedStep(width));
+        FloatVector stepY = FloatVector.broadcast(SPECIES, (float) Precision.fixedStep(height));
+        FloatVector sumx = zero;
+        FloatVector sumy = zero;
+
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            // The int subtraction wraps around the world
+            FloatVector dx = ((FloatVector) IntVector.fromArray(INT_SPECIES, bx, i).sub(px)
+                    .convert(VectorOperators.I2F, 0)).mul(stepX);
+            FloatVector dy = ((FloatVector) IntVector.fromArray(INT_SPECIES, by, i).sub(py)
+                    .convert(VectorOperators.I2F, 0)).mul(stepY);
+
+            // Rejected on the squared distance, a vector without neighbors in range needs no square root
+            FloatVector squared = dx.mul(dx).add(dy.mul(dy));
+            VectorMask<Float> inRange = squared.compare(VectorOperators.GT, zero)
+                    .and(squared.compare(VectorOperators.LT, squaredMax));
+            if (!inRange.anyTrue()) {
+                continue;
+            }
+            FloatVector a = FloatVector.fromArray(SPECIES, attraction, 0, bg, i); // gathers attraction[bg[i]]
+            FloatVector distance = squared.sqrt();
+
+            // Piecewise force, d < b repels and b < d < 1 uses the attraction
+            FloatVector d = distance.mul(inverseMax);
+            FloatVector repel = d.mul(inverseB).sub(one);
+            FloatVector attract = a.mul(one.sub(d.add(d).sub(onePlusB).abs().mul(inverseOneMinusB)));
+            VectorMask<Float> near = d.compare(VectorOperators.LT, b).and(inRange);
+            VectorMask<Float> middle = d.compare(VectorOperators.GT, b).and(inRange);
+            FloatVector F = zero.blend(attract, middle).blend(repel, near);
+
+            // Out of range lanes divide by one, their force is already zero
+            FloatVector scale = F.div(one.blend(distance, inRange));
+            sumx = sumx.add(dx.mul(scale));
+            sumy = sumy.add(dy.mul(scale));
+        }
+
+        total[0] += sumx.reduceLanes(VectorOperators.ADD);
+        total[1] += sumy.reduceLanes(VectorOperators.ADD);
+
+        ScalarFloatForceKernel.accumulateFixedRange(x, y, attraction, bx, by, bg, i, to, rMax, width, height, total);
+    }
+}
@@ -0,0 +1,84 @@
+package project.particles;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Force kernel on the Java Vector API
+ * Handles a full lane width of neighbors at once, the periodic wrap,
+ * the distance cutoff and the piecewise force are done with masks instead of branches.
+ * Needs the jdk.incubator.vector module at runtime, see ForceKernels
+ */
+class VectorForceKernel implements ForceKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final double B = ParticleManager.FORCE_B;
+
+    @Override
+    public void accumulate(double x, double y, double[] attraction, double[] bx, double[] by, int[] bg, int from, int to,
+            double rMax, int width, int height, double[] total) {
+        // Constants are broadcast once, masked operations with a scalar argument are a lot slower
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+        DoubleVector px = DoubleVector.broadcast(SPECIES, x);
+        DoubleVector py = DoubleVector.broadcast(SPECIES, y);
+        DoubleVector w = DoubleVector.broadcast(SPECIES, width);
+        DoubleVector h = DoubleVector.broadcast(SPECIES, height);
+        DoubleVector halfWidth = DoubleVector.broadcast(SPECIES, 0.5 * width);
+        DoubleVector halfHeight = DoubleVector.broadcast(SPECIES, 0.5 * height);
+        DoubleVector minusHalfWidth = halfWidth.neg();
+        DoubleVector minusHalfHeight = halfHeight.neg();
+        DoubleVector squaredMax = DoubleVector.broadcast(SPECIES, rMax * rMax);
+        DoubleVector inverseMax = DoubleVector.broadcast(SPECIES, 1.0 / rMax);
+        DoubleVector b = DoubleVector.broadcast(SPECIES, B);
+        DoubleVector inverseB = DoubleVector.broadcast(SPECIES, 1.0 / B);
+        DoubleVector onePlusB = DoubleVector.broadcast(SPECIES, 1.0 + B);
+        DoubleVector inverseOneMinusB = DoubleVector.broadcast(SPECIES, 1.0 / (1.0 - B));
+        DoubleVector sumx = zero;
+        DoubleVector sumy = zero;
+
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, bx, i).sub(px);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, by, i).sub(py);
+            DoubleVector a = DoubleVector.fromArray(SPECIES, attraction, 0, bg, i); // gathers attraction[bg[i]]
+
+            // Shortest distance in the periodic world
+            dx = dx.sub(zero.blend(w, dx.compare(VectorOperators.GT, halfWidth)));
+            dx = dx.add(zero.blend(w, dx.compare(VectorOperators.LT, minusHalfWidth)));
+            dy = dy.sub(zero.blend(h, dy.compare(VectorOperators.GT, halfHeight)));
+            dy = dy.add(zero.blend(h, dy.compare(VectorOperators.LT, minusHalfHeight)));
+
+            // Rejected on the squared distance, a vector without neighbors in range needs no square root
+            DoubleVector squared = dx.mul(dx).add(dy.mul(dy));
+            VectorMask<Double> inRange = squared.compare(VectorOperators.GT, zero)
+                    .and(squared.compare(VectorOperators.LT, squaredMax));
+            if (!inRange.anyTrue()) {
+                continue;
+            }
+            DoubleVector distance = squared.sqrt();
+
+            // Piecewise force, d < b repels and b < d < 1 uses the attraction
+            DoubleVector d = distance.mul(inverseMax);
+            DoubleVector repel = d.mul(inverseB).sub(one);
+            DoubleVector attract = a.mul(one.sub(d.add(d).sub(onePlusB).abs().mul(inverseOneMinusB)));
+            VectorMask<Double> near = d.compare(VectorOperators.LT, b).and(inRange);
+            VectorMask<Double> middle = d.compare(VectorOperators.GT, b).and(inRange);
+            DoubleVector F = zero.blend(attract, middle).blend(repel, near);
+
+            // Out of range lanes divide by one, their force is already zero
+            DoubleVector scale = F.div(one.blend(distance, inRange));
+            sumx = sumx.add(dx.mul(scale));
+            sumy = sumy.add(dy.mul(scale));
+        }
+
+        total[0] += sumx.reduceLanes(VectorOperators.ADD);
+        total[1] += sumy.reduceLanes(VectorOperators.ADD);
+
+        // Neighbors which do not fill a full vector
+        ScalarForceKernel.accumulateRange(x, y, attraction, bx, by, bg, i, to, rMax, width, height, total);
+    }
+}
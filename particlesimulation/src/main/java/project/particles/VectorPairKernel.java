@@ -0,0 +1,86 @@
+package project.particles;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Pair kernel on the Java Vector API
+ * Same masked calculation as VectorForceKernel, the forces on the neighbors are
+ * added with a load/add/store because the neighbors of a range are contiguous.
+ * Needs the jdk.incubator.vector module at runtime, see ForceKernels
+ */
+class VectorPairKernel implements PairKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final double B = ParticleManager.FORCE_B;
+
+    @Override
+    public void accumulate(double x, double y, double[] attraction, double[] reaction, double[] bx, double[] by, int[] bg,
+            int from, int to, double rMax, int width, int height, double[] fx, double[] fy, double[] total) {
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+        DoubleVector px = DoubleVector.broadcast(SPECIES, x);
+        DoubleVector py = DoubleVector.broadcast(SPECIES, y);
+        DoubleVector w = DoubleVector.broadcast(SPECIES, width);
+        DoubleVector h = DoubleVector.broadcast(SPECIES, height);
+        DoubleVector halfWidth = DoubleVector.broadcast(SPECIES, 0.5 * width);
+        DoubleVector halfHeight = DoubleVector.broadcast(SPECIES, 0.5 * height);
+        DoubleVector minusHalfWidth = halfWidth.neg();
+        DoubleVector minusHalfHeight = halfHeight.neg();
+        DoubleVector max = DoubleVector.broadcast(SPECIES, rMax);
+        DoubleVector inverseMax = DoubleVector.broadcast(SPECIES, 1.0 / rMax);
+        DoubleVector b = DoubleVector.broadcast(SPECIES, B);
+        DoubleVector inverseB = DoubleVector.broadcast(SPECIES, 1.0 / B);
+        DoubleVector onePlusB = DoubleVector.broadcast(SPECIES, 1.0 + B);
+        DoubleVector inverseOneMinusB = DoubleVector.broadcast(SPECIES, 1.0 / (1.0 - B));
+        DoubleVector sumx = zero;
+        DoubleVector sumy = zero;
+
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, bx, i).sub(px);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, by, i).sub(py);
+
+            // Gathers before any mask is made, C2 of JDK 21.0.1 crashes on AVX-512 when they come after
+            DoubleVector a = DoubleVector.fromArray(SPECIES, attraction, 0, bg, i);
+            DoubleVector r = DoubleVector.fromArray(SPECIES, reaction, 0, bg, i);
+
+            // Shortest distance in the periodic world
+            dx = dx.sub(zero.blend(w, dx.compare(VectorOperators.GT, halfWidth)));
+            dx = dx.add(zero.blend(w, dx.compare(VectorOperators.LT, minusHalfWidth)));
+            dy = dy.sub(zero.blend(h, dy.compare(VectorOperators.GT, halfHeight)));
+            dy = dy.add(zero.blend(h, dy.compare(VectorOperators.LT, minusHalfHeight)));
+
+            DoubleVector distance = dx.mul(dx).add(dy.mul(dy)).sqrt();
+            VectorMask<Double> inRange = distance.compare(VectorOperators.GT, zero)
+                    .and(distance.compare(VectorOperators.LT, max));
+
+            DoubleVector d = distance.mul(inverseMax);
+            VectorMask<Double> near = d.compare(VectorOperators.LT, b).and(inRange);
+            VectorMask<Double> middle = d.compare(VectorOperators.GT, b).and(inRange);
+            DoubleVector repel = d.mul(inverseB).sub(one);
+            DoubleVector shape = one.sub(d.add(d).sub(onePlusB).abs().mul(inverseOneMinusB));
+
+            // Both directions share the geometry, only the attraction differs
+            DoubleVector F = zero.blend(a.mul(shape), middle).blend(repel, near);
+            DoubleVector R = zero.blend(r.mul(shape), middle).blend(repel, near);
+
+            DoubleVector inverseDistance = one.div(one.blend(distance, inRange));
+            DoubleVector ux = dx.mul(inverseDistance);
+            DoubleVector uy = dy.mul(inverseDistance);
+            sumx = sumx.add(ux.mul(F));
+            sumy = sumy.add(uy.mul(F));
+            DoubleVector.fromArray(SPECIES, fx, i).sub(ux.mul(R)).intoArray(fx, i);
+            DoubleVector.fromArray(SPECIES, fy, i).sub(uy.mul(R)).intoArray(fy, i);
+        }
+
+        total[0] += sumx.reduceLanes(VectorOperators.ADD);
+        total[1] += sumy.reduceLanes(VectorOperators.ADD);
+
+        // Neighbors which do not fill a full vector
+        ScalarPairKernel.accumulateRange(x, y, attraction, reaction, bx, by, bg, i, to, rMax, width, height, fx, fy, total);
+    }
+}
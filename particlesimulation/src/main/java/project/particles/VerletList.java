@@ -0,0 +1,212 @@
+package project.particles;
+
+/**
+ * Verlet neighbor lists, reused over several ticks
+ * Every particle gets a list of all particles within rMax + skin.
+ * As long as no particle moved more than skin / 2 since the lists were built,
+ * no pair came closer than rMax without being in the lists, so the forces are the same as with the grid.
+ * The lists are stored after eachother in one array, the list of particle i is
+ * neighbors[listStart[i]] until neighbors[listStart[i + 1]]
+ */
+class VerletList {
+
+    private final Grid grid = new Grid();
+    private int[] listStart = new int[1];
+    private int[] neighbors = new int[0];
+
+    // Positions at the last build, to track how far the particles moved
+    private double[] buildX = new double[0];
+    private double[] buildY = new double[0];
+
+    private boolean built = false;
+    private int builtSize;
+    private double builtRMax;
+    private double builtSkin;
+    private int builtSubdivision;
+    private int builtWidth;
+    private int builtHeight;
+
+    private long rebuilds = 0;
+    private long updates = 0;
+
+    /**
+     * Rebuilds the lists if they are not valid anymore for the current positions
+     * That is when a particle moved more than skin / 2 or one of the settings changed
+     * @param particles particles with the current positions
+     * @param rMax maximum distance of interaction
+     * @param skin extra distance around rMax
+     * @param subdivision number of grid cells per rMax + skin used for building
+     * @param width width of the world
+     * @param height height of the world
+     * @param executor runs the build on one or more threads
+     * @param grain maximum number of particles in a chunk
+     * @return true if the lists were rebuilt
+     */
+    boolean update(ParticleStore particles, double rMax, double skin, int subdivision, int width, int height,
+            RangeAction.RangeExecutor executor, int grain) {
+        updates++;
+        if (isValid(particles, rMax, skin, subdivision, width, height)) {
+            return false;
+        }
+        build(particles, rMax, skin, subdivision, width, height, executor, grain);
+        return true;
+    }
+
+    /**
+     * Returns if the lists are still valid for the current positions and settings
+     * @see #update
+     */
+    boolean isValid(ParticleStore particles, double rMax, double skin, int subdivision, int width, int height) {
+        boolean settingsChanged = !built || particles.size() != builtSize || rMax != builtRMax || skin != builtSkin
+                || subdivision != builtSubdivision || width != builtWidth || height != builtHeight;
+        return !settingsChanged && getMaxDisplacement(particles) <= skin / 2;
+    }
+
+    /**
+     * Makes the next update rebuild the lists, for when the particles moved to other indices
+     */
+    void invalidate() {
+        built = false;
+    }
+
+    /**
+     * Returns the largest distance a particle moved since the last build
+     * The shortest distance through the periodic border is used
+     * @param particles particles with the current positions
+     * @return largest displacement
+     */
+    private double getMaxDisplacement(ParticleStore particles) {
+        double max = 0;
+        for (int i = 0; i < builtSize; i++) {
+            double dx = Math.abs(particles.getX(i) - buildX[i]);
+            double dy = Math.abs(particles.getY(i) - buildY[i]);
+            dx = Math.min(dx, builtWidth - dx);
+            dy = Math.min(dy, builtHeight - dy);
+            max = Math.max(max, dx * dx + dy * dy);
+        }
+        return Math.sqrt(max);
+    }
+
+    /**
+     * Builds the lists from a grid of rMax + skin
+     * First counts the neighbors of every particle, then fills the lists,
+     * both passes can run on more threads because every particle only writes its own list
+     */
+    private void build(ParticleStore particles, double rMax, double skin, int subdivision, int width, int height,
+            RangeAction.RangeExecutor executor, int grain) {
+        int n = particles.size();
+        double cutoff = rMax + skin;
+        grid.build(cutoff, subdivision, width, height, particles);
+
+        if (listStart.length < n + 1) {
+            listStart = new int[n + 1];
+            buildX = new double[n];
+            buildY = new double[n];
+        }
+        executor.forEachRange(n, grain, (from, to) -> scan(particles, from, to, cutoff, width, height, false));
+        listStart[0] = 0;
+        for (int i = 0; i < n; i++) {
+            listStart[i + 1] += listStart[i];
+        }
+        if (neighbors.length < listStart[n]) {
+            neighbors = new int[listStart[n] + listStart[n] / 4];
+        }
+        executor.forEachRange(n, grain, (from, to) -> scan(particles, from, to, cutoff, width, height, true));
+
+        for (int i = 0; i < n; i++) {
+            buildX[i] = particles.getX(i);
+            buildY[i] = particles.getY(i);
+        }
+        built = true;
+        builtSize = n;
+        builtRMax = rMax;
+        builtSkin = skin;
+        builtSubdivision = subdivision;
+        builtWidth = width;
+        builtHeight = height;
+        rebuilds++;
+    }
+
+    /**
+     * Finds the particles within the cutoff for a range of particles
+     * @param fill false to only count into listStart[i + 1], true to write the lists
+     */
+    private void scan(ParticleStore particles, int from, int to, double cutoff, int width, int height, boolean fill) {
+        double[] sortedX = grid.getSortedX();
+        double[] sortedY = grid.getSortedY();
+        int[] sorted = grid.getSortedIndex();
+        int[] ranges = grid.newRangeBuffer();
+        double cutoffSquared = cutoff * cutoff;
+
+        for (int i = from; i < to; i++) {
+            double x = particles.getX(i);
+            double y = particles.getY(i);
+            int position = fill ? listStart[i] : 0;
+            int count = 0;
+            int rangeCount = grid.getNeighborRanges(i, ranges);
+            for (int r = 0; r < rangeCount; r++) {
+                for (int k = ranges[2 * r]; k < ranges[2 * r + 1]; k++) {
+                    double dx = sortedX[k] - x;
+                    double dy = sortedY[k] - y;
+                    // Shortest distance through the periodic border
+                    if (dx > 0.5 * width) {
+                        dx -= width;
+                    } else if (dx < -0.5 * width) {
+                        dx += width;
+                    }
+                    if (dy > 0.5 * height) {
+                        dy -= height;
+                    } else if (dy < -0.5 * height) {
+                        dy += height;
+                    }
+                    if (dx * dx + dy * dy < cutoffSquared && sorted[k] != i) {
+                        if (fill) {
+                            neighbors[position + count] = sorted[k];
+                        }
+                        count++;
+                    }
+                }
+            }
+            if (!fill) {
+                listStart[i + 1] = count;
+            }
+        }
+    }
+
+    /**
+     * Returns where the list of a particle starts, getListStart(index + 1) is where it ends
+     * @param index index of the particle
+     * @return position of the first neighbor in getNeighbors()
+     */
+    int getListStart(int index) {
+        return listStart[index];
+    }
+
+    // All lists after eachother, only valid until the next build
+    int[] getNeighbors() {
+        return neighbors;
+    }
+
+
+    // Getters
+    /**
+     * Returns how many times the lists were built
+     */
+    long getRebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * Returns how many ticks used the lists
+     */
+    long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Returns the average number of neighbors in a list of the last build
+     */
+    double getAverageLength() {
+        return builtSize == 0 ? 0 : (double) listStart[builtSize] / builtSize;
+    }
+}
@@ -0,0 +1,20 @@
+package project.main;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * FLOAT and FIXED against DOUBLE, on a small seeded run
+ */
+class PrecisionComparisonTest {
+
+    @Test
+    void floatAndFixedStayWithinTolerances() {
+        Map<String, String> options = HeadlessSimulation.parseOptions(new String[] {
+                "--particles=100", "--groups=6", "--seed=1", "--threads=2"});
+        assertTrue(new PrecisionComparison(options, 300, 50).run());
+    }
+}
@@ -0,0 +1,94 @@
+package project.particles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The vector kernels against the scalar kernels, on random batches of neighbors
+ * The batches cover neighbors across the periodic border, outside rMax and on top of the particle.
+ * Skipped when the jdk.incubator.vector module is not loaded
+ */
+class ForceKernelsTest {
+
+    private static final double TOLERANCE = 1e-9; // per neighbor, the order of the sums differs
+    private static final double FLOAT_TOLERANCE = 1e-5; // per neighbor, float sums in a different order
+
+    @Test
+    void vectorKernelMatchesScalarKernel() {
+        ForceKernel vector = ForceKernels.vector();
+        assumeTrue(vector != null, "jdk.incubator.vector is not loaded");
+        double difference = ForceKernels.maxDifference(vector, new ScalarForceKernel());
+        assertTrue(difference <= TOLERANCE, "difference per neighbor " + difference);
+    }
+
+    @Test
+    void vectorFloatKernelMatchesScalarFloatKernel() {
+        FloatForceKernel vector = ForceKernels.vectorFloat();
+        assumeTrue(vector != null, "jdk.incubator.vector is not loaded");
+        for (Precision precision : new Precision[] {Precision.FLOAT, Precision.FIXED}) {
+            double difference = ForceKernels.maxDifference(ForceKernels.asForceKernel(vector, precision),
+                    ForceKernels.asForceKernel(new ScalarFloatForceKernel(), precision));
+            assertTrue(difference <= FLOAT_TOLERANCE, precision + " difference per neighbor " + difference);
+        }
+    }
+
+    @Test
+    void vectorPairKernelMatchesScalarPairKernel() {
+        PairKernel vector = ForceKernels.vectorPair();
+        assumeTrue(vector != null, "jdk.incubator.vector is not loaded");
+        PairKernel scalar = new ScalarPairKernel();
+        Random random = new Random(1);
+        int width = 1800;
+        int height = 1200;
+        double rMax = 172;
+        double[] bx = new double[257];
+        double[] by = new double[257];
+        int[] bg = new int[257];
+        double[] attraction = new double[6];
+        double[] reaction = new double[6];
+        double[] expectedX = new double[257];
+        double[] expectedY = new double[257];
+        double[] actualX = new double[257];
+        double[] actualY = new double[257];
+        double[] expected = new double[2];
+        double[] actual = new double[2];
+
+        for (int batch = 0; batch < 64; batch++) {
+            double x = random.nextDouble() * width;
+            double y = random.nextDouble() * height;
+            int from = random.nextInt(8);
+            int n = random.nextInt(bx.length + 1 - from);
+            for (int i = 0; i < attraction.length; i++) {
+                attraction[i] = random.nextInt(-5, 6) / 5.0;
+                reaction[i] = random.nextInt(-5, 6) / 5.0;
+            }
+            for (int i = from; i < from + n; i++) {
+                bx[i] = (x + (random.nextDouble() * 2 - 1) * 1.2 * rMax + width) % width;
+                by[i] = (y + (random.nextDouble() * 2 - 1) * 1.2 * rMax + height) % height;
+                bg[i] = random.nextInt(attraction.length);
+                expectedX[i] = expectedY[i] = actualX[i] = actualY[i] = random.nextDouble();
+            }
+            if (n > 0) {
+                bx[from] = x; // the particle itself
+                by[from] = y;
+            }
+
+            expected[0] = expected[1] = 0;
+            actual[0] = actual[1] = 0;
+            scalar.accumulate(x, y, attraction, reaction, bx, by, bg, from, from + n, rMax, width, height, expectedX, expectedY, expected);
+            vector.accumulate(x, y, attraction, reaction, bx, by, bg, from, from + n, rMax, width, height, actualX, actualY, actual);
+            for (int i = from; i < from + n; i++) {
+                assertEquals(expectedX[i], actualX[i], TOLERANCE, "reaction x of neighbor " + i + " in batch " + batch);
+                assertEquals(expectedY[i], actualY[i], TOLERANCE, "reaction y of neighbor " + i + " in batch " + batch);
+            }
+            double scale = Math.max(1.0, n);
+            assertEquals(expected[0], actual[0], TOLERANCE * scale, "force x in batch " + batch);
+            assertEquals(expected[1], actual[1], TOLERANCE * scale, "force y in batch " + batch);
+        }
+    }
+}